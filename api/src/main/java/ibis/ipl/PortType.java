@@ -191,6 +191,15 @@ public final class PortType extends CapabilitySet {
      */
     public final static String SERIALIZATION_OBJECT_SUN = 
         SERIALIZATION_OBJECT + ".sun";
+
+    /**
+     * This capability describes that integers, lengths and object handles
+     * are sent in a compact, variable-length encoding. This saves bandwidth
+     * at the cost of some CPU time. It only has effect with data
+     * serialization and ibis object serialization.
+     */
+    public final static String SERIALIZATION_COMPACT =
+        SERIALIZATION + ".compact";
     
     /** 
      * Constructor for a port type.
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes and reads byte arrays and single bytes with byte serialization.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ByteSerializationBenchmark {
+
+    /** Number of bytes. */
+    @Param({ "16", "1024", "65536" })
+    public int size;
+
+    private StreamPair streams;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws IOException {
+        streams = new StreamPair("byte");
+        bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) i;
+        }
+    }
+
+    @Benchmark
+    public byte[] byteArray() throws IOException {
+        streams.out.writeArray(bytes);
+        streams.endWrite();
+        streams.in.readArray(bytes);
+        streams.endRead();
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] singleBytes() throws IOException {
+        for (int i = 0; i < size; i++) {
+            streams.out.writeByte(bytes[i]);
+        }
+        streams.endWrite();
+        for (int i = 0; i < size; i++) {
+            bytes[i] = streams.in.readByte();
+        }
+        streams.endRead();
+        return bytes;
+    }
+}
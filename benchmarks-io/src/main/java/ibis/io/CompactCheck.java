@@ -0,0 +1,327 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Checks that data and Ibis serialization read back what they wrote, in
+ * the compact format (see
+ * {@link DataSerializationOutputStream#setCompact(boolean)}) as well as in
+ * the normal one: ints and longs at the boundaries of the varint encoding,
+ * small arrays, which are written through the same buffers, and object
+ * handles and type numbers across resets. Run by the compactCheck task,
+ * which is part of check. Exits with status 1 when a check fails.
+ */
+public final class CompactCheck {
+
+    private static final int[] INTS = { 0, 1, -1, 2, -2, 63, -64, 64, -65,
+            127, 128, 8191, -8192, 8192, Short.MAX_VALUE, Short.MIN_VALUE,
+            Integer.MAX_VALUE - 1, Integer.MIN_VALUE + 1, Integer.MAX_VALUE,
+            Integer.MIN_VALUE };
+
+    private static final long[] LONGS = { 0L, 1L, -1L, 63L, -64L, 64L,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, 1L << 32, -(1L << 32),
+            1L << 62, Long.MAX_VALUE - 1, Long.MIN_VALUE + 1, Long.MAX_VALUE,
+            Long.MIN_VALUE };
+
+    /** Number of objects in the graphs written, so that handles need more
+     * than one byte. */
+    private static final int NODES = 300;
+
+    private static final int END = 0x5a5a5a5a;
+
+    /** An object of a class that is not rewritten. */
+    private static final class Node implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        int i;
+
+        long l;
+
+        Node next;
+
+        Object other;
+    }
+
+    private final String serialization;
+
+    private final boolean compact;
+
+    private final StreamPair streams;
+
+    private int failures = 0;
+
+    private CompactCheck(String serialization, boolean compact)
+            throws IOException {
+        this.serialization = serialization;
+        this.compact = compact;
+        streams = new StreamPair(serialization, compact);
+    }
+
+    private void check(boolean ok, String what) {
+        if (!ok) {
+            failures++;
+            System.err.println(serialization + (compact ? " compact" : "")
+                    + ": " + what);
+        }
+    }
+
+    /**
+     * Ends a message, after writing a marker that is checked when reading
+     * it, so that a reader that is out of step is noticed.
+     */
+    private void endWrite() throws IOException {
+        streams.out.writeInt(END);
+        streams.endWrite();
+    }
+
+    private void endRead(String what) throws IOException {
+        check(streams.in.readInt() == END, what + ": end of message not found");
+        streams.endRead();
+    }
+
+    private void primitives() throws IOException {
+        SerializationOutput out = streams.out;
+        SerializationInput in = streams.in;
+
+        for (int i = 0; i < INTS.length; i++) {
+            out.writeInt(INTS[i]);
+            out.writeByte((byte) i);
+            out.writeLong(INTS[i]);
+        }
+        for (int i = 0; i < LONGS.length; i++) {
+            out.writeLong(LONGS[i]);
+            out.writeDouble(i);
+        }
+        endWrite();
+
+        for (int i = 0; i < INTS.length; i++) {
+            int v = in.readInt();
+            check(v == INTS[i], "int " + INTS[i] + " read as " + v);
+            check(in.readByte() == (byte) i, "byte after int " + INTS[i]);
+            long l = in.readLong();
+            check(l == INTS[i], "long " + INTS[i] + " read as " + l);
+        }
+        for (int i = 0; i < LONGS.length; i++) {
+            long l = in.readLong();
+            check(l == LONGS[i], "long " + LONGS[i] + " read as " + l);
+            check(in.readDouble() == i, "double after long " + LONGS[i]);
+        }
+        endRead("primitives");
+    }
+
+    /**
+     * Writes more ints and longs than fit in a single bunch.
+     */
+    private void manyPrimitives() throws IOException {
+        int n = 100000;
+
+        for (int i = 0; i < n; i++) {
+            streams.out.writeInt(INTS[i % INTS.length] ^ i);
+            streams.out.writeLong(LONGS[i % LONGS.length] ^ i);
+        }
+        endWrite();
+
+        boolean ok = true;
+        for (int i = 0; i < n; i++) {
+            ok &= streams.in.readInt() == (INTS[i % INTS.length] ^ i);
+            ok &= streams.in.readLong() == (LONGS[i % LONGS.length] ^ i);
+        }
+        check(ok, "wrong value in a run of " + n + " ints and longs");
+        endRead("many primitives");
+    }
+
+    private void arrays() throws IOException {
+        SerializationOutput out = streams.out;
+        SerializationInput in = streams.in;
+        int bound = IOProperties.SMALL_ARRAY_BOUND;
+        int[] lengths = { 0, 1, 3, bound / Constants.SIZEOF_LONG - 1,
+                bound / Constants.SIZEOF_LONG, bound / Constants.SIZEOF_INT - 1,
+                bound / Constants.SIZEOF_INT, 4 * bound };
+
+        for (int n : lengths) {
+            int[] ints = new int[n];
+            long[] longs = new long[n];
+            for (int i = 0; i < n; i++) {
+                ints[i] = INTS[i % INTS.length];
+                longs[i] = LONGS[i % LONGS.length];
+            }
+
+            out.writeArray(ints);
+            out.writeArray(longs);
+            if (n > 2) {
+                out.writeArray(ints, 1, n - 2);
+            }
+            endWrite();
+
+            int[] ints2 = new int[n];
+            long[] longs2 = new long[n];
+            in.readArray(ints2);
+            in.readArray(longs2);
+            check(Arrays.equals(ints, ints2), "int array of " + n);
+            check(Arrays.equals(longs, longs2), "long array of " + n);
+            if (n > 2) {
+                in.readArray(ints2, 1, n - 2);
+                check(Arrays.equals(ints, ints2), "int array slice of " + n);
+            }
+            endRead("arrays of " + n);
+        }
+    }
+
+    /**
+     * Creates a graph of nodes, in which every node refers to an object
+     * written earlier, or to an array or a string.
+     */
+    private static Node graph() {
+        Node[] nodes = new Node[NODES];
+        for (int i = 0; i < NODES; i++) {
+            nodes[i] = new Node();
+            nodes[i].i = INTS[i % INTS.length];
+            nodes[i].l = LONGS[i % LONGS.length];
+        }
+        for (int i = 0; i < NODES; i++) {
+            if (i + 1 < NODES) {
+                nodes[i].next = nodes[i + 1];
+            }
+            switch (i % 4) {
+            case 0:
+                nodes[i].other = nodes[i / 2];
+                break;
+            case 1:
+                nodes[i].other = new int[] { i, -i };
+                break;
+            case 2:
+                nodes[i].other = "node " + i;
+                break;
+            default:
+                nodes[i].other = new long[] { i };
+                break;
+            }
+        }
+        return nodes[0];
+    }
+
+    private void checkGraph(Object o, String what) {
+        if (!(o instanceof Node)) {
+            check(false, what + ": read " + o);
+            return;
+        }
+        Node[] nodes = new Node[NODES];
+        Node n = (Node) o;
+        for (int i = 0; i < NODES; i++) {
+            if (n == null) {
+                check(false, what + ": list ends at node " + i);
+                return;
+            }
+            nodes[i] = n;
+            n = n.next;
+        }
+        check(n == null, what + ": list too long");
+
+        for (int i = 0; i < NODES; i++) {
+            Node node = nodes[i];
+            boolean ok = node.i == INTS[i % INTS.length]
+                    && node.l == LONGS[i % LONGS.length];
+            switch (i % 4) {
+            case 0:
+                ok &= node.other == nodes[i / 2];
+                break;
+            case 1:
+                ok &= Arrays.equals((int[]) node.other, new int[] { i, -i });
+                break;
+            case 2:
+                ok &= ("node " + i).equals(node.other);
+                break;
+            default:
+                ok &= Arrays.equals((long[]) node.other, new long[] { i });
+                break;
+            }
+            check(ok, what + ": node " + i);
+        }
+    }
+
+    /**
+     * Writes object graphs in several messages. The first message sends the
+     * type numbers, the second one uses them, and the third one, after the
+     * types are cleared, sends them again. Within a message, a second
+     * reference to an object is written as a handle.
+     */
+    private void objects() throws IOException, ClassNotFoundException {
+        SerializationOutput out = streams.out;
+        SerializationInput in = streams.in;
+
+        for (int m = 0; m < 3; m++) {
+            String what = "objects, message " + m;
+            if (m == 2) {
+                out.reset(true);
+            }
+            Node graph = graph();
+            int[] ints = { -1, 0, 1 };
+            out.writeObject(graph);
+            out.writeInt(m);
+            out.writeObject(ints);
+            out.writeObject(graph);
+            out.writeObject(ints);
+            out.writeObject(null);
+            endWrite();
+
+            Object g = in.readObject();
+            checkGraph(g, what);
+            check(in.readInt() == m, what + ": int after graph");
+            Object a = in.readObject();
+            check(a instanceof int[] && Arrays.equals(ints, (int[]) a), what
+                    + ": array");
+            check(in.readObject() == g, what + ": second reference to graph");
+            check(in.readObject() == a, what + ": second reference to array");
+            check(in.readObject() == null, what + ": null");
+            endRead(what);
+        }
+    }
+
+    private int run() throws IOException, ClassNotFoundException {
+        primitives();
+        manyPrimitives();
+        arrays();
+        if (serialization.equals("ibis")) {
+            objects();
+        }
+        // Once more, to check that nothing was left behind.
+        primitives();
+        streams.out.close();
+        streams.in.close();
+        return failures;
+    }
+
+    public static void main(String[] args) throws IOException,
+            ClassNotFoundException {
+        int failures = 0;
+        for (String serialization : new String[] { "data", "ibis" }) {
+            failures += new CompactCheck(serialization, false).run();
+            failures += new CompactCheck(serialization, true).run();
+        }
+        if (failures != 0) {
+            System.err.println(failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("Compact format checks passed");
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Converts primitive arrays to and from bytes with each of the
+ * {@link Conversion} implementations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConversionBenchmark {
+
+    /** The conversion, with the names of the ibis.io.conversion property. */
+    @Param({ "simple", "hybrid", "wrap", "chunk", "hybridwrap", "varhandle",
+            "view", "auto" })
+    public String conversion;
+
+    @Param({ "little", "big" })
+    public String order;
+
+    /** Number of array elements. */
+    @Param({ "16", "1024", "65536" })
+    public int size;
+
+    private Conversion c;
+
+    private int[] ints;
+
+    private double[] doubles;
+
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws Exception {
+        c = load(conversion, order.equals("big"));
+        ints = new int[size];
+        doubles = new double[size];
+        for (int i = 0; i < size; i++) {
+            ints[i] = i * 31;
+            doubles[i] = i * 0.5;
+        }
+        bytes = new byte[size * Conversion.DOUBLE_SIZE];
+    }
+
+    private static Conversion load(String name, boolean bigEndian)
+            throws Exception {
+        String order = bigEndian ? "Big" : "Little";
+        if (name.equals("simple")) {
+            return Conversion.loadConversion("ibis.io.Simple" + order
+                    + "Conversion");
+        }
+        if (name.equals("auto")) {
+            return (Conversion) Class.forName(
+                    "ibis.io.nio.CalibratedConversion").getConstructor(
+                    Boolean.TYPE).newInstance(bigEndian);
+        }
+        String prefix;
+        if (name.equals("hybrid")) {
+            prefix = "HybridChunk";
+        } else if (name.equals("wrap")) {
+            prefix = "NioWrap";
+        } else if (name.equals("chunk")) {
+            prefix = "NioChunk";
+        } else if (name.equals("hybridwrap")) {
+            prefix = "HybridWrap";
+        } else if (name.equals("varhandle")) {
+            prefix = "VarHandle";
+        } else if (name.equals("view")) {
+            prefix = "View";
+        } else {
+            throw new IllegalArgumentException("unknown conversion " + name);
+        }
+        return Conversion.loadConversion("ibis.io.nio." + prefix + order
+                + "Conversion");
+    }
+
+    @Benchmark
+    public byte[] intToBytes() {
+        c.int2byte(ints, 0, size, bytes, 0);
+        return bytes;
+    }
+
+    @Benchmark
+    public int[] bytesToInt() {
+        c.byte2int(bytes, 0, ints, 0, size);
+        return ints;
+    }
+
+    @Benchmark
+    public byte[] doubleToBytes() {
+        c.double2byte(doubles, 0, size, bytes, 0);
+        return bytes;
+    }
+
+    @Benchmark
+    public double[] bytesToDouble() {
+        c.byte2double(bytes, 0, doubles, 0, size);
+        return doubles;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Uses the object tables of Ibis serialization the way the streams do: each
+ * object is looked up, and inserted when it is not there yet. Every object is
+ * seen twice, and the table is cleared at the end, as after a message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    /** Number of distinct objects. */
+    @Param({ "1023", "65535" })
+    public int objects;
+
+    private Object[] refs;
+
+    private HandleHash handleHash;
+
+    private IbisHash ibisHash;
+
+    @Setup
+    public void setup() {
+        refs = new Object[objects];
+        for (int i = 0; i < objects; i++) {
+            refs[i] = new Object();
+        }
+        handleHash = new HandleHash(2048);
+        ibisHash = new IbisHash();
+    }
+
+    @Benchmark
+    public int handleHash() {
+        int found = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < objects; i++) {
+                Object ref = refs[i];
+                int hashCode = HandleHash.getHashCode(ref);
+                if (handleHash.find(ref, hashCode) == 0) {
+                    handleHash.put(ref, i + 1, hashCode);
+                } else {
+                    found++;
+                }
+            }
+        }
+        handleHash.clear();
+        return found;
+    }
+
+    @Benchmark
+    public int ibisHash() {
+        int found = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < objects; i++) {
+                Object ref = refs[i];
+                int hashCode = ibisHash.getHashCode(ref);
+                if (ibisHash.find(ref, hashCode) == 0) {
+                    ibisHash.put(ref, i + 1, hashCode);
+                } else {
+                    found++;
+                }
+            }
+        }
+        ibisHash.clear();
+        return found;
+    }
+}
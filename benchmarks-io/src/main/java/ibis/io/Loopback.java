@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An in-memory connection, for use by a writer and a reader in the same
+ * thread. All data written must be read before more data is written, after
+ * which the memory is reused.
+ */
+final class Loopback {
+
+    private byte[] data = new byte[64 * 1024];
+
+    private int written = 0;
+
+    private int read = 0;
+
+    private final OutputStream out = new OutputStream() {
+        public void write(int b) {
+            ensure(1);
+            data[written++] = (byte) b;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            ensure(len);
+            System.arraycopy(b, off, data, written, len);
+            written += len;
+        }
+    };
+
+    private final InputStream in = new InputStream() {
+        public int read() {
+            if (read == written) {
+                return -1;
+            }
+            int b = data[read++] & 0xff;
+            consumed();
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) {
+            if (read == written) {
+                return len == 0 ? 0 : -1;
+            }
+            len = Math.min(len, written - read);
+            System.arraycopy(data, read, b, off, len);
+            read += len;
+            consumed();
+            return len;
+        }
+
+        public int available() {
+            return written - read;
+        }
+    };
+
+    private void ensure(int len) {
+        if (written + len > data.length) {
+            byte[] d = new byte[Math.max(2 * data.length, written + len)];
+            System.arraycopy(data, 0, d, 0, written);
+            data = d;
+        }
+    }
+
+    private void consumed() {
+        if (read == written) {
+            read = 0;
+            written = 0;
+        }
+    }
+
+    /**
+     * Throws away all data that has not been read yet.
+     */
+    void discard() {
+        read = 0;
+        written = 0;
+    }
+
+    /**
+     * Returns the number of bytes written but not read yet.
+     */
+    int size() {
+        return written - read;
+    }
+
+    OutputStream out() {
+        return out;
+    }
+
+    InputStream in() {
+        return in;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writes and reads the javaGrande02 data structures with the object
+ * serializations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+// the serializers recurse for each object of a list
+@Fork(value = 1, jvmArgsAppend = "-Xss8m")
+public class ObjectSerializationBenchmark {
+
+    @Param({ "ibis", "sun" })
+    public String serialization;
+
+    @Param({ "list", "tree", "dlist" })
+    public String shape;
+
+    /** Number of objects in the data structure. */
+    @Param({ "1023" })
+    public int size;
+
+    private StreamPair streams;
+
+    private Object data;
+
+    @Setup
+    public void setup() throws IOException {
+        streams = new StreamPair(serialization);
+        data = Shapes.create(shape, size);
+    }
+
+    /** Only serializes, the data is thrown away. */
+    @Benchmark
+    public void write() throws IOException {
+        streams.out.writeObject(data);
+        streams.endWrite();
+        streams.loopback.discard();
+    }
+
+    /** Serializes and deserializes. */
+    @Benchmark
+    public Object roundTrip() throws IOException, ClassNotFoundException {
+        streams.out.writeObject(data);
+        streams.endWrite();
+        Object o = streams.in.readObject();
+        streams.endRead();
+        return o;
+    }
+}
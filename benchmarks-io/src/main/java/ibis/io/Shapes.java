@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import ibis.ipl.benchmarks.javaGrande02.DList;
+import ibis.ipl.benchmarks.javaGrande02.List;
+import ibis.ipl.benchmarks.javaGrande02.Tree;
+
+/**
+ * Creates the data structures of the javaGrande02 benchmark.
+ */
+final class Shapes {
+
+    private Shapes() {
+        // not instantiated
+    }
+
+    /**
+     * Creates a data structure with the specified number of objects.
+     * 
+     * @param shape
+     *            "list", "tree" or "dlist".
+     * @param size
+     *            the number of objects.
+     * @return the data structure.
+     */
+    static Object create(String shape, int size) {
+        if (shape.equals("list")) {
+            return new List(size);
+        }
+        if (shape.equals("tree")) {
+            return new Tree(size);
+        }
+        if (shape.equals("dlist")) {
+            return new DList(size);
+        }
+        throw new IllegalArgumentException("unknown shape " + shape);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.IOException;
+
+/**
+ * A serialization output stream and input stream, connected through a
+ * {@link Loopback}. Data is written and read as in a message: after each
+ * message, the output stream is reset and flushed, and the input stream is
+ * cleared.
+ */
+final class StreamPair {
+
+    final Loopback loopback = new Loopback();
+
+    final SerializationOutput out;
+
+    final SerializationInput in;
+
+    /**
+     * Creates a stream pair.
+     * 
+     * @param serialization
+     *            the nickname of the serialization, as used by
+     *            {@link SerializationFactory}.
+     */
+    StreamPair(String serialization) throws IOException {
+        this(serialization, false);
+    }
+
+    /**
+     * Creates a stream pair, optionally in the compact format.
+     * 
+     * @param serialization
+     *            the nickname of the serialization, as used by
+     *            {@link SerializationFactory}.
+     * @param compact
+     *            when set, the compact format is used, see
+     *            {@link DataSerializationOutputStream#setCompact(boolean)}.
+     */
+    StreamPair(String serialization, boolean compact) throws IOException {
+        out = SerializationFactory.createSerializationOutput(serialization,
+                new BufferedArrayOutputStream(loopback.out()), null, compact);
+        // Sun serialization writes a header, which must be there before
+        // the input stream can be created.
+        out.flush();
+        in = SerializationFactory.createSerializationInput(serialization,
+                new BufferedArrayInputStream(loopback.in()), null, compact);
+    }
+
+    /**
+     * Ends a message written to the output stream.
+     */
+    void endWrite() throws IOException {
+        out.reset();
+        out.flush();
+    }
+
+    /**
+     * Ends a message read from the input stream.
+     */
+    void endRead() {
+        in.clear();
+    }
+}
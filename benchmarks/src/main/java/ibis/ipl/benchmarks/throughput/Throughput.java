@@ -30,7 +30,10 @@ import ibis.ipl.SendPort;
 import ibis.ipl.WriteMessage;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 
 public class Throughput {
 
@@ -55,6 +58,16 @@ public class Throughput {
 
     boolean bb = false;
 
+    /** When set, messages consist of ints written one by one. */
+    int[] ints = null;
+
+    boolean compact = false;
+
+    /** Bytes put on the wire by the last send(). */
+    long wireBytes;
+
+    static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
     public static void main(String[] args) {
         new Throughput(args).run();
     }
@@ -63,14 +76,17 @@ public class Throughput {
         int w = windowSize;
 
         System.err.println("count = " + count + " len = " + transferSize);
+        wireBytes = 0;
         for (int i = 0; i < count; i++) {
             WriteMessage writeMessage = sport.newMessage();
 	    if (data != null) {
                 writeMessage.writeArray(data);
 	    } else if (b != null) {
                 writeMessage.writeByteBuffer(b);
+            } else if (ints != null) {
+                writeInts(writeMessage);
             }
-            writeMessage.finish();
+            wireBytes += writeMessage.finish();
 
             if (--w == 0) {
                 System.err.println("EEEEEEEEEEEK");
@@ -79,6 +95,8 @@ public class Throughput {
 		    readMessage.readArray(data);
 		} else if (b != null) {
                     readMessage.readByteBuffer(b);
+                } else if (ints != null) {
+                    readInts(readMessage);
                 }
                 readMessage.finish();
                 w = windowSize;
@@ -96,6 +114,8 @@ public class Throughput {
 	        readMessage.readArray(data);
 	    } else if (b != null) {
                 readMessage.readByteBuffer(b);
+            } else if (ints != null) {
+                readInts(readMessage);
             }
             readMessage.finish();
 
@@ -106,6 +126,8 @@ public class Throughput {
                     writeMessage.writeArray(data);
 		} else if (b != null) {
                     writeMessage.writeByteBuffer(b);
+                } else if (ints != null) {
+                    writeInts(writeMessage);
                 }
                 writeMessage.finish();
                 w = windowSize;
@@ -115,6 +137,18 @@ public class Throughput {
         writeMessage.finish();
     }
 
+    void writeInts(WriteMessage writeMessage) throws IOException {
+        for (int i = 0; i < ints.length; i++) {
+            writeMessage.writeInt(ints[i]);
+        }
+    }
+
+    void readInts(ReadMessage readMessage) throws IOException {
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = readMessage.readInt();
+        }
+    }
+
     Throughput(String[] args) {
         /* parse the commandline */
         int options = 0;
@@ -122,6 +156,10 @@ public class Throughput {
             if (false) {
             } else if (args[i].equals("-bb")) {
                 bb = true;
+            } else if (args[i].equals("-ints")) {
+                ints = new int[0];
+            } else if (args[i].equals("-compact")) {
+                compact = true;
             } else if (args[i].equals("-window")) {
                 windowSize = Integer.parseInt(args[++i]);
                 if (windowSize <= 0) {
@@ -142,11 +180,18 @@ public class Throughput {
         }
 
         if (options != 2) {
-            System.err.println("Throughput <count> <size>");
+            System.err.println("Throughput [-bb] [-ints [-compact]] "
+                    + "[-window <n>] [-iters <n>] <count> <size>");
             System.exit(11);
         }
 
-	if (transferSize > 0) {
+	if (ints != null) {
+            // small numbers, such as counters and indices
+            ints = new int[transferSize / 4];
+            for (int i = 0; i < ints.length; i++) {
+                ints[i] = i % 1000;
+            }
+        } else if (transferSize > 0) {
             if (! bb) {
                 data = new byte[transferSize];
             } else {
@@ -160,11 +205,17 @@ public class Throughput {
             IbisCapabilities s = new IbisCapabilities(
                     IbisCapabilities.ELECTIONS_STRICT
                     );
+            ArrayList<String> capabilities = new ArrayList<String>();
+            capabilities.add(ints != null ? PortType.SERIALIZATION_DATA
+                    : PortType.SERIALIZATION_BYTE);
+            if (compact) {
+                capabilities.add(PortType.SERIALIZATION_COMPACT);
+            }
+            capabilities.add(PortType.CONNECTION_ONE_TO_ONE);
+            capabilities.add(PortType.COMMUNICATION_RELIABLE);
+            capabilities.add(PortType.RECEIVE_EXPLICIT);
             PortType t = new PortType(
-                    PortType.SERIALIZATION_BYTE,
-                    PortType.CONNECTION_ONE_TO_ONE,
-                    PortType.COMMUNICATION_RELIABLE,
-                    PortType.RECEIVE_EXPLICIT);
+                    capabilities.toArray(new String[capabilities.size()]));
                      
             Ibis ibis = IbisFactory.createIbis(s, null, true, null, t);
 
@@ -190,15 +241,29 @@ public class Throughput {
             sport.connect(remote, "test port");
 
             if (rank == 0) {
+                boolean cpu = threads.isCurrentThreadCpuTimeSupported();
                 for (int i = 0; i < nIters; i++) {
                     long time = System.currentTimeMillis();
+                    long cpuTime = cpu ? threads.getCurrentThreadCpuTime() : 0;
                     send();
+                    cpuTime = cpu ? threads.getCurrentThreadCpuTime() - cpuTime
+                            : 0;
                     time = System.currentTimeMillis() - time;
                     double speed = (time * 1000.0) / count;
                     System.out.print("Latency: " + count + " calls took "
                             + (time / 1000.0) + " seconds, time/call = " + speed
                             + " micros, ");
-                    if (data != null || b != null) {
+                    if (ints != null) {
+                        // what the ints take on the wire, compared to
+                        // sending them as they are
+                        long payload = 4L * ints.length * count;
+                        System.out.println("Wire: "
+                                + (wireBytes / count) + " bytes/message for "
+                                + (payload / count) + " payload bytes, saved "
+                                + ((payload - wireBytes) * 100 / Math.max(1,
+                                        payload)) + "%, sender CPU/call = "
+                                + (cpuTime / 1000.0 / count) + " micros");
+                    } else if (data != null || b != null) {
                         double dataSent = ((double) transferSize * (count + count
                                 / windowSize))
                                 / (1024.0 * 1024.0);
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ibis.ipl.benchmarks.typeInfo;
+
+import ibis.io.BufferedArrayOutputStream;
+import ibis.io.IbisSerializationOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Measures how Ibis serialization of objects that are not rewritten by the
+ * Ibis bytecode rewriter scales with the number of threads. Every such object
+ * requires a lookup of its type information, which is shared by all streams
+ * in the JVM, so a lock around that lookup shows up as a throughput that does
+ * not grow with the number of threads.
+ *
+ * Usage: TypeInfoContention [-threads maxThreads] [-objects n] [-seconds s]
+ *
+ * The benchmark runs with 1, 2, 4, ... up to maxThreads threads, each with
+ * its own stream, and prints the total number of objects written per second.
+ */
+public class TypeInfoContention {
+
+    static class A implements Serializable {
+        private static final long serialVersionUID = 1L;
+        int i = 1;
+    }
+
+    static class B extends A {
+        private static final long serialVersionUID = 1L;
+        double d = 2.0;
+    }
+
+    static class C implements Serializable {
+        private static final long serialVersionUID = 1L;
+        long l = 3;
+        A a = new A();
+    }
+
+    static class D implements Serializable {
+        private static final long serialVersionUID = 1L;
+        short s = 4;
+        byte b = 5;
+    }
+
+    /** Discards everything written to it. */
+    static class NullOutputStream extends OutputStream {
+        public void write(int b) {
+            // discarded
+        }
+
+        public void write(byte[] b, int off, int len) {
+            // discarded
+        }
+    }
+
+    int maxThreads = 32;
+
+    int nObjects = 100;
+
+    int seconds = 5;
+
+    volatile boolean stop;
+
+    class Writer extends Thread {
+        long count = 0;
+
+        IOException exception = null;
+
+        public void run() {
+            Object[] data = new Object[nObjects];
+            for (int i = 0; i < nObjects; i++) {
+                switch (i % 4) {
+                case 0:
+                    data[i] = new A();
+                    break;
+                case 1:
+                    data[i] = new B();
+                    break;
+                case 2:
+                    data[i] = new C();
+                    break;
+                default:
+                    data[i] = new D();
+                    break;
+                }
+            }
+            try {
+                IbisSerializationOutputStream out = new IbisSerializationOutputStream(
+                        new BufferedArrayOutputStream(new NullOutputStream()));
+                while (!stop) {
+                    for (int i = 0; i < nObjects; i++) {
+                        out.writeObject(data[i]);
+                    }
+                    out.reset();
+                    count += nObjects;
+                }
+                out.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+    }
+
+    TypeInfoContention(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                maxThreads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-objects")) {
+                nObjects = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-seconds")) {
+                seconds = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: TypeInfoContention "
+                        + "[-threads maxThreads] [-objects n] [-seconds s]");
+                System.exit(1);
+            }
+        }
+    }
+
+    double run(int nThreads) throws Exception {
+        Writer[] writers = new Writer[nThreads];
+        stop = false;
+        for (int i = 0; i < nThreads; i++) {
+            writers[i] = new Writer();
+        }
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < nThreads; i++) {
+            writers[i].start();
+        }
+        Thread.sleep(seconds * 1000L);
+        stop = true;
+        long total = 0;
+        for (int i = 0; i < nThreads; i++) {
+            writers[i].join();
+            if (writers[i].exception != null) {
+                throw writers[i].exception;
+            }
+            total += writers[i].count;
+        }
+        long time = System.currentTimeMillis() - start;
+        return total * 1000.0 / time;
+    }
+
+    void run() throws Exception {
+        // Warm up, also creates the type information.
+        run(1);
+
+        double single = 0;
+        for (int n = 1; n <= maxThreads; n *= 2) {
+            double rate = run(n);
+            if (n == 1) {
+                single = rate;
+            }
+            System.out.println("threads = " + n + ", objects/s = "
+                    + (long) rate + ", speedup = "
+                    + String.format("%.2f", rate / single));
+        }
+    }
+
+    public static void main(String[] args) {
+        try {
+            new TypeInfoContention(args).run();
+        } catch (Exception e) {
+            e.printStackTrace(System.err);
+            System.exit(1);
+        }
+    }
+}
@@ -22,11 +22,25 @@ package ibis.ipl.impl.nio;
  */
 interface Config {
 
-    /** Byte buffer size used. Must be a multiple of eight.  */
+    /**
+     * Initial size of the receive buffer. Must be a multiple of eight. The
+     * buffer grows when a packet from a sender with larger primitive buffers
+     * does not fit.
+     */
     static final int BYTE_BUFFER_SIZE = 60 * 1024;
 
     /**
-     * Buffer sized used for primitive buffers. Must be a multiple of eight.
+     * Default buffer size used for primitive buffers. Must be a multiple of
+     * eight. Can be set with the ibis.ipl.impl.nio.bufferSize property.
      */
     static final int PRIMITIVE_BUFFER_SIZE = 6 * 1024;
+
+    /** Smallest primitive buffer size a send port adapts to. */
+    static final int MIN_PRIMITIVE_BUFFER_SIZE = 1024;
+
+    /**
+     * Largest primitive buffer size. The packet header holds the number of
+     * bytes of each primitive type in a short, so this must stay below 32K.
+     */
+    static final int MAX_PRIMITIVE_BUFFER_SIZE = 24 * 1024;
 }
@@ -58,8 +58,26 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
 
     private static Logger logger = LoggerFactory.getLogger(NioAccumulator.class);
 
+    /** Number of buffers sent between two adaptations of the buffer size. */
+    static final int ADAPT_INTERVAL = 64;
+
     private SendBuffer buffer;
 
+    /** Current size of the primitive buffers. */
+    private volatile int bufferSize;
+
+    /** When set, the buffer size adapts to the traffic. */
+    private volatile boolean adaptive;
+
+    // statistics of the buffers sent since the last adaptation
+    private int packets = 0;
+
+    private int fullPackets = 0;
+
+    private int largest = 0;
+
+    private int backlog = 0;
+
     private ByteBuffer bytes;
 
     private CharBuffer chars;
@@ -83,10 +101,21 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
 
     long count = 0;
 
+    /**
+     * When set, {@link #flush()} hands the buffer to the channels without
+     * waiting for it to be written; {@link #sync(int)} waits.
+     */
+    boolean async = false;
+
+    /** Number of sends done so far, used as ticket. */
+    private int tickets = 0;
+
     protected NioAccumulator(NioSendPort port) {
         this.port = port;
 
-        buffer = SendBuffer.get();
+        bufferSize = port.initialBufferSize;
+        adaptive = port.adaptiveBuffers;
+        buffer = SendBuffer.get(bufferSize);
 
         bytes = buffer.bytes;
         chars = buffer.chars;
@@ -98,7 +127,94 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
     }
 
     public int bufferSize() {
-        return PRIMITIVE_BUFFER_SIZE;
+        return bufferSize;
+    }
+
+    /**
+     * Sets the size of the primitive buffers. Takes effect when the current
+     * buffer is sent. Not synchronized, as it is called by the send port
+     * with its lock held.
+     */
+    void setBufferSize(int size) {
+        bufferSize = checkBufferSize(size);
+    }
+
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Rounds the given size down to a multiple of eight within the supported
+     * range.
+     */
+    static int checkBufferSize(int size) {
+        size = Math.max(MIN_PRIMITIVE_BUFFER_SIZE, Math.min(
+                MAX_PRIMITIVE_BUFFER_SIZE, size));
+        return size & ~7;
+    }
+
+    /**
+     * Records the fill of the buffer about to be sent, and adapts the buffer
+     * size every ADAPT_INTERVAL buffers. When most buffers are sent because
+     * they are full, the traffic is bulk data, and larger buffers mean fewer
+     * packets and writes. When buffers are flushed with little data in them,
+     * the traffic is small messages, and smaller buffers use less memory per
+     * buffer and per queued packet. Buffers are not made smaller while the
+     * connections have packets queued, as more, smaller packets would only
+     * grow the queue.
+     */
+    private void observe(boolean full) {
+        packets++;
+        if (full) {
+            fullPackets++;
+        }
+        largest = Math.max(largest, buffer.largest());
+        backlog = Math.max(backlog, backlog());
+
+        if (packets < ADAPT_INTERVAL) {
+            return;
+        }
+
+        int current = bufferSize;
+        int size = current;
+        if (fullPackets * 2 > packets) {
+            size = checkBufferSize(current * 2);
+        } else if (fullPackets == 0 && backlog <= 1 && largest * 4 <= current) {
+            size = checkBufferSize(current / 2);
+        }
+
+        if (size != current) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("buffer size " + current + " -> " + size + ": "
+                        + fullPackets + " of " + packets
+                        + " buffers full, largest " + largest
+                        + " bytes, backlog " + backlog);
+            }
+            bufferSize = size;
+        }
+        packets = 0;
+        fullPackets = 0;
+        largest = 0;
+        backlog = 0;
+    }
+
+    /**
+     * Returns the largest number of buffers queued for a single connection.
+     */
+    private int backlog() {
+        int result = 0;
+        for (int i = 0; i < nrOfConnections; i++) {
+            NioAccumulatorConnection c = connections[i];
+            int queued = (c.bufferLimit - c.bufferPosition
+                    + NioAccumulatorConnection.MAX_SEND_BUFFERS)
+                    % NioAccumulatorConnection.MAX_SEND_BUFFERS;
+            result = Math.max(result, queued);
+        }
+        return result;
     }
     
     synchronized public long bytesWritten() {
@@ -146,21 +262,38 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
         throw new IOException("tried to remove non existing connections");
     }
 
-    synchronized private void send() throws IOException {
+    /**
+     * Sends the current buffer.
+     *
+     * @param full
+     *            true if the buffer is sent because one of its primitive
+     *            buffers is full, false if it is flushed.
+     */
+    synchronized private void sendBuffer(boolean full) throws IOException {
         if (buffer.isEmpty()) {
             return;
         }
 
+        if (adaptive) {
+            observe(full);
+        }
+
         buffer.flip();
 
         count += buffer.remaining();
 
-        if (doSend(buffer)) {
+        boolean done = doSend(buffer);
+
+        if (done && buffer.size == bufferSize) {
             // buffer was completely send, just clear it and use it again
             buffer.clear();
         } else {
+            if (done) {
+                // the buffer size changed
+                SendBuffer.recycle(buffer);
+            }
             // get a new buffer
-            buffer = SendBuffer.get();
+            buffer = SendBuffer.get(bufferSize);
             bytes = buffer.bytes;
             chars = buffer.chars;
             shorts = buffer.shorts;
@@ -175,7 +308,22 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
      * makes sure all data given to the accumulator is send ,or at least copied.
      */
     synchronized public void flush() throws IOException {
-        send();
+        sendBuffer(false);
+        if (!async) {
+            doFlush();
+        }
+    }
+
+    synchronized public int send() throws IOException {
+        sendBuffer(false);
+        return ++tickets;
+    }
+
+    /*
+     * All data handed to the channels is written by the time doFlush()
+     * returns, so any ticket is done after that.
+     */
+    synchronized public void sync(int ticket) throws IOException {
         doFlush();
     }
 
@@ -206,7 +354,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
             bytes.put(value);
         } catch (BufferOverflowException e) {
             // buffer was full, send
-            send();
+            sendBuffer(true);
             // and try again
             bytes.put(value);
         }
@@ -220,7 +368,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
         try {
             chars.put(value);
         } catch (BufferOverflowException e) {
-            send();
+            sendBuffer(true);
             chars.put(value);
         }
     }
@@ -229,7 +377,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
         try {
             shorts.put(value);
         } catch (BufferOverflowException e) {
-            send();
+            sendBuffer(true);
             shorts.put(value);
         }
     }
@@ -238,7 +386,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
         try {
             ints.put(value);
         } catch (BufferOverflowException e) {
-            send();
+            sendBuffer(true);
             ints.put(value);
         }
     }
@@ -247,7 +395,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
         try {
             longs.put(value);
         } catch (BufferOverflowException e) {
-            send();
+            sendBuffer(true);
             longs.put(value);
         }
     }
@@ -256,7 +404,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
         try {
             floats.put(value);
         } catch (BufferOverflowException e) {
-            send();
+            sendBuffer(true);
             floats.put(value);
         }
     }
@@ -265,7 +413,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
         try {
             doubles.put(value);
         } catch (BufferOverflowException e) {
-            send();
+            sendBuffer(true);
             doubles.put(value);
         }
     }
@@ -301,7 +449,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
 
             while (len > 0) {
                 if (!bytes.hasRemaining()) {
-                    send();
+                    sendBuffer(true);
                 }
 
                 int size = Math.min(len, bytes.remaining());
@@ -328,7 +476,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
 
             while (len > 0) {
                 if (!chars.hasRemaining()) {
-                    send();
+                    sendBuffer(true);
                 }
 
                 int size = Math.min(len, chars.remaining());
@@ -347,7 +495,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
 
             while (len > 0) {
                 if (!shorts.hasRemaining()) {
-                    send();
+                    sendBuffer(true);
                 }
 
                 int size = Math.min(len, shorts.remaining());
@@ -366,7 +514,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
 
             while (len > 0) {
                 if (!ints.hasRemaining()) {
-                    send();
+                    sendBuffer(true);
                 }
 
                 int size = Math.min(len, ints.remaining());
@@ -385,7 +533,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
 
             while (len > 0) {
                 if (!longs.hasRemaining()) {
-                    send();
+                    sendBuffer(true);
                 }
 
                 int size = Math.min(len, longs.remaining());
@@ -404,7 +552,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
 
             while (len > 0) {
                 if (!floats.hasRemaining()) {
-                    send();
+                    sendBuffer(true);
                 }
 
                 int size = Math.min(len, floats.remaining());
@@ -423,7 +571,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
 
             while (len > 0) {
                 if (!doubles.hasRemaining()) {
-                    send();
+                    sendBuffer(true);
                 }
 
                 int size = Math.min(len, doubles.remaining());
@@ -442,7 +590,7 @@ public abstract class NioAccumulator extends DataOutputStream implements Config
             int len = b.limit() - b.position();
             while (len > 0) {
                 if (!bytes.hasRemaining()) {
-                    send();
+                    sendBuffer(true);
                 }
 
                 int size = Math.min(len, bytes.remaining());
@@ -61,9 +61,8 @@ public abstract class NioDissipator extends DataInputStream
     // maximum number of bytes we want to put in the receivebuffer. The extra
     // space we use if a view happens to be split up between the send and
     // the beginning of the buffer. We can then copy the wrapped part to the
-    // "hidden space" at the end.
-    protected static final int BUFFER_LIMIT = BYTE_BUFFER_SIZE
-            - PRIMITIVE_BUFFER_SIZE;
+    // "hidden space" at the end. Grows with the buffer.
+    protected int bufferLimit = BYTE_BUFFER_SIZE - PRIMITIVE_BUFFER_SIZE;
 
     private static final int LONGS = 1;
 
@@ -100,7 +99,7 @@ public abstract class NioDissipator extends DataInputStream
 
     // variables used to keep track of the state of the "buffer"
     // They abide by the following equasion:
-    // usedPosition <= usedLimit <= buffer.position() ( % BUFFER_LIMIT !)
+    // usedPosition <= usedLimit <= buffer.position() ( % bufferLimit !)
 
     protected int usedPosition = 0; // first byte of in-use data
 
@@ -140,7 +139,7 @@ public abstract class NioDissipator extends DataInputStream
         buffer = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
         copyFromBuffer = buffer.duplicate();
         copyToBuffer = buffer.duplicate();
-        buffer.limit(BUFFER_LIMIT);
+        buffer.limit(bufferLimit);
 
         initViews(order);
 
@@ -160,6 +159,60 @@ public abstract class NioDissipator extends DataInputStream
         return -1;
     }
 
+    /**
+     * Returns the current size of the receive buffer.
+     */
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Replaces the buffer by a larger one, for a packet of the given total
+     * size in which the largest primitive part has the given size. Only
+     * called from receive(), when no data is in use, and the header of the
+     * packet has been received.
+     */
+    private void grow(int totalSize, int largest) {
+        // same proportions as the initial buffer
+        int primitiveSize = Math.max(largest, totalSize / 7);
+        primitiveSize = (primitiveSize + 7) & ~7;
+        int limit = Math.max(bufferLimit, 9 * primitiveSize);
+        int capacity = Math.max(buffer.capacity() - bufferLimit, primitiveSize)
+                + limit;
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("growing receive buffer from " + buffer.capacity()
+                    + " to " + capacity + " bytes for a packet of "
+                    + totalSize + " bytes");
+        }
+
+        ByteBuffer newBuffer = ByteBuffer.allocateDirect(capacity);
+
+        // copy the data not in use yet to the start of the new buffer
+        if (buffer.position() >= usedPosition) {
+            copyFromBuffer.limit(buffer.position());
+            copyFromBuffer.position(usedPosition);
+            newBuffer.put(copyFromBuffer);
+        } else {
+            copyFromBuffer.limit(bufferLimit);
+            copyFromBuffer.position(usedPosition);
+            newBuffer.put(copyFromBuffer);
+            copyFromBuffer.limit(buffer.position());
+            copyFromBuffer.position(0);
+            newBuffer.put(copyFromBuffer);
+        }
+        newBuffer.limit(limit);
+
+        buffer = newBuffer;
+        bufferLimit = limit;
+        copyFromBuffer = buffer.duplicate();
+        copyToBuffer = buffer.duplicate();
+        usedPosition = 0;
+        usedLimit = 0;
+
+        initViews(order);
+    }
+
     /**
      * (re) Initialize buffers in the right byte order.
      *
@@ -203,13 +256,13 @@ public abstract class NioDissipator extends DataInputStream
      * buffers with ((size % MAX_DATA_SIZE) == 0)
      */
     private int setView(Buffer view, int start, int bytes, int dataSize) {
-        int result = (start + bytes) % BUFFER_LIMIT;
+        int result = (start + bytes) % bufferLimit;
 
         if (result < start) {
             // it wrapped, copy data from the start to the end of the buffer
             copyFromBuffer.position(0);
             copyFromBuffer.limit(result);
-            copyToBuffer.position(BUFFER_LIMIT);
+            copyToBuffer.position(bufferLimit);
             copyToBuffer.limit(start + bytes);
             copyToBuffer.put(copyFromBuffer);
         }
@@ -235,7 +288,7 @@ public abstract class NioDissipator extends DataInputStream
         if (buffer.position() >= usedLimit) {
             return buffer.position() - usedLimit;
         }
-        return buffer.position() + (BUFFER_LIMIT - usedLimit);
+        return buffer.position() + (bufferLimit - usedLimit);
     }
 
     /**
@@ -245,7 +298,7 @@ public abstract class NioDissipator extends DataInputStream
         if (usedLimit >= usedPosition) {
             return usedPosition - usedLimit;
         }
-        return usedLimit + (BUFFER_LIMIT - usedPosition);
+        return usedLimit + (bufferLimit - usedPosition);
     }
 
     void receive() throws IOException {
@@ -273,11 +326,11 @@ public abstract class NioDissipator extends DataInputStream
         usedPosition = usedLimit;
 
         // remember we can use the newly freed space to put data in
-        if (buffer.limit() != BUFFER_LIMIT) {
+        if (buffer.limit() != bufferLimit) {
             if (buffer.position() < usedPosition) {
                 buffer.limit(usedPosition - 1);
             } else if (buffer.position() >= usedLimit) {
-                buffer.limit(BUFFER_LIMIT);
+                buffer.limit(bufferLimit);
             }
         }
 
@@ -311,9 +364,19 @@ public abstract class NioDissipator extends DataInputStream
         // extract header
         header.get(headerArray);
 
-        totalSize = SIZEOF_HEADER + headerArray[LONGS] + headerArray[DOUBLES]
-                + headerArray[INTS] + headerArray[FLOATS] + headerArray[SHORTS]
-                + headerArray[CHARS] + headerArray[BYTES] + paddingLength;
+        totalSize = SIZEOF_HEADER + paddingLength;
+        int largest = 0;
+        for (int i = LONGS; i <= BYTES; i++) {
+            totalSize += headerArray[i];
+            largest = Math.max(largest, headerArray[i]);
+        }
+
+        if (totalSize >= bufferLimit
+                || largest > buffer.capacity() - bufferLimit) {
+            // sent by a port with larger buffers than we can handle
+            grow(totalSize, largest);
+            next = SIZEOF_HEADER;
+        }
 
         if (logger.isDebugEnabled()) {
             logger.debug("total size of buffer we're receiving is: " + totalSize
@@ -325,7 +388,7 @@ public abstract class NioDissipator extends DataInputStream
         }
 
         // claim space
-        usedLimit = (usedPosition + totalSize) % BUFFER_LIMIT;
+        usedLimit = (usedPosition + totalSize) % bufferLimit;
 
         next = setView(longs, next, headerArray[LONGS], SIZEOF_LONG);
         next = setView(doubles, next, headerArray[DOUBLES], SIZEOF_DOUBLE);
@@ -423,7 +486,7 @@ public abstract class NioDissipator extends DataInputStream
                     + this.count);
         }
 
-        if ((!buffer.hasRemaining()) && (buffer.limit() == BUFFER_LIMIT)
+        if ((!buffer.hasRemaining()) && (buffer.limit() == bufferLimit)
                 && (usedPosition > 0)) {
             // wrap around
             buffer.position(0);
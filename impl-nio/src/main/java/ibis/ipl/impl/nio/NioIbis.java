@@ -33,6 +33,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Properties;
 
@@ -47,7 +48,14 @@ public final class NioIbis extends ibis.ipl.impl.Ibis {
 
     static final String s_rpi = prefix + "rpi";
 
-    static final String[] props = { s_spi, s_rpi };
+    static final String s_threads = prefix + "threads";
+
+    static final String s_bufferSize = prefix + "bufferSize";
+
+    static final String s_adaptiveBuffers = prefix + "adaptiveBuffers";
+
+    static final String[] props = { s_spi, s_rpi, s_threads, s_bufferSize,
+            s_adaptiveBuffers };
     
     private static final Logger logger
             = LoggerFactory.getLogger("ibis.ipl.impl.nio.NioIbis");
@@ -57,13 +65,22 @@ public final class NioIbis extends ibis.ipl.impl.Ibis {
     private HashMap<ibis.ipl.IbisIdentifier, InetSocketAddress> addresses
         = new HashMap<ibis.ipl.IbisIdentifier, InetSocketAddress>();
 
-    private SendReceiveThread sendReceiveThread = null;
+    private final ArrayList<SendReceiveThread> sendReceiveThreads
+            = new ArrayList<SendReceiveThread>();
+
+    // maximum number of send/receive threads, set with ibis.ipl.impl.nio.threads
+    private final int maxSendReceiveThreads;
 
     public NioIbis(RegistryEventHandler r, IbisCapabilities p, Credentials credentials, byte[] applicationTag, PortType[] types, Properties tp,
             IbisStarter starter) throws IbisCreationFailedException {
 
         super(r, p, credentials, applicationTag, types, tp, starter);
         properties.checkProperties(prefix, props, null, true);
+
+        // by default, one thread per eight cores
+        int threads = properties.getIntProperty(s_threads, Math.max(1,
+                Runtime.getRuntime().availableProcessors() / 8));
+        maxSendReceiveThreads = Math.max(1, threads);
     }
 
     protected byte[] getData() throws IOException {
@@ -107,8 +124,10 @@ public final class NioIbis extends ibis.ipl.impl.Ibis {
                 factory.quit();
             }
 
-            if (sendReceiveThread != null) {
-                factory.quit();
+            synchronized (this) {
+                for (SendReceiveThread thread : sendReceiveThreads) {
+                    thread.quit();
+                }
             }
         } catch(Throwable e) {
             // ignored
@@ -116,11 +135,35 @@ public final class NioIbis extends ibis.ipl.impl.Ibis {
         logger.info("NioIbis" + ident + " DE-initialized");
     }
 
+    /**
+     * Returns the send/receive thread a new channel should be registered
+     * with. This is the thread with the fewest channels, or a new thread if
+     * all threads have channels and the maximum number of threads has not
+     * been reached yet. A channel stays with its thread until it is closed.
+     */
     synchronized SendReceiveThread sendReceiveThread() throws IOException {
-        if (sendReceiveThread == null) {
-            sendReceiveThread = new SendReceiveThread();
+        SendReceiveThread result = null;
+        int load = Integer.MAX_VALUE;
+
+        for (SendReceiveThread thread : sendReceiveThreads) {
+            int l = thread.load();
+            if (l < load) {
+                result = thread;
+                load = l;
+            }
+        }
+
+        if (result == null
+                || (load > 0 && sendReceiveThreads.size() < maxSendReceiveThreads)) {
+            result = new SendReceiveThread("SendReceiveThread "
+                    + sendReceiveThreads.size());
+            sendReceiveThreads.add(result);
+            if (logger.isDebugEnabled()) {
+                logger.debug("created " + sendReceiveThreads.size()
+                        + " send/receive thread(s)");
+            }
         }
-        return sendReceiveThread;
+        return result;
     }
 
     InetSocketAddress getAddress(IbisIdentifier id) throws IOException {
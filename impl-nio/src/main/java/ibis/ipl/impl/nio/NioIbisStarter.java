@@ -48,6 +48,7 @@ public final class NioIbisStarter extends ibis.ipl.IbisStarter {
             PortType.SERIALIZATION_OBJECT_SUN,
             PortType.SERIALIZATION_OBJECT_IBIS, PortType.SERIALIZATION_OBJECT,
             PortType.SERIALIZATION_DATA, PortType.SERIALIZATION_BYTE,
+            PortType.SERIALIZATION_COMPACT,
             PortType.COMMUNICATION_FIFO, PortType.COMMUNICATION_NUMBERED,
             PortType.COMMUNICATION_RELIABLE, PortType.CONNECTION_DOWNCALLS,
             PortType.CONNECTION_UPCALLS, PortType.CONNECTION_TIMEOUT,
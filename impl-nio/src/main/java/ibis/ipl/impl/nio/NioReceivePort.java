@@ -40,6 +40,12 @@ abstract class NioReceivePort extends ibis.ipl.impl.ReceivePort implements
 
     private static Logger logger = LoggerFactory.getLogger(NioReceivePort.class);
 
+    /**
+     * Management property giving the size of the largest receive buffer of
+     * the connections of this port.
+     */
+    static final String RECEIVE_BUFFER_SIZE = "ReceiveBufferSize";
+
     private boolean reader_busy = false;
 
     static class ConnectionInfo extends ReceivePortConnectionInfo {
@@ -60,11 +66,35 @@ abstract class NioReceivePort extends ibis.ipl.impl.ReceivePort implements
             ReceivePortConnectUpcall connUpcall, Properties properties) throws IOException {
         super(ibis, type, name, upcall, connUpcall, properties);
 
+        addValidKey(RECEIVE_BUFFER_SIZE);
+
         if (upcall != null) {
             ThreadPool.createNew(this, "NioReceivePort with upcall");
         }
     }
 
+    /**
+     * A single thread reads all connections of a port, so a message cannot
+     * wait for one on another connection.
+     */
+    @Override
+    protected boolean readsConnectionsConcurrently() {
+        return false;
+    }
+
+    @Override
+    protected synchronized void updateProperties() {
+        super.updateProperties();
+        int size = 0;
+        for (ReceivePortConnectionInfo info : connections.values()) {
+            if (info.dataIn instanceof NioDissipator) {
+                size = Math.max(size,
+                        ((NioDissipator) info.dataIn).capacity());
+            }
+        }
+        setProperty(RECEIVE_BUFFER_SIZE, "" + size);
+    }
+
     void addConnection(SendPortIdentifier id, NioDissipator dissipator)
             throws IOException {
         ConnectionInfo info = new ConnectionInfo(id, this, dissipator);
@@ -25,25 +25,57 @@ import ibis.ipl.impl.ReceivePortIdentifier;
 import ibis.ipl.impl.SendPort;
 import ibis.ipl.impl.SendPortConnectionInfo;
 import ibis.ipl.impl.WriteMessage;
+import ibis.util.TypedProperties;
 
 import java.io.IOException;
 import java.nio.channels.Channel;
 import java.nio.channels.GatheringByteChannel;
+import java.util.Map;
 import java.util.Properties;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public final class NioSendPort extends SendPort implements Protocol {
+public final class NioSendPort extends SendPort implements Protocol, Config {
 
     private static Logger logger = LoggerFactory.getLogger(NioSendPort.class);
 
+    /**
+     * Management property giving the current primitive buffer size. Setting
+     * it turns adaptation off, unless AdaptiveBufferSize is set to true in
+     * the same call, in which case the size set is where adaptation starts.
+     */
+    static final String BUFFER_SIZE = "BufferSize";
+
+    /** Management property telling if the buffer size adapts to the traffic. */
+    static final String ADAPTIVE_BUFFER_SIZE = "AdaptiveBufferSize";
+
     private final NioAccumulator accumulator;
 
+    /** Primitive buffer size to start with. */
+    final int initialBufferSize;
+
+    /** Adapt the buffer size to the traffic? */
+    final boolean adaptiveBuffers;
+
     NioSendPort(Ibis ibis, PortType type, String name,
             SendPortDisconnectUpcall cU, Properties props) throws IOException {
         super(ibis, type, name, cU, props);
 
+        addValidKey(BUFFER_SIZE);
+        addValidKey(ADAPTIVE_BUFFER_SIZE);
+
+        TypedProperties tp = new TypedProperties(properties);
+        int size = PRIMITIVE_BUFFER_SIZE;
+        try {
+            size = tp.getIntProperty(NioIbis.s_bufferSize, size);
+        } catch (NumberFormatException e) {
+            logger.warn(e.getMessage() + ", using " + size);
+        }
+        initialBufferSize = NioAccumulator.checkBufferSize(size);
+        adaptiveBuffers = tp.getBooleanProperty(NioIbis.s_adaptiveBuffers,
+                true);
+
         if (type.hasCapability("sendport.blocking")) {
             accumulator = new BlockingChannelNioAccumulator(this);
         }
@@ -51,8 +83,7 @@ public final class NioSendPort extends SendPort implements Protocol {
             accumulator = new NonBlockingChannelNioAccumulator(this);
         }
         else if (type.hasCapability("sendport.thread")) {
-            accumulator = new ThreadNioAccumulator(this,
-                    ((NioIbis)ibis).sendReceiveThread());
+            accumulator = new ThreadNioAccumulator(this, (NioIbis) ibis);
         }
         else if (type.hasCapability(PortType.CONNECTION_ONE_TO_ONE)
                 || type.hasCapability(PortType.CONNECTION_ONE_TO_MANY)) {
@@ -60,10 +91,57 @@ public final class NioSendPort extends SendPort implements Protocol {
         } else {
             accumulator = new NonBlockingChannelNioAccumulator(this);
         }
+        accumulator.async = asyncSend;
 
         initStream(accumulator);
     }
 
+    @Override
+    protected synchronized void updateProperties() {
+        super.updateProperties();
+        setProperty(BUFFER_SIZE, "" + accumulator.bufferSize());
+        setProperty(ADAPTIVE_BUFFER_SIZE, "" + accumulator.isAdaptive());
+    }
+
+    @Override
+    protected void doProperties(Map<String, String> properties) {
+        super.doProperties(properties);
+        // Setting the buffer size turns adaptation off, so an adaptation
+        // setting given with it is applied after it.
+        String adaptive = properties.get(ADAPTIVE_BUFFER_SIZE);
+        if (adaptive != null) {
+            doProperty(ADAPTIVE_BUFFER_SIZE, adaptive);
+        }
+    }
+
+    @Override
+    protected void doProperty(String key, String value) {
+        if (key.equals(BUFFER_SIZE)) {
+            int size;
+            try {
+                size = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                logger.warn("invalid value for " + BUFFER_SIZE + ": " + value
+                        + ", ignored");
+                return;
+            }
+            // otherwise the next adaptation would override it
+            accumulator.setAdaptive(false);
+            accumulator.setBufferSize(size);
+        } else if (key.equals(ADAPTIVE_BUFFER_SIZE)) {
+            if (value.equalsIgnoreCase("true")) {
+                accumulator.setAdaptive(true);
+            } else if (value.equalsIgnoreCase("false")) {
+                accumulator.setAdaptive(false);
+            } else {
+                logger.warn("invalid value for " + ADAPTIVE_BUFFER_SIZE
+                        + ": " + value + ", ignored");
+            }
+        } else {
+            super.doProperty(key, value);
+        }
+    }
+
     protected void handleSendException(WriteMessage w, IOException e) {
         logger.debug("handleSendException", e);
     }
@@ -117,6 +195,7 @@ public final class NioSendPort extends SendPort implements Protocol {
         out.writeArray(receiverLength);
         out.writeArray(receiverBytes);
         out.flush();
+        accumulator.sync(accumulator.send());
     }
 
     protected void announceNewMessage() throws IOException {
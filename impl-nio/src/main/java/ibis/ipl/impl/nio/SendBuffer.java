@@ -25,6 +25,8 @@ import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -77,95 +79,174 @@ final class SendBuffer implements Config {
 
     static final int BUFFER_CACHE_SIZE = 128;
 
+    /**
+     * Number of buffers kept by each thread. Only buffers recycled by the
+     * thread that got them are kept there. Buffers released by another
+     * thread, such as a sending thread, go to the shared cache, so that the
+     * thread filling them can pick them up again.
+     */
+    static final int LOCAL_CACHE_SIZE = 8;
+
     static SendBuffer[] cache = new SendBuffer[BUFFER_CACHE_SIZE];
 
     static int cacheSize = 0;
 
+    // next buffer to replace when the shared cache is full
+    private static int evict = 0;
+
+    private static final ThreadLocal<LocalCache> localCache = new ThreadLocal<LocalCache>() {
+        protected LocalCache initialValue() {
+            return new LocalCache();
+        }
+    };
+
+    private static final class LocalCache {
+        final SendBuffer[] buffers = new SendBuffer[LOCAL_CACHE_SIZE];
+
+        int size = 0;
+    }
+
+    private static final AtomicLong nextSequenceNr = new AtomicLong();
+
     private static Logger logger = LoggerFactory.getLogger(SendBuffer.class);
 
     /**
-     * Static method to get a sendbuffer out of the cache
+     * Static method to get a sendbuffer with primitive buffers of the default
+     * size out of the cache.
      */
-    synchronized static SendBuffer get() {
-        if (cacheSize > 0) {
+    static SendBuffer get() {
+        return get(PRIMITIVE_BUFFER_SIZE);
+    }
+
+    /**
+     * Static method to get a sendbuffer with primitive buffers of the given
+     * size out of the cache. The cache of the current thread is tried first,
+     * then the shared cache.
+     */
+    static SendBuffer get(int size) {
+        LocalCache local = localCache.get();
+        SendBuffer result = null;
+
+        for (int i = local.size - 1; i >= 0; i--) {
+            if (local.buffers[i].size == size) {
+                result = local.buffers[i];
+                local.size--;
+                local.buffers[i] = local.buffers[local.size];
+                local.buffers[local.size] = null;
+                break;
+            }
+        }
+        if (result == null) {
+            result = getShared(size);
+        }
+
+        if (result == null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("SendBuffer: got new empty buffer");
+            }
+            result = new SendBuffer(size);
+        } else {
             if (logger.isDebugEnabled()) {
                 logger.debug("SendBuffer: got empty buffer from cache");
             }
-            cacheSize--;
-            cache[cacheSize].clear();
-            return cache[cacheSize];
+            result.clear();
         }
-        if (logger.isDebugEnabled()) {
-        	logger.debug("SendBuffer: got new empty buffer");
+        result.owner = Thread.currentThread();
+        return result;
+    }
+
+    private synchronized static SendBuffer getShared(int size) {
+        for (int i = cacheSize - 1; i >= 0; i--) {
+            if (cache[i].size == size) {
+                SendBuffer result = cache[i];
+                cacheSize--;
+                cache[i] = cache[cacheSize];
+                cache[cacheSize] = null;
+                return result;
+            }
         }
-        return new SendBuffer();
+        return null;
     }
 
     /**
-     * static method to put a buffer in the cache
+     * static method to put a buffer in the cache. Recycling a copy releases
+     * its reference to the original, which is recycled when the last copy
+     * has been.
      */
-    synchronized static void recycle(SendBuffer buffer) {
-        if (buffer.parent == null) {
-            if (buffer.copies != 0) {
-                // throw new Error("tried to recycle buffer with children!");
-                return;
+    static void recycle(SendBuffer buffer) {
+        if (buffer.parent != null) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("SendBuffer: recycling child buffer");
             }
-            if (cacheSize >= BUFFER_CACHE_SIZE) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("SendBuffer: cache full"
-                            + " apon recycling buffer, throwing away");
-                }
+            SendBuffer parent = buffer.parent;
+            buffer.parent = null;
+            if (parent.references.decrementAndGet() != 0) {
                 return;
             }
-            cache[cacheSize] = buffer;
-            cacheSize++;
-            if (logger.isDebugEnabled()) {
-                logger.debug("SendBuffer: recycled buffer");
-            }
+            buffer = parent;
+        } else if (buffer.references.get() != 0) {
+            // throw new Error("tried to recycle buffer with children!");
+            return;
+        }
+
+        Thread owner = buffer.owner;
+        buffer.owner = null;
+
+        LocalCache local = null;
+        if (owner == Thread.currentThread()) {
+            local = localCache.get();
+        }
+        if (local != null && local.size < LOCAL_CACHE_SIZE) {
+            local.buffers[local.size] = buffer;
+            local.size++;
         } else {
+            recycleShared(buffer);
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("SendBuffer: recycled buffer");
+        }
+    }
+
+    private synchronized static void recycleShared(SendBuffer buffer) {
+        if (cacheSize >= BUFFER_CACHE_SIZE) {
+            // replace a buffer, so that buffers of a size that is no longer
+            // used do not stay in the cache forever
             if (logger.isDebugEnabled()) {
-                logger.debug("SendBuffer: recycling child buffer");
-            }
-            buffer.parent.copies--;
-            if (buffer.parent.copies == 0) {
-                if (cacheSize >= BUFFER_CACHE_SIZE) {
-                    if (logger.isDebugEnabled()) {
-                        logger.debug("SendBuffer: cache full"
-                                + " apon recycling parent of child buffer,"
-                                + " throwing away");
-                    }
-                    return;
-                }
-                cache[cacheSize] = buffer.parent;
-                cacheSize++;
-                if (logger.isDebugEnabled()) {
-                    logger.debug("SendBuffer: recycled parent buffer");
-                }
+                logger.debug("SendBuffer: cache full"
+                        + " apon recycling buffer, throwing one away");
             }
+            cache[evict] = buffer;
+            evict = (evict + 1) % BUFFER_CACHE_SIZE;
+            return;
         }
+        cache[cacheSize] = buffer;
+        cacheSize++;
     }
 
     /**
-     * create copies of a buffer, records how may copies are made so far
+     * Creates read-only copies of a buffer, which share its data. The
+     * original is recycled when all copies have been recycled, and should not
+     * be recycled itself.
      */
-    synchronized static SendBuffer[] replicate(SendBuffer original, int copies) {
+    static SendBuffer[] replicate(SendBuffer original, int copies) {
         SendBuffer[] result = new SendBuffer[copies];
 
+        original.references.addAndGet(copies);
         for (int i = 0; i < copies; i++) {
             result[i] = new SendBuffer(original);
         }
-        original.copies += copies;
 
         return result;
     }
 
-    // number of copies that exist of this buffer
-    private int copies = 0;
+    // number of copies of this buffer that have not been recycled yet
+    private final AtomicInteger references = new AtomicInteger();
 
     // original buffer this buffer is a copy of (if applicable)
     SendBuffer parent = null;
 
-    private static long nextSequenceNr = 0;
+    // thread that got this buffer from the cache
+    private Thread owner = null;
 
     ShortBuffer header;
 
@@ -191,7 +272,12 @@ final class SendBuffer implements Config {
      */
     long sequenceNr;
 
-    SendBuffer() {
+    /** Size of each of the primitive buffers, in bytes. */
+    final int size;
+
+    SendBuffer(int size) {
+        this.size = size;
+
         ByteOrder order = ByteOrder.nativeOrder();
 
         byteBuffers = new ByteBuffer[NR_OF_BUFFERS];
@@ -208,7 +294,7 @@ final class SendBuffer implements Config {
         }
 
         for (int i = 1; i < (NR_OF_BUFFERS - 1); i++) {
-            byteBuffers[i] = ByteBuffer.allocateDirect(PRIMITIVE_BUFFER_SIZE)
+            byteBuffers[i] = ByteBuffer.allocateDirect(size)
                     .order(order);
         }
 
@@ -225,14 +311,17 @@ final class SendBuffer implements Config {
     }
 
     /**
-     * Copy constructor. Acutally only copies byteBuffers;
+     * Copy constructor. Only creates read-only views of the byteBuffers of
+     * the parent, with their own positions and limits, so every connection
+     * can write the same data at its own pace.
      */
     SendBuffer(SendBuffer parent) {
         this.parent = parent;
+        this.size = parent.size;
 
         byteBuffers = new ByteBuffer[NR_OF_BUFFERS];
         for (int i = 0; i < NR_OF_BUFFERS; i++) {
-            byteBuffers[i] = parent.byteBuffers[i].duplicate();
+            byteBuffers[i] = parent.byteBuffers[i].asReadOnlyBuffer();
         }
     }
 
@@ -253,11 +342,9 @@ final class SendBuffer implements Config {
         bytes.clear();
 
         parent = null;
-        copies = 0;
+        references.set(0);
 
-        // FIXME: this isn't thread safe
-        sequenceNr = nextSequenceNr;
-        nextSequenceNr++;
+        sequenceNr = nextSequenceNr.getAndIncrement();
     }
 
     /**
@@ -365,6 +452,21 @@ final class SendBuffer implements Config {
                 .position() == 0));
     }
 
+    /**
+     * Returns the largest number of bytes in one of the primitive buffers
+     * (before flipping).
+     */
+    int largest() {
+        int result = bytes.position();
+        result = Math.max(result, chars.position() * SIZEOF_CHAR);
+        result = Math.max(result, shorts.position() * SIZEOF_SHORT);
+        result = Math.max(result, ints.position() * SIZEOF_INT);
+        result = Math.max(result, floats.position() * SIZEOF_FLOAT);
+        result = Math.max(result, longs.position() * SIZEOF_LONG);
+        result = Math.max(result, doubles.position() * SIZEOF_DOUBLE);
+        return result;
+    }
+
     /**
      * Returns if this buffer has any data remaining in it. Only works _after_
      * it has been flipped!
@@ -30,7 +30,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Class used as a single send/receive thread for an entire NioIbis instance.
+ * Thread doing the sending and receiving for the channels registered with it.
+ * A NioIbis instance may have several of these, each with its own selector,
+ * see {@link NioIbis#sendReceiveThread()}.
  */
 final class SendReceiveThread implements Runnable {
 
@@ -55,12 +57,27 @@ final class SendReceiveThread implements Runnable {
 
     private boolean exit = false;
 
-    SendReceiveThread() throws IOException {
+    private final String name;
+
+    // number of channels registered with the selector, updated by this thread
+    private volatile int nrOfChannels = 0;
+
+    SendReceiveThread(String name) throws IOException {
+        this.name = name;
         selector = Selector.open();
-        ThreadPool.createNew(this, "SendReceiveThread");
 
         readyWriteKeys = new SelectionKey[INITIAL_ARRAY_SIZE];
         readyReadKeys = new SelectionKey[INITIAL_ARRAY_SIZE];
+
+        ThreadPool.createNew(this, name);
+    }
+
+    /**
+     * Returns the number of channels handled by this thread, including the
+     * ones still waiting to be registered.
+     */
+    synchronized int load() {
+        return nrOfChannels + pendingChannels.size();
     }
 
     /**
@@ -115,6 +132,7 @@ final class SendReceiveThread implements Runnable {
 
         pendingChannels.clear();
         pendingAttachments.clear();
+        nrOfChannels = selector.keys().size();
 
         notifyAll();
     }
@@ -215,11 +233,12 @@ final class SendReceiveThread implements Runnable {
      */
     synchronized void quit() {
         exit = true;
+        selector.wakeup();
     }
 
     public void run() {
 
-        Thread.currentThread().setName("send/receive thread");
+        Thread.currentThread().setName(name);
 
         // try to add some importance to this thread
         try {
@@ -240,6 +259,11 @@ final class SendReceiveThread implements Runnable {
                     if (logger.isDebugEnabled()) {
                         logger.debug("done looking for work");
                     }
+                    try {
+                        selector.close();
+                    } catch (IOException e) {
+                        // IGNORE
+                    }
                     return;
                 }
                 registerPendingChannels();
@@ -266,6 +290,9 @@ final class SendReceiveThread implements Runnable {
                         + " channel(s)");
             }
 
+            // cancelled keys have been removed by the select
+            nrOfChannels = selector.keys().size();
+
             for (SelectionKey key : selector.selectedKeys()) {
                 if (key.attachment() == null) {
                     continue; // skip this key, nothing attached to it
@@ -32,11 +32,11 @@ final class ThreadNioAccumulator extends NioAccumulator {
 
     private static Logger logger = LoggerFactory.getLogger(ThreadNioAccumulator.class);
 
-    SendReceiveThread thread;
+    private final NioIbis ibis;
 
-    ThreadNioAccumulator(NioSendPort port, SendReceiveThread thread) {
+    ThreadNioAccumulator(NioSendPort port, NioIbis ibis) {
         super(port);
-        this.thread = thread;
+        this.ibis = ibis;
     }
 
     NioAccumulatorConnection newConnection(GatheringByteChannel channel,
@@ -49,7 +49,9 @@ final class ThreadNioAccumulator extends NioAccumulator {
             logger.debug("creating new" + " ThreadNioAccumulatorConnection");
         }
 
-        return new ThreadNioAccumulatorConnection(port, thread, channel, peer);
+        // every connection goes to the least loaded send/receive thread
+        return new ThreadNioAccumulatorConnection(port,
+                ibis.sendReceiveThread(), channel, peer);
     }
 
     boolean doSend(SendBuffer buffer) throws IOException {
@@ -95,11 +97,13 @@ final class ThreadNioAccumulator extends NioAccumulator {
                     if (logger.isInfoEnabled()) {
                         logger.info("connection lost");
                     }
-                    SendBuffer.recycle(copies[i]);
                     port.lostConnection(connection.target, e);
                     nrOfConnections--;
                     connections[i] = connections[nrOfConnections];
                     connections[nrOfConnections] = null;
+                    // copies[i] is retried on the moved connection, the
+                    // last copy is no longer needed
+                    SendBuffer.recycle(copies[nrOfConnections]);
                     i--;
                 }
             }
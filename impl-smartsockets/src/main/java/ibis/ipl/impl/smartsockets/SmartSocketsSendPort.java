@@ -104,10 +104,15 @@ final class SmartSocketsSendPort extends SendPort implements SmartSocketsProtoco
 
         VirtualSocket s = ((SmartSocketsIbis) ibis).connect(this, receiver, (int) timeoutMillis,
                         fillTimeout);
-        Conn c = new Conn(s, this, receiver);
         if (out != null) {
             out.writeByte(NEW_RECEIVER);
+            // Write this out before adding the new connection: the new
+            // receiver starts with the new stream, which starts with its
+            // byte order.
+            out.flush();
+            bufferedStream.sync(bufferedStream.send());
         }
+        Conn c = new Conn(s, this, receiver);
         initStream(bufferedStream);
         return c;
     }
@@ -73,7 +73,8 @@ public final class SmartSocketsUltraLightReadMessage implements ReadMessage {
         // bin = new SingleBufferArrayInputStream(data);
         bin = new BufferedArrayInputStream(new ByteArrayInputStream(data));
         in = SerializationFactory.createSerializationInput(serialization, bin,
-                port.properties);
+                port.properties,
+                type.hasCapability(PortType.SERIALIZATION_COMPACT));
     }
 
     public long bytesRead() throws IOException {
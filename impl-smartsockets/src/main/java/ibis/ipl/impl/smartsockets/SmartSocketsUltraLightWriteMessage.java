@@ -57,7 +57,9 @@ public class SmartSocketsUltraLightWriteMessage implements WriteMessage {
         b = new ByteArrayOutputStream();
         bout = new BufferedArrayOutputStream(b);
         // bout = new SingleBufferArrayOutputStream(buffer);
-        out = SerializationFactory.createSerializationOutput(serialization, bout, port.properties);		
+        out = SerializationFactory.createSerializationOutput(serialization,
+                bout, port.properties,
+                type.hasCapability(PortType.SERIALIZATION_COMPACT));		
     }
 
     public long bytesWritten() throws IOException {
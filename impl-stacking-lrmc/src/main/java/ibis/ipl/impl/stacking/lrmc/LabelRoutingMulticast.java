@@ -28,9 +28,13 @@ import ibis.ipl.impl.stacking.lrmc.util.IbisSorter;
 import ibis.ipl.impl.stacking.lrmc.util.Message;
 import ibis.ipl.impl.stacking.lrmc.util.MessageCache;
 import ibis.ipl.impl.stacking.lrmc.util.MessageQueue;
+import ibis.ipl.support.vivaldi.Coordinates;
 import ibis.util.TypedProperties;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +43,16 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
 
     private final static int ZOMBIE_THRESHOLD = 100000;
 
+    // maximum time to wait for the previous multicasts to be delivered when
+    // switching to another route
+    private final static int DONE_TIMEOUT = 10000;
+
+    // minimum time between reorderings of the destinations
+    private final static int REORDER_INTERVAL = 10000;
+
+    // our coordinates are reported again when they moved this much (ms)
+    private final static double COORDINATE_DRIFT = 1.0;
+
     private static final Logger logger = LoggerFactory
             .getLogger(LabelRoutingMulticast.class);
 
@@ -63,15 +77,72 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
 
     private MessageQueue sendQueue;
 
+    // When set, multicasts that fit in a single message are sent along a
+    // tree, other multicasts along a chain.
+    private final boolean hybrid;
+
+    // fanout of the tree, 0 means: choose from the number of destinations
+    private final int treeFanout;
+
+    // fanout used for the current multicast
+    private int fanout = 1;
+
+    // number of DONE messages still expected for our multicasts
+    private int pendingDone = 0;
+
+    // When set, the destinations are ordered by their Vivaldi coordinates
+    // instead of by their location.
+    private final boolean vivaldi;
+
+    // destinations, in location order
+    private IbisIdentifier[] destinationIds = null;
+
+    // coordinates reported by the destinations
+    private final HashMap<IbisIdentifier, Coordinates> coordinates = new HashMap<IbisIdentifier, Coordinates>();
+
+    private boolean coordinatesChanged = false;
+
+    private long lastReorder = 0;
+
+    // our coordinates as last reported, and the senders we reported them to
+    private Coordinates reported = null;
+
+    private final BitSet reportedTo = new BitSet();
+
     public LabelRoutingMulticast(LrmcIbis ibis, MessageReceiver m,
             MessageCache c, String name) throws IOException {
         this.ibis = ibis;
         this.receiver = m;
         this.name = name;
         this.cache = c;
-        this.sendQueue = new MessageQueue(
-                new TypedProperties(ibis.properties()).getIntProperty(
-                        "lrmc.queueSize", 256));
+        TypedProperties tp = new TypedProperties(ibis.properties());
+        this.sendQueue = new MessageQueue(tp.getIntProperty("lrmc.queueSize",
+                256));
+        String routing = tp.getProperty("lrmc.routing", "chain");
+        if (routing.equals("hybrid")) {
+            hybrid = true;
+        } else {
+            if (!routing.equals("chain")) {
+                logger.warn("Unknown lrmc.routing " + routing
+                        + ", using chain");
+            }
+            hybrid = false;
+        }
+        treeFanout = tp.getIntProperty("lrmc.fanout", 0);
+        String order = tp.getProperty("lrmc.order", "location");
+        if (order.equals("vivaldi")) {
+            if (ibis.vivaldiCoordinates() == null) {
+                logger.warn("No Vivaldi coordinates available (set "
+                        + "ibis.vivaldi), ordering destinations by location");
+            }
+            vivaldi = true;
+        } else {
+            if (!order.equals("location")) {
+                logger.warn("Unknown lrmc.order " + order
+                        + ", using location");
+            }
+            vivaldi = false;
+        }
         receive = ibis.base.createReceivePort(LrmcIbis.additionalPortType, "LRMCRing-"
                 + name, this);
         receive.enableConnections();
@@ -180,6 +251,7 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
                         WriteMessage wm = sp.newMessage();
                         wm.writeInt(-1);
                         wm.writeInt(m.id);
+                        m.writeReports(wm);
                         wm.finish();
                     } catch (IOException e) {
                         logger.debug("Writing DONE message to " + m.sender
@@ -192,9 +264,34 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
             return;
         }
 
+        // Split the destinations into fanout sub-chains of (almost) equal
+        // length, and send the message to the head of each of them, with the
+        // rest of the sub-chain as label. With a fanout of 1 this is a single
+        // chain.
+        int parts = Math.min(Math.max(m.fanout, 1), m.destinationsUsed);
+        int from = 0;
+
+        for (int p = 0; p < parts; p++) {
+            int to = from + (m.destinationsUsed - from) / (parts - p);
+            if (!internalSend(m, from, to)) {
+                return;
+            }
+            from = to;
+        }
+    }
+
+    /**
+     * Sends the message to the first working destination in the range
+     * [from, to), with the rest of the range as label.
+     *
+     * @return false if we are finishing.
+     */
+    private boolean internalSend(Message m, int from, int to) {
+        SendPort sp = null;
+
         // Get the next target from the destination array. If this fails, get
         // the next one, etc. If no working destination is found we give up.
-        int index = 0;
+        int index = from;
         int id = -1;
 
         do {
@@ -203,34 +300,34 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
             if (sp == null) {
                 synchronized (this) {
                     if (finish) {
-                        return;
+                        return false;
                     }
                 }
             }
-        } while (sp == null && index < m.destinationsUsed);
+        } while (sp == null && index < to);
 
         try {
             if (sp == null) {
                 // No working destinations where found, so give up!
                 logger.info("No working destinations found, giving up!");
-                return;
+                return true;
             }
 
             if (logger.isDebugEnabled()) {
                 logger.debug("Writing message " + m.id + "/" + m.num + " to "
                         + id + ", sender " + m.sender
-                        + ", destinations left = "
-                        + (m.destinationsUsed - index));
+                        + ", destinations left = " + (to - index));
             }
 
             // send the message to the target
             WriteMessage wm = sp.newMessage();
-            m.write(wm, index);
+            m.write(wm, index, to);
             bytes += wm.finish();
         } catch (IOException e) {
             logger.info("Write to " + id + " failed! ", e);
             sendports.remove(id);
         }
+        return true;
     }
 
     public void setDestination(IbisIdentifier[] destinations) {
@@ -242,6 +339,15 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
         // array. This can be used to make the mcast 'cluster aware'.
         IbisSorter.sort(ibis.identifier(), destinations);
 
+        if (vivaldi) {
+            synchronized (this) {
+                destinationIds = destinations.clone();
+                lastReorder = System.currentTimeMillis();
+                coordinatesChanged = false;
+            }
+            destinations = vivaldiOrder(destinations.clone());
+        }
+
         this.destinations = new int[destinations.length];
 
         for (int i = 0; i < destinations.length; i++) {
@@ -252,6 +358,105 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
         }
     }
 
+    /**
+     * Reorders the given destinations, which must be in location order, as
+     * a path that repeatedly visits the nearest remaining destination, as far
+     * as their Vivaldi coordinates are known.
+     */
+    private IbisIdentifier[] vivaldiOrder(IbisIdentifier[] ids) {
+        Coordinates local = ibis.vivaldiCoordinates();
+        if (local == null) {
+            return ids;
+        }
+
+        Coordinates[] c = new Coordinates[ids.length];
+        synchronized (this) {
+            for (int i = 0; i < ids.length; i++) {
+                c[i] = coordinates.get(ids[i]);
+            }
+        }
+
+        IbisSorter.sort(local, ids, c);
+        return ids;
+    }
+
+    /**
+     * Returns a new order of the destinations if coordinates were reported
+     * since the last ordering, or null if the order does not change. To
+     * limit the number of route changes, this is done at most once every
+     * REORDER_INTERVAL.
+     */
+    private int[] reorder() {
+        IbisIdentifier[] ids;
+
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (!coordinatesChanged || destinationIds == null
+                    || now - lastReorder < REORDER_INTERVAL) {
+                return null;
+            }
+            coordinatesChanged = false;
+            lastReorder = now;
+            ids = destinationIds.clone();
+        }
+
+        ids = vivaldiOrder(ids);
+
+        int[] order = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            order[i] = ibis.getIbisID(ids[i]);
+        }
+
+        if (Arrays.equals(order, destinations)) {
+            return null;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Reordered destinations: " + Arrays.toString(order));
+        }
+        return order;
+    }
+
+    /**
+     * Adds our coordinates to the last message of a multicast we forward.
+     * They travel along the chain, and the destination at its end returns
+     * them to the sender in its DONE message, so that the sender can order
+     * its destinations. Each ibis only knows its own coordinates. They are
+     * reported once to every sender, and again after they moved more than
+     * COORDINATE_DRIFT. Only called by our own thread.
+     */
+    private void reportCoordinates(Message m) {
+        Coordinates current = ibis.vivaldiCoordinates();
+        if (current == null) {
+            return;
+        }
+
+        if (reported == null || reported.distance(current) > COORDINATE_DRIFT) {
+            reported = current;
+            reportedTo.clear();
+        }
+
+        if (reportedTo.get(m.sender)) {
+            return;
+        }
+        reportedTo.set(m.sender);
+        m.addReport(ibis.myID, current.toBytes());
+    }
+
+    private void coordinatesReceived(int id, Coordinates c) {
+        IbisIdentifier ibisID = ibis.getId(id);
+        if (ibisID == null) {
+            return;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Got coordinates " + c + " of " + id);
+        }
+        synchronized (this) {
+            coordinates.put(ibisID, c);
+            coordinatesChanged = true;
+        }
+    }
+
     public long getBytes(boolean reset) {
 
         long tmp = bytes;
@@ -267,6 +472,17 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
 
         int[] destOld = m.destinations;
 
+        int[] order = null;
+        if (vivaldi && (m.num & ~Message.LAST_PACKET) == 0) {
+            order = reorder();
+        }
+
+        if (hybrid || vivaldi) {
+            m.fanout = selectRoute(m, order);
+        } else {
+            m.fanout = 1;
+        }
+
         m.destinations = destinations;
         m.destinationsUsed = destinations.length;
         m.sender = ibis.myID;
@@ -278,6 +494,99 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
         return true;
     }
 
+    /**
+     * Selects the route for a message sent by us. The route is chosen at
+     * the first message of a multicast: in hybrid mode, a multicast that fits
+     * in a single message is sent along a tree, which gives a latency
+     * logarithmic in the number of destinations. Larger multicasts are sent
+     * along a chain, in which every node forwards every message only once.
+     * Also, a new order of the destinations, if any, is installed here.
+     *
+     * Receivers need the messages of a sender in order. When switching
+     * to another route, a message sent along the new route could
+     * overtake an earlier one, so we first wait until all earlier multicasts
+     * have been delivered, as reported by the DONE messages of the
+     * destinations at the ends of the chains.
+     *
+     * @return the fanout.
+     */
+    private synchronized int selectRoute(Message m, int[] order) {
+        // the output stream marks the last message in num
+        boolean last = (m.num & Message.LAST_PACKET) != 0;
+
+        if ((m.num & ~Message.LAST_PACKET) == 0) {
+            int n = destinations.length;
+            int k = hybrid && last ? treeFanout(n) : 1;
+
+            if (k != fanout || order != null) {
+                long deadline = System.currentTimeMillis() + DONE_TIMEOUT;
+                while (pendingDone > 0 && !finish) {
+                    long now = System.currentTimeMillis();
+                    if (now >= deadline) {
+                        logger.info("Missing " + pendingDone
+                                + " DONE messages, switching anyway");
+                        break;
+                    }
+                    try {
+                        wait(deadline - now);
+                    } catch (InterruptedException e) {
+                        // ignored
+                    }
+                }
+                pendingDone = 0;
+                fanout = k;
+                if (order != null) {
+                    destinations = order;
+                }
+            }
+        }
+
+        if (last && destinations.length > 0) {
+            pendingDone += chainEnds(destinations.length, fanout);
+        }
+        return fanout;
+    }
+
+    private int treeFanout(int destinations) {
+        if (treeFanout > 0) {
+            return treeFanout;
+        }
+        // smallest fanout that reaches all destinations within four levels
+        int k = 2;
+        while (k * k * k * k < destinations) {
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Returns the number of chain ends, which each send a DONE message, when
+     * sending to the given number of destinations with the given fanout.
+     */
+    private static int chainEnds(int destinations, int fanout) {
+        if (destinations == 0) {
+            return 1;
+        }
+        int parts = Math.min(fanout, destinations);
+        int from = 0;
+        int result = 0;
+        for (int p = 0; p < parts; p++) {
+            int to = from + (destinations - from) / (parts - p);
+            result += chainEnds(to - from - 1, fanout);
+            from = to;
+        }
+        return result;
+    }
+
+    private synchronized void doneReceived() {
+        if (pendingDone > 0) {
+            pendingDone--;
+            if (pendingDone == 0) {
+                notifyAll();
+            }
+        }
+    }
+
     public void run() {
 
         while (true) {
@@ -288,6 +597,9 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
             }
 
             try {
+                if (vivaldi && m.last) {
+                    reportCoordinates(m);
+                }
                 internalSend(m);
             } catch (Exception e) {
                 logger.info("Sender thread got exception! ", e);
@@ -301,6 +613,7 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
         // sendQueue.printTime();
         synchronized (this) {
             finish = true;
+            notifyAll();
         }
         sendQueue.terminate();
         try {
@@ -339,6 +652,20 @@ public class LabelRoutingMulticast extends Thread implements MessageUpcall {
                 if (logger.isDebugEnabled()) {
                     logger.debug("Got DONE for message " + id);
                 }
+                // followed by the coordinates reported along the chain
+                int n = rm.readInt();
+                if (n > 0) {
+                    int[] ids = new int[n];
+                    byte[] bytes = new byte[n * Coordinates.SIZE];
+                    rm.readArray(ids);
+                    rm.readArray(bytes);
+                    for (int i = 0; i < n; i++) {
+                        coordinatesReceived(ids[i], new Coordinates(Arrays
+                                .copyOfRange(bytes, i * Coordinates.SIZE,
+                                        (i + 1) * Coordinates.SIZE)));
+                    }
+                }
+                doneReceived();
                 receiver.gotDone(id);
                 return;
             }
@@ -31,6 +31,7 @@ import ibis.ipl.Registry;
 import ibis.ipl.RegistryEventHandler;
 import ibis.ipl.SendPort;
 import ibis.ipl.SendPortDisconnectUpcall;
+import ibis.ipl.support.vivaldi.Coordinates;
 import ibis.ipl.impl.stacking.lrmc.util.DynamicObjectArray;
 
 import java.io.IOException;
@@ -394,6 +395,17 @@ public class LrmcIbis implements Ibis {
         return base.properties();
     }
 
+    /**
+     * Returns the Vivaldi coordinates of the underlying ibis, or null if it
+     * does not maintain any (see the "ibis.vivaldi" property).
+     */
+    Coordinates vivaldiCoordinates() {
+        if (base instanceof ibis.ipl.impl.Ibis) {
+            return ((ibis.ipl.impl.Ibis) base).getVivaldiCoordinates();
+        }
+        return null;
+    }
+
     
     /**
      * Determines if the specified port type is one that is implemented
@@ -17,6 +17,7 @@ package ibis.ipl.impl.stacking.lrmc.util;
 
 import ibis.ipl.IbisIdentifier;
 import ibis.ipl.Location;
+import ibis.ipl.support.vivaldi.Coordinates;
 
 import java.util.Arrays;
 import java.util.Comparator;
@@ -77,6 +78,72 @@ public class IbisSorter implements Comparator<IbisIdentifier> {
         System.arraycopy(tmp, 0, ids, from + tmp.length - index - 1, index);
     }
 
+    /**
+     * Reorders the identifiers, which should already be sorted with
+     * {@link #sort(IbisIdentifier, IbisIdentifier[])}, into a path that
+     * starts at the local ibis and then repeatedly visits the nearest ibis not
+     * visited yet, as estimated from the Vivaldi coordinates. The coordinates
+     * of ids[i] are in coordinates[i], or null if they are unknown. Both
+     * arrays are reordered.
+     * 
+     * An ibis without coordinates stays right behind the ibis that precedes
+     * it in the original order, as it is probably in the same cluster.
+     */
+    public static void sort(Coordinates local, IbisIdentifier[] ids,
+            Coordinates[] coordinates) {
+
+        int n = ids.length;
+
+        int[] heads = new int[n];
+        int nrOfHeads = 0;
+
+        for (int i = 0; i < n; i++) {
+            if (coordinates[i] != null) {
+                heads[nrOfHeads++] = i;
+            }
+        }
+
+        IbisIdentifier[] resultIds = new IbisIdentifier[n];
+        Coordinates[] resultCoordinates = new Coordinates[n];
+
+        // The ibises in front of the first one with coordinates stay there.
+        int index = nrOfHeads == 0 ? n : heads[0];
+
+        System.arraycopy(ids, 0, resultIds, 0, index);
+
+        boolean[] visited = new boolean[nrOfHeads];
+        Coordinates current = local;
+
+        for (int step = 0; step < nrOfHeads; step++) {
+            int best = -1;
+            double bestDistance = Double.MAX_VALUE;
+
+            for (int h = 0; h < nrOfHeads; h++) {
+                if (!visited[h]) {
+                    double d = current.distance(coordinates[heads[h]]);
+                    if (best == -1 || d < bestDistance) {
+                        best = h;
+                        bestDistance = d;
+                    }
+                }
+            }
+
+            visited[best] = true;
+            current = coordinates[heads[best]];
+
+            int end = best + 1 < nrOfHeads ? heads[best + 1] : n;
+            int len = end - heads[best];
+
+            System.arraycopy(ids, heads[best], resultIds, index, len);
+            System.arraycopy(coordinates, heads[best], resultCoordinates,
+                    index, len);
+            index += len;
+        }
+
+        System.arraycopy(resultIds, 0, ids, 0, n);
+        System.arraycopy(resultCoordinates, 0, coordinates, 0, n);
+    }
+
     // Returns the index of the first character that is different in the two
     // Strings. Thus, the higher the number returned, the longer the prefix that
     // the two Strings share.
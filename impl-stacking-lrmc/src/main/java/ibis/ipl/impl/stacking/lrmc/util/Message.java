@@ -17,6 +17,7 @@ package ibis.ipl.impl.stacking.lrmc.util;
 
 import ibis.ipl.ReadMessage;
 import ibis.ipl.WriteMessage;
+import ibis.ipl.support.vivaldi.Coordinates;
 
 import java.io.IOException;
 
@@ -31,6 +32,10 @@ public class Message {
     public int[] destinations;
     public int destinationsUsed;
 
+    // number of sub-chains the destinations are split into at every hop,
+    // 1 for a single chain
+    public int fanout = 1;
+
     public int id;
     public int num;
 
@@ -41,6 +46,12 @@ public class Message {
     public boolean last = false;
     public boolean local = false;
 
+    // Vivaldi coordinates reported by the destinations this multicast passed,
+    // carried by the last message only and returned to the sender with DONE
+    public int reports;
+    public int[] reportIds;
+    public byte[] reportCoordinates;
+
     public Message next;
 
     // private int useCount = 0;
@@ -58,6 +69,7 @@ public class Message {
         sender = rm.readInt();
         id = rm.readInt();
         num = rm.readInt();
+        fanout = rm.readInt();
 
         last = ((num & LAST_PACKET) != 0);
 
@@ -79,11 +91,68 @@ public class Message {
         }
 
         destinationsUsed = dst;
+
+        reports = 0;
+        if (last) {
+            int n = rm.readInt();
+            ensureReports(n);
+            if (n > 0) {
+                rm.readArray(reportIds, 0, n);
+                rm.readArray(reportCoordinates, 0, n * Coordinates.SIZE);
+            }
+            reports = n;
+        }
+    }
+
+    private void ensureReports(int n) {
+        if (reportIds == null || reportIds.length < n) {
+            int size = Math.max(n, 2 * reports);
+            int[] ids = new int[size];
+            byte[] coordinates = new byte[size * Coordinates.SIZE];
+            if (reports > 0) {
+                System.arraycopy(reportIds, 0, ids, 0, reports);
+                System.arraycopy(reportCoordinates, 0, coordinates, 0, reports
+                        * Coordinates.SIZE);
+            }
+            reportIds = ids;
+            reportCoordinates = coordinates;
+        }
+    }
+
+    /**
+     * Adds the coordinates of a destination to the reports of this message.
+     */
+    public void addReport(int id, byte[] coordinates) {
+        ensureReports(reports + 1);
+        reportIds[reports] = id;
+        System.arraycopy(coordinates, 0, reportCoordinates, reports
+                * Coordinates.SIZE, Coordinates.SIZE);
+        reports++;
+    }
+
+    /**
+     * Writes the reports of this message.
+     */
+    public void writeReports(WriteMessage wm) throws IOException {
+        wm.writeInt(reports);
+        if (reports > 0) {
+            wm.writeArray(reportIds, 0, reports);
+            wm.writeArray(reportCoordinates, 0, reports * Coordinates.SIZE);
+        }
     }
 
     public void write(WriteMessage wm, int fromDest) throws IOException {
+        write(wm, fromDest, destinationsUsed);
+    }
 
-        int destinationLength = destinationsUsed - fromDest;
+    /**
+     * Writes this message, with the destinations from fromDest up to (but not
+     * including) toDest.
+     */
+    public void write(WriteMessage wm, int fromDest, int toDest)
+            throws IOException {
+
+        int destinationLength = toDest - fromDest;
 
         // First write the two variable lengths present in the message.
         wm.writeInt(len);
@@ -93,11 +162,9 @@ public class Message {
         wm.writeInt(sender);
         wm.writeInt(id);
 
-        if (last) {
-            wm.writeInt(num | Message.LAST_PACKET);
-        } else {
-            wm.writeInt(num);
-        }
+        int n = last ? num | LAST_PACKET : num;
+        wm.writeInt(n);
+        wm.writeInt(fanout);
 
         // Finally write the actual data that has a variable size
         if (len > 0) {
@@ -107,5 +174,9 @@ public class Message {
         if (destinationLength > 0) {
             wm.writeArray(destinations, fromDest, destinationLength);
         }
+
+        if ((n & LAST_PACKET) != 0) {
+            writeReports(wm);
+        }
     }
 }
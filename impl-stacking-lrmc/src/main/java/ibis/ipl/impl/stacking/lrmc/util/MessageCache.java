@@ -92,6 +92,7 @@ public class MessageCache {
         }
         tmp.next = null;
         tmp.local = false;
+        tmp.reports = 0;
         tmp.refcount = 1;
 
         return tmp;
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.ipl.impl.tcp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ScatteringByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Input stream of a socket that has a channel. Byte arrays are read from the
+ * input stream of the socket, byte buffers are read from the channel
+ * directly, so that direct buffers are filled without copying.
+ */
+final class ChannelInputStream extends InputStream implements
+        ScatteringByteChannel {
+
+    private final SocketChannel channel;
+
+    private final InputStream in;
+
+    ChannelInputStream(SocketChannel channel, InputStream in) {
+        this.channel = channel;
+        this.in = in;
+    }
+
+    public int read() throws IOException {
+        return in.read();
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        return in.read(b, off, len);
+    }
+
+    public int available() throws IOException {
+        return in.available();
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        return channel.read(dst);
+    }
+
+    public long read(ByteBuffer[] dsts) throws IOException {
+        return channel.read(dsts);
+    }
+
+    public long read(ByteBuffer[] dsts, int offset, int length)
+            throws IOException {
+        return channel.read(dsts, offset, length);
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+}
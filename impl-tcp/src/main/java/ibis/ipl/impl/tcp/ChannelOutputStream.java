@@ -0,0 +1,75 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.ipl.impl.tcp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Output stream of a socket that has a channel. Byte arrays are written to the
+ * output stream of the socket, byte buffers are written to the channel
+ * directly, so that direct buffers are not copied to the heap first.
+ */
+final class ChannelOutputStream extends OutputStream implements
+        GatheringByteChannel {
+
+    private final SocketChannel channel;
+
+    private final OutputStream out;
+
+    ChannelOutputStream(SocketChannel channel, OutputStream out) {
+        this.channel = channel;
+        this.out = out;
+    }
+
+    public void write(int b) throws IOException {
+        out.write(b);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        return channel.write(src);
+    }
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return channel.write(srcs);
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+        return channel.write(srcs, offset, length);
+    }
+
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.ipl.impl.tcp;
+
+import ibis.util.ThreadPool;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches idle receive port connections, so that they do not each need a
+ * thread of their own. A connection handler that has no more data to read
+ * parks its connection here. As soon as data arrives, the connection is put
+ * back in blocking mode, and handed to a thread from the
+ * {@link ThreadPool}, which reads messages until the connection is idle
+ * again.
+ */
+final class ConnectionSelector implements Runnable {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(ConnectionSelector.class);
+
+    private final Selector selector;
+
+    // connections to be registered by the selector thread
+    private final ArrayList<TcpReceivePort.ConnectionHandler> pending
+            = new ArrayList<TcpReceivePort.ConnectionHandler>();
+
+    ConnectionSelector() throws IOException {
+        selector = Selector.open();
+        ThreadPool.createNew(this, "TcpIbis Selector Thread");
+    }
+
+    /**
+     * Parks the connection of the specified handler until data arrives. The
+     * handler must not read from the connection after calling this method.
+     */
+    void park(TcpReceivePort.ConnectionHandler handler) {
+        synchronized (pending) {
+            pending.add(handler);
+        }
+        selector.wakeup();
+    }
+
+    void end() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+
+    private void register() {
+        TcpReceivePort.ConnectionHandler[] handlers;
+        synchronized (pending) {
+            handlers = pending.toArray(new TcpReceivePort.ConnectionHandler[0]);
+            pending.clear();
+        }
+        for (TcpReceivePort.ConnectionHandler handler : handlers) {
+            SocketChannel channel = handler.channel();
+            if (!channel.isOpen()) {
+                // closed in the meantime
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, handler);
+            } catch (IOException e) {
+                handler.close(e);
+            } catch (RuntimeException e) {
+                // e.g. closed channel, closed selector
+                handler.close(e);
+            }
+        }
+    }
+
+    public void run() {
+        ArrayList<TcpReceivePort.ConnectionHandler> ready
+                = new ArrayList<TcpReceivePort.ConnectionHandler>();
+
+        try {
+            while (selector.isOpen()) {
+                register();
+
+                selector.select();
+
+                // A channel can only be put back in blocking mode once its
+                // key is really gone, which happens at the next selection.
+                // This selection may find more ready channels.
+                Set<SelectionKey> keys = selector.selectedKeys();
+                while (!keys.isEmpty()) {
+                    for (SelectionKey key : keys) {
+                        key.cancel();
+                        ready.add((TcpReceivePort.ConnectionHandler) key
+                                .attachment());
+                    }
+                    keys.clear();
+                    selector.selectNow();
+                }
+
+                for (TcpReceivePort.ConnectionHandler handler : ready) {
+                    if (!handler.channel().isOpen()) {
+                        continue;
+                    }
+                    try {
+                        handler.channel().configureBlocking(true);
+                    } catch (Throwable e) {
+                        handler.close(e);
+                        continue;
+                    }
+                    ThreadPool.createNew(handler, "ConnectionHandler");
+                }
+                ready.clear();
+            }
+        } catch (ClosedSelectorException e) {
+            // ended
+        } catch (IOException e) {
+            logger.error("TcpIbis selector thread failed", e);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("selector thread done");
+        }
+    }
+}
@@ -22,8 +22,14 @@ import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 class IbisServerSocket {
 
+    private static final Logger logger = LoggerFactory
+            .getLogger(IbisServerSocket.class);
+
     ServerSocket socket = null;
 
     IbisServerSocket(ServerSocket s) {
@@ -47,8 +53,11 @@ class IbisServerSocket {
                 d.writeInt(baddr.length);
                 d.write(baddr);
                 d.flush();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Accepting " + (b - 1)
+                            + " parallel stream(s) at " + addr);
+                }
                 for (int i = 1; i < b; i++) {
-                    System.out.println("Accept from address " + addr.toString());
                     result[i] = n.accept();
                 }
                 return new IbisSocket(result);
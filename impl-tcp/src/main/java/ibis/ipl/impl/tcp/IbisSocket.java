@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.SocketChannel;
 import java.util.Arrays;
 
 class IbisSocket {
@@ -30,8 +31,14 @@ class IbisSocket {
     IbisSocket(Socket s) throws IOException {
         sockets = new Socket[1];
         sockets[0] = s;
-        in = s.getInputStream();
-        out = s.getOutputStream();
+        SocketChannel channel = s.getChannel();
+        if (channel != null) {
+            in = new ChannelInputStream(channel, s.getInputStream());
+            out = new ChannelOutputStream(channel, s.getOutputStream());
+        } else {
+            in = s.getInputStream();
+            out = s.getOutputStream();
+        }
     }
 
     public IbisSocket(Socket[] sockets) throws IOException {
@@ -46,17 +53,22 @@ class IbisSocket {
         }
     }
 
-    java.io.OutputStream getOutputStream() throws IOException {
-        if (sockets.length == 1) {
-            return sockets[0].getOutputStream();
+    /**
+     * Returns the channel of this socket, or <code>null</code> if it does not
+     * have one, or consists of multiple streams.
+     */
+    SocketChannel getChannel() {
+        if (sockets == null || sockets.length != 1) {
+            return null;
         }
+        return sockets[0].getChannel();
+    }
+
+    java.io.OutputStream getOutputStream() throws IOException {
         return out;
     }
 
     java.io.InputStream getInputStream() throws IOException {
-        if (sockets.length == 1) {
-            return sockets[0].getInputStream();
-        }
         return in;
     }
 
@@ -25,6 +25,8 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.Map;
 import java.util.Properties;
 
@@ -36,8 +38,26 @@ class IbisSocketFactory {
     private static final Logger logger = LoggerFactory
             .getLogger(IbisSocketFactory.class);
 
+    // create server sockets with a channel, so that accepted connections
+    // can be used with a selector
+    private final boolean useChannels;
+
+    // create client sockets with a channel as well, for zero-copy byte
+    // buffers in both directions
+    private final boolean clientChannels;
+
     IbisSocketFactory(TypedProperties properties)
             throws IbisConfigurationException, IOException {
+        clientChannels = properties.getBooleanProperty(TcpIbis.CHANNELS, false);
+        useChannels = clientChannels
+                || properties.getBooleanProperty(TcpIbis.SELECTOR, false);
+    }
+
+    private Socket newSocket() throws IOException {
+        if (clientChannels) {
+            return SocketChannel.open().socket();
+        }
+        return new Socket();
     }
 
     void setIdent(IbisIdentifier id) {
@@ -45,7 +65,12 @@ class IbisSocketFactory {
 
     IbisServerSocket createServerSocket(int port, int backlog, boolean retry,
             Properties properties) throws IOException {
-        ServerSocket server = new ServerSocket();
+        ServerSocket server;
+        if (useChannels) {
+            server = ServerSocketChannel.open().socket();
+        } else {
+            server = new ServerSocket();
+        }
         InetSocketAddress local = new InetSocketAddress(
                 IPUtils.getLocalHostAddress(), port);
         server.bind(local, backlog);
@@ -57,11 +82,10 @@ class IbisSocketFactory {
             throws IOException {
 
         int nparallel = 1;
-        Socket s = new Socket();
+        Socket s = newSocket();
         s.connect(addr.address, timeout);
         if (properties != null) {
-            String np = properties.get("nParallelStreams");
-            System.out.println("nParallelStreams = " + np);
+            String np = properties.get(TcpSendPort.N_PARALLEL_STREAMS);
             if (np != null) {
                 try {
                     nparallel = Integer.parseInt(np);
@@ -70,6 +94,16 @@ class IbisSocketFactory {
                 }
             }
         }
+        // The number of streams is sent as a single byte.
+        if (nparallel < 1) {
+            nparallel = 1;
+        } else if (nparallel > 255) {
+            nparallel = 255;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Connecting to " + addr + " with " + nparallel
+                    + " parallel stream(s)");
+        }
         s.getOutputStream().write(nparallel);
         s.getOutputStream().flush();
         if (nparallel > 1) {
@@ -81,8 +115,7 @@ class IbisSocketFactory {
             b.readFully(buf);
             addr = new IbisSocketAddress(buf);
             for (int i = 1; i < nparallel; i++) {
-                result[i] = new Socket();
-                System.out.println("Connecting to " + addr.toString());
+                result[i] = newSocket();
                 result[i].connect(addr.address, timeout);
             }
             return new IbisSocket(result);
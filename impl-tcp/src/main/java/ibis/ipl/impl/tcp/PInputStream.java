@@ -21,6 +21,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
 
+/**
+ * Input stream that reassembles the frames written by {@link POutputStream},
+ * reading them from the sockets in the same round-robin order.
+ */
 public class PInputStream extends InputStream {
 
     private Conversion conversion = Conversion.loadConversion(false);
@@ -56,10 +60,15 @@ public class PInputStream extends InputStream {
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
-	if (leftOver == 0) {
-	    currentStream = (currentStream + 1) % streams.length;
+	if (len == 0) {
+	    return 0;
 	}
-	if (leftOver <= 0) {
+	// Skip to the next frame. The sender never sends empty frames, but
+	// don't return 0 if it does.
+	while (leftOver <= 0) {
+	    if (leftOver == 0) {
+		currentStream = (currentStream + 1) % streams.length;
+	    }
 	    int index = 0;
 	    while (index < 4) {
 		int rc = streams[currentStream].read(tmpInt, index, 4 - index);
@@ -82,11 +91,11 @@ public class PInputStream extends InputStream {
 
     @Override
     public int available() throws IOException {
-	int rc = 0;
-	for (InputStream in : streams) {
-	    rc += in.available();
+	// Only the data of the current frame can be read without blocking.
+	if (leftOver <= 0) {
+	    return 0;
 	}
-	return rc;
+	return Math.min(leftOver, streams[currentStream].available());
     }
 
     @Override
@@ -21,8 +21,18 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
 
+/**
+ * Output stream that stripes its data over a number of sockets. Each write is
+ * cut into frames of at most {@link #STRIPE_SIZE} bytes, and consecutive frames
+ * go to consecutive sockets, round-robin. A frame consists of a 4-byte length
+ * followed by the data. {@link PInputStream} reads the frames back in the same
+ * order.
+ */
 public class POutputStream extends OutputStream {
 
+    /** Maximum number of bytes sent in a single frame. */
+    static final int STRIPE_SIZE = 64 * 1024;
+
     private Conversion conversion = Conversion.loadConversion(false);
     private OutputStream[] streams;
     private int currentStream;
@@ -49,17 +59,24 @@ public class POutputStream extends OutputStream {
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-	conversion.int2byte(len, tmpInt, 0);
+	while (len > 0) {
+	    int size = Math.min(len, STRIPE_SIZE);
+	    conversion.int2byte(size, tmpInt, 0);
 
-	streams[currentStream].write(tmpInt);
-	streams[currentStream].write(b, off, len);
+	    streams[currentStream].write(tmpInt);
+	    streams[currentStream].write(b, off, size);
 
-	currentStream = (currentStream + 1) % streams.length;
+	    currentStream = (currentStream + 1) % streams.length;
+	    off += size;
+	    len -= size;
+	}
     }
 
     @Override
-    public void flush() {
-	// no flush needed
+    public void flush() throws IOException {
+	for (OutputStream o : streams) {
+	    o.flush();
+	}
     }
 
     @Override
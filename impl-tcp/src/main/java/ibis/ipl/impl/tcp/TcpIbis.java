@@ -56,8 +56,22 @@ public final class TcpIbis extends ibis.ipl.impl.Ibis implements Runnable,
     static final Logger logger = LoggerFactory
             .getLogger("ibis.ipl.impl.tcp.TcpIbis");
 
+    /**
+     * Property to let receive ports share a selector thread for their idle
+     * connections, instead of having a thread per connection.
+     */
+    static final String SELECTOR = "ibis.ipl.impl.tcp.selector";
+
+    /**
+     * Property to create all connections with a socket channel, so that
+     * direct byte buffers are sent and received without copying them.
+     */
+    static final String CHANNELS = "ibis.ipl.impl.tcp.channels";
+
     private IbisSocketFactory factory;
 
+    private ConnectionSelector selector;
+
     private IbisServerSocket systemServer;
 
     private IbisSocketAddress myAddress;
@@ -73,7 +87,9 @@ public final class TcpIbis extends ibis.ipl.impl.Ibis implements Runnable,
         super(registryEventHandler, capabilities, credentials, applicationTag,
                 types, userProperties, starter);
 
-        this.properties.checkProperties("ibis.ipl.impl.tcp.", new String[] {},
+        this.properties.checkProperties("ibis.ipl.impl.tcp.",
+                new String[] { TcpSendPort.PARALLEL_STREAMS, SELECTOR,
+                        CHANNELS },
                 null, true);
 
         factory.setIdent(ident);
@@ -87,6 +103,10 @@ public final class TcpIbis extends ibis.ipl.impl.Ibis implements Runnable,
 
         factory = new IbisSocketFactory(properties);
 
+        if (properties.getBooleanProperty(SELECTOR, false)) {
+            selector = new ConnectionSelector();
+        }
+
         systemServer = factory.createServerSocket(0, 50, true, null);
         myAddress = systemServer.getLocalSocketAddress();
 
@@ -138,8 +158,6 @@ public final class TcpIbis extends ibis.ipl.impl.Ibis implements Runnable,
             IbisSocket s = null;
             int result = -1;
 
-            sp.printManagementProperties(System.out);
-
             try {
                 s = factory.createClientSocket(idAddr, timeout, fillTimeout,
                         sp.managementProperties());
@@ -228,8 +246,15 @@ public final class TcpIbis extends ibis.ipl.impl.Ibis implements Runnable,
         } while (true);
     }
 
+    ConnectionSelector selector() {
+        return selector;
+    }
+
     @Override
     protected void quit() {
+        if (selector != null) {
+            selector.end();
+        }
         try {
             quiting = true;
             // Connect so that the TcpIbis thread wakes up.
@@ -31,6 +31,7 @@ import ibis.ipl.impl.SendPortIdentifier;
 import ibis.util.ThreadPool;
 
 import java.io.IOException;
+import java.nio.channels.SocketChannel;
 import java.util.Properties;
 
 class TcpReceivePort extends ReceivePort implements TcpProtocol {
@@ -40,11 +41,23 @@ class TcpReceivePort extends ReceivePort implements TcpProtocol {
 
         private final IbisSocket s;
 
+        // null if this connection cannot be parked in the selector
+        private final SocketChannel channel;
+
         ConnectionHandler(SendPortIdentifier origin, IbisSocket s,
                 ReceivePort port, BufferedArrayInputStream in)
                 throws IOException {
             super(origin, port, in);
             this.s = s;
+            if (selector != null && !lazy_connectionhandler_thread) {
+                channel = s.getChannel();
+            } else {
+                channel = null;
+            }
+        }
+
+        SocketChannel channel() {
+            return channel;
         }
 
         public void close(Throwable e) {
@@ -57,7 +70,9 @@ class TcpReceivePort extends ReceivePort implements TcpProtocol {
         }
 
         public void run() {
-            logger.info("Started connection handler thread");
+            if (logger.isDebugEnabled()) {
+                logger.debug("Started connection handler thread");
+            }
             try {
                 if (lazy_connectionhandler_thread) {
                     int interval = 10;
@@ -125,10 +140,28 @@ class TcpReceivePort extends ReceivePort implements TcpProtocol {
             // Moved here to prevent deadlocks and timeouts when using sun 
             // serialization -- Jason
             if (in == null) { 
+                if (fromHandlerThread && channel != null
+                        && dataIn.available() == 0) {
+                    // The stream starts with its byte order, which is only
+                    // sent with the first message.
+                    selector.park(this);
+                    return;
+                }
                 newStream();
             }
             
             while (in != null) {
+                if (fromHandlerThread && channel != null
+                        && in.available() == 0) {
+                    // Nothing to read yet, give up this thread until data
+                    // arrives.
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(name + ": handler for " + origin
+                                + " parks its connection");
+                    }
+                    selector.park(this);
+                    return;
+                }
                 if (logger.isDebugEnabled()) {
                     logger.debug(name + ": handler for " + origin + " woke up");
                 }
@@ -251,6 +284,9 @@ class TcpReceivePort extends ReceivePort implements TcpProtocol {
 
     private final boolean lazy_connectionhandler_thread;
 
+    // null if connections do not use a selector
+    private final ConnectionSelector selector;
+
     private boolean reader_busy = false;
 
     TcpReceivePort(Ibis ibis, PortType type, String name, MessageUpcall upcall,
@@ -262,6 +298,8 @@ class TcpReceivePort extends ReceivePort implements TcpProtocol {
                         type.hasCapability(PortType.CONNECTION_ONE_TO_MANY))
                 && !type.hasCapability(PortType.RECEIVE_POLL)
                 && !type.hasCapability(PortType.RECEIVE_TIMEOUT);
+
+        selector = ((TcpIbis) ibis).selector();
     }
 
     private ReadMessage getPortMessage() {
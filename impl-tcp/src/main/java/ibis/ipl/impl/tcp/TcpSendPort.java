@@ -19,6 +19,7 @@ package ibis.ipl.impl.tcp;
 
 import ibis.io.BufferedArrayOutputStream;
 import ibis.io.Conversion;
+import ibis.io.IOProperties;
 import ibis.io.OutputStreamSplitter;
 import ibis.io.SplitterException;
 import ibis.ipl.PortType;
@@ -36,6 +37,15 @@ import java.util.Properties;
 
 final class TcpSendPort extends SendPort implements TcpProtocol {
 
+    /**
+     * Management property holding the number of TCP streams used for each new
+     * connection of this port.
+     */
+    static final String N_PARALLEL_STREAMS = "nParallelStreams";
+
+    /** Port or Ibis property giving the initial number of parallel streams. */
+    static final String PARALLEL_STREAMS = "ibis.ipl.impl.tcp.parallelStreams";
+
     private class Conn extends SendPortConnectionInfo {
         IbisSocket s;
 
@@ -71,7 +81,11 @@ final class TcpSendPort extends SendPort implements TcpProtocol {
     TcpSendPort(Ibis ibis, PortType type, String name,
             SendPortDisconnectUpcall cU, Properties props) throws IOException {
         super(ibis, type, name, cU, props);
-        addValidKey("nParallelStreams");
+        addValidKey(N_PARALLEL_STREAMS);
+        String np = properties.getProperty(PARALLEL_STREAMS);
+        if (np != null) {
+            setProperty(N_PARALLEL_STREAMS, np);
+        }
 
         splitter =
                 new OutputStreamSplitter(
@@ -83,7 +97,8 @@ final class TcpSendPort extends SendPort implements TcpProtocol {
                                     PortType.CONNECTION_MANY_TO_MANY));
             
 
-        bufferedStream = new BufferedArrayOutputStream(splitter);
+        bufferedStream = new BufferedArrayOutputStream(splitter,
+                IOProperties.BUFFER_SIZE, asyncSend);
         initStream(bufferedStream);
     }
 
@@ -105,10 +120,15 @@ final class TcpSendPort extends SendPort implements TcpProtocol {
         IbisSocket s =
                 ((TcpIbis) ibis).connect(this, receiver, (int) timeoutMillis,
                         fillTimeout);
-        Conn c = new Conn(s, this, receiver);
         if (out != null) {
             out.writeByte(NEW_RECEIVER);
+            // Write this out before adding the new connection: the new
+            // receiver starts with the new stream, which starts with its
+            // byte order.
+            out.flush();
+            bufferedStream.sync(bufferedStream.send());
         }
+        Conn c = new Conn(s, this, receiver);
         initStream(bufferedStream);
         return c;
     }
@@ -125,6 +145,7 @@ final class TcpSendPort extends SendPort implements TcpProtocol {
         out.writeArray(receiverLength);
         out.writeArray(receiverBytes);
         out.flush();
+        bufferedStream.sync(bufferedStream.send());
         // FIXME!
         //
         // This is here to make sure the close is processed before a new 
@@ -27,8 +27,10 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -48,11 +50,29 @@ final class AlternativeTypeInfo {
     private static Logger logger = LoggerFactory
             .getLogger(AlternativeTypeInfo.class);
 
+    /** Names of the classes listed in {@link IOProperties#s_acyclic}. */
+    private static final Set<String> acyclicClasses = new HashSet<String>(
+            Arrays.asList(IOProperties.ACYCLIC_CLASSES));
+
+    /** Set if there are any acyclic classes at all. */
+    static final boolean ACYCLIC_TYPES = !acyclicClasses.isEmpty();
+
+    /** Set if strings are written without object handles. */
+    static final boolean ACYCLIC_STRINGS = acyclicClasses
+            .contains("java.lang.String");
+
     /**
-     * Maintains all <code>AlternativeTypeInfo</code> structures in a hashmap,
-     * to be accessed through their classname.
+     * Maintains all <code>AlternativeTypeInfo</code> structures, attached to
+     * their class. Lookups do not take a lock. When two threads create the
+     * structure for the same class at the same time, one of them is kept and
+     * returned to both.
      */
-    private static HashMap<Class<?>, AlternativeTypeInfo> alternativeTypes = new HashMap<Class<?>, AlternativeTypeInfo>();
+    private static final ClassValue<AlternativeTypeInfo> alternativeTypes = new ClassValue<AlternativeTypeInfo>() {
+        @Override
+        protected AlternativeTypeInfo computeValue(Class<?> type) {
+            return new AlternativeTypeInfo(type);
+        }
+    };
 
     private static class ArrayWriter extends IbisWriter {
         @Override
@@ -285,6 +305,12 @@ final class AlternativeTypeInfo {
 
     final IbisReader reader;
 
+    /**
+     * Runtime-generated code for reading and writing the fields, or
+     * <code>null</code> when reflection is to be used.
+     */
+    final GeneratedSerializer serializer;
+
     /**
      * For each field, indicates whether the field is final. This is significant
      * for deserialization, because it determines the way in which the field can
@@ -364,6 +390,12 @@ final class AlternativeTypeInfo {
     /** Set if the class represents a class. */
     boolean isClass;
 
+    /**
+     * Set if objects of the class are never shared and never part of a cycle,
+     * so that they can be written without an object handle.
+     */
+    final boolean acyclic;
+
     /** Helper class for this class, generated by IOGenerator. */
     Generator gen;
 
@@ -432,16 +464,8 @@ final class AlternativeTypeInfo {
      *            the <code>Class</code> of the requested type.
      * @return the <code>AlternativeTypeInfo</code> structure for this type.
      */
-    public static synchronized AlternativeTypeInfo getAlternativeTypeInfo(
-            Class<?> type) {
-        AlternativeTypeInfo t = alternativeTypes.get(type);
-
-        if (t == null) {
-            t = new AlternativeTypeInfo(type);
-            alternativeTypes.put(type, t);
-        }
-
-        return t;
+    public static AlternativeTypeInfo getAlternativeTypeInfo(Class<?> type) {
+        return alternativeTypes.get(type);
     }
 
     /**
@@ -452,7 +476,7 @@ final class AlternativeTypeInfo {
      *            the name of the requested type.
      * @return the <code>AlternativeTypeInfo</code> structure for this type.
      */
-    public static synchronized AlternativeTypeInfo getAlternativeTypeInfo(
+    public static AlternativeTypeInfo getAlternativeTypeInfo(
             String classname) throws ClassNotFoundException {
         Class<?> type = null;
 
@@ -575,6 +599,9 @@ final class AlternativeTypeInfo {
     private AlternativeTypeInfo(Class<?> clazz) {
 
         this.clazz = clazz;
+        acyclic = ACYCLIC_TYPES && !clazz.isArray() && clazz != Class.class
+                && acyclicClasses.contains(clazz.getName());
+
         if (SunJavaStuff.available) {
             javaDependantStuff = new SunJavaStuff(clazz);
         } else if (HarmonyJavaStuff.available) {
@@ -876,6 +903,12 @@ final class AlternativeTypeInfo {
 
         writer = createWriter();
         reader = createReader();
+
+        if (writer instanceof SerializableWriter) {
+            serializer = SerializerGenerator.generate(this);
+        } else {
+            serializer = null;
+        }
     }
 
     private IbisWriter createWriter() {
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ibis.util.ThreadPool;
+
+/**
+ * Writes buffers to an <code>OutputStream</code> from a separate thread, so
+ * that the producer of the buffers can continue filling the next one while
+ * the previous one drains. Buffers are written in the order in which they
+ * were handed over, and each hand-over is identified by a ticket, which can
+ * be waited for with {@link #sync(int)}.
+ *
+ * The sender thread is obtained from the {@link ThreadPool} when there is
+ * work, and is given back when the queue is empty, so a burst of buffers
+ * costs a single thread hand-off.
+ */
+final class BufferSender implements Runnable {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(BufferSender.class);
+
+    /** A buffer that is waiting to be written. */
+    private static final class Entry {
+        final byte[] buf;
+
+        final int len;
+
+        final boolean flush;
+
+        final int ticket;
+
+        Entry(byte[] buf, int len, boolean flush, int ticket) {
+            this.buf = buf;
+            this.len = len;
+            this.flush = flush;
+            this.ticket = ticket;
+        }
+    }
+
+    /** The underlying <code>OutputStream</code>. */
+    private final OutputStream out;
+
+    /** Size of the buffers handed out by {@link #getBuffer()}. */
+    private final int bufSize;
+
+    /** Maximum number of buffers queued for writing. */
+    private final int maxPending;
+
+    /** Buffers waiting to be written. */
+    private final LinkedList<Entry> pending = new LinkedList<Entry>();
+
+    /** Buffers that have been written and may be reused. */
+    private final LinkedList<byte[]> free = new LinkedList<byte[]>();
+
+    /** The ticket of the last buffer handed over. */
+    private int lastTicket = 0;
+
+    /** The ticket of the last buffer written. */
+    private int doneTicket = 0;
+
+    /** Set when a sender thread is active. */
+    private boolean running = false;
+
+    /** Exception caught by the sender thread, not yet delivered. */
+    private IOException exception = null;
+
+    BufferSender(OutputStream out, int bufSize, int maxPending) {
+        this.out = out;
+        this.bufSize = bufSize;
+        this.maxPending = maxPending < 1 ? 1 : maxPending;
+    }
+
+    /**
+     * Returns a buffer of the size specified at construction time, reusing a
+     * buffer that has already been written if there is one.
+     *
+     * @return the buffer.
+     */
+    synchronized byte[] getBuffer() {
+        if (free.isEmpty()) {
+            return new byte[bufSize];
+        }
+        return free.removeLast();
+    }
+
+    /**
+     * Queues the first <code>len</code> bytes of <code>buf</code> for writing.
+     * The caller may not touch the buffer afterwards; it is recycled through
+     * {@link #getBuffer()} once it has been written. Blocks when the maximum
+     * number of buffers is already queued.
+     *
+     * @param buf
+     *            the buffer.
+     * @param len
+     *            the number of bytes to write.
+     * @param flush
+     *            when set, the underlying stream is flushed after the write.
+     * @return the ticket of this write.
+     * @exception IOException
+     *                is thrown when an earlier write failed.
+     */
+    synchronized int send(byte[] buf, int len, boolean flush)
+            throws IOException {
+        while (pending.size() >= maxPending && exception == null) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // ignored
+            }
+        }
+        checkException();
+        lastTicket++;
+        pending.add(new Entry(buf, len, flush, lastTicket));
+        if (!running) {
+            running = true;
+            ThreadPool.createNew(this, "Buffer sender");
+        }
+        return lastTicket;
+    }
+
+    /**
+     * Returns the ticket of the last buffer handed over.
+     *
+     * @return the ticket.
+     */
+    synchronized int lastTicket() {
+        return lastTicket;
+    }
+
+    /**
+     * Blocks until the write identified by <code>ticket</code>, and all
+     * writes before it, have been done. If the ticket does not correspond to
+     * any write, blocks until all outstanding writes are done.
+     *
+     * @param ticket
+     *            the ticket.
+     * @exception IOException
+     *                is thrown when one of the writes failed.
+     */
+    synchronized void sync(int ticket) throws IOException {
+        if (ticket - lastTicket > 0) {
+            ticket = lastTicket;
+        }
+        while (doneTicket - ticket < 0) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                // ignored
+            }
+        }
+        checkException();
+    }
+
+    private void checkException() throws IOException {
+        if (exception != null) {
+            IOException e = exception;
+            exception = null;
+            throw e;
+        }
+    }
+
+    public void run() {
+        while (true) {
+            Entry e;
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    running = false;
+                    notifyAll();
+                    return;
+                }
+                e = pending.removeFirst();
+            }
+            IOException ex = null;
+            try {
+                if (e.len > 0) {
+                    out.write(e.buf, 0, e.len);
+                }
+                if (e.flush) {
+                    out.flush();
+                }
+            } catch (IOException x) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Asynchronous write failed", x);
+                }
+                ex = x;
+            }
+            synchronized (this) {
+                if (e.buf.length == bufSize && free.size() < maxPending) {
+                    free.add(e.buf);
+                }
+                doneTicket = e.ticket;
+                if (ex != null && exception == null) {
+                    exception = ex;
+                }
+                notifyAll();
+            }
+        }
+    }
+}
@@ -22,6 +22,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ReadOnlyBufferException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ScatteringByteChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +33,10 @@ import org.slf4j.LoggerFactory;
  * It is built on top of an <code>InputStream</code>.
  * There is no need to put any buffering inbetween. This implementation
  * does all the buffering needed.
+ *
+ * When the underlying <code>InputStream</code> is a
+ * {@link ReadableByteChannel} as well, direct byte buffers are filled from
+ * the channel as they are, instead of being copied through the buffer.
  */
 public final class BufferedArrayInputStream extends DataInputStream {
     
@@ -492,6 +498,13 @@ public final class BufferedArrayInputStream extends DataInputStream {
         return buffer[index++];
     }
 
+    public void readByteOrder() throws IOException {
+        boolean bigEndian = readBoolean();
+        if (conversion.bigEndian() != bigEndian) {
+            conversion = Conversion.loadConversion(bigEndian);
+        }
+    }
+
     public boolean readBoolean() throws IOException {
         fillBuffer(1);
         buffered_bytes--;
@@ -630,6 +643,10 @@ public final class BufferedArrayInputStream extends DataInputStream {
                     bytes += cnt;
                 } while (len > 0);
         	value.position(value.limit());
+            } else if (in instanceof ScatteringByteChannel) {
+                readScattering(value);
+            } else if (in instanceof ReadableByteChannel) {
+                readChannel(value);
             } else {
         	do {
         	    int toread = Math.min(len, BUF_SIZE);
@@ -647,4 +664,40 @@ public final class BufferedArrayInputStream extends DataInputStream {
             }
         }	
     }
+
+    /**
+     * Fills the specified byte buffer from the underlying channel. Data that
+     * arrives after it is read into the buffer of this stream, as much as
+     * fits, so that following reads can be served from there.
+     * Precondition: the buffer of this stream is empty.
+     */
+    private void readScattering(ByteBuffer value) throws IOException {
+        ByteBuffer rest = ByteBuffer.wrap(buffer);
+        ByteBuffer[] bufs = new ByteBuffer[] { value, rest };
+        ScatteringByteChannel channel = (ScatteringByteChannel) in;
+        while (value.hasRemaining()) {
+            long cnt = channel.read(bufs);
+            if (cnt < 0) {
+                throw new EOFException("EOF encountered");
+            }
+            bytes += cnt;
+        }
+        index = 0;
+        buffered_bytes = rest.position();
+    }
+
+    /**
+     * Fills the specified byte buffer from the underlying channel.
+     * Precondition: the buffer of this stream is empty.
+     */
+    private void readChannel(ByteBuffer value) throws IOException {
+        ReadableByteChannel channel = (ReadableByteChannel) in;
+        while (value.hasRemaining()) {
+            int cnt = channel.read(value);
+            if (cnt < 0) {
+                throw new EOFException("EOF encountered");
+            }
+            bytes += cnt;
+        }
+    }
 }
@@ -20,6 +20,8 @@ package ibis.io;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -29,6 +31,10 @@ import org.slf4j.LoggerFactory;
  * It is built on top of an <code>OutputStream</code>.
  * There is no need to put any buffering inbetween. This implementation
  * does all the buffering needed.
+ *
+ * When the underlying <code>OutputStream</code> is a
+ * {@link WritableByteChannel} as well, large direct byte buffers are written
+ * to the channel as they are, instead of being copied through the buffer.
  */
 public final class BufferedArrayOutputStream extends DataOutputStream {
     
@@ -54,15 +60,42 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
     /** Object used for conversion of primitive types to bytes. */
     private Conversion conversion;
 
+    /**
+     * Writes full buffers from a separate thread, or <code>null</code> when
+     * this stream writes synchronously.
+     */
+    private final BufferSender sender;
+
     /**
      * Constructor.
      * @param out	the underlying <code>OutputStream</code>
      * @param bufSize   the size of the output buffer in bytes
      */
     public BufferedArrayOutputStream(OutputStream out, int bufSize) {
+        this(out, bufSize, false);
+    }
+
+    /**
+     * Constructor.
+     * When <code>async</code> is set, full buffers and flushes are handed to
+     * a sender thread, and all data is copied into the buffers, so that the
+     * caller can continue while the data drains. Use {@link #send()} and
+     * {@link #sync(int)} to wait for the data to actually be written.
+     * @param out       the underlying <code>OutputStream</code>
+     * @param bufSize   the size of the output buffer in bytes
+     * @param async     whether writes to <code>out</code> are asynchronous
+     */
+    public BufferedArrayOutputStream(OutputStream out, int bufSize,
+            boolean async) {
         this.out = out;
         BUF_SIZE = bufSize;
-        buffer = new byte[BUF_SIZE];
+        if (async) {
+            sender = new BufferSender(out, BUF_SIZE, IOProperties.ASYNC_BUFFERS);
+            buffer = sender.getBuffer();
+        } else {
+            sender = null;
+            buffer = new byte[BUF_SIZE];
+        }
         conversion = Conversion.loadConversion(false);
     }
 
@@ -97,10 +130,52 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
         }
 
         if (index + incr > BUF_SIZE) {
-            bytes += index;
+            writeBuffer();
+        }
+    }
 
+    /**
+     * Writes the buffer to the underlying <code>OutputStream</code>, or hands
+     * it to the sender thread.
+     *
+     * @exception IOException	in case of trouble.
+     */
+    private void writeBuffer() throws IOException {
+        bytes += index;
+        if (sender != null) {
+            sender.send(buffer, index, false);
+            buffer = sender.getBuffer();
+        } else {
             out.write(buffer, 0, index);
-            index = 0;
+        }
+        index = 0;
+    }
+
+    /**
+     * Writes the specified bytes without buffering them. In asynchronous
+     * mode, the caller may modify the bytes as soon as this call returns, so
+     * they are copied into buffers instead.
+     *
+     * @param ref		the bytes to write
+     * @param off		offset in <code>ref</code>
+     * @param len		the number of bytes to write
+     * @exception IOException	in case of trouble.
+     */
+    private void writeDirect(byte[] ref, int off, int len) throws IOException {
+        if (sender == null) {
+            bytes += len;
+            out.write(ref, off, len);
+            return;
+        }
+        while (len > 0) {
+            int size = Math.min(BUF_SIZE - index, len);
+            System.arraycopy(ref, off, buffer, index, size);
+            index += size;
+            off += size;
+            len -= size;
+            if (index == BUF_SIZE) {
+                writeBuffer();
+            }
         }
     }
 
@@ -108,6 +183,13 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
         writeByte((byte) b);
     }
 
+    public void writeByteOrder() throws IOException {
+        if (conversion.bigEndian() != Conversion.NATIVE_BIG_ENDIAN) {
+            conversion = Conversion.loadConversion(Conversion.NATIVE_BIG_ENDIAN);
+        }
+        writeBoolean(conversion.bigEndian());
+    }
+
     public void writeBoolean(boolean value) throws IOException {
         byte b = conversion.boolean2byte(value);
         flush(1);
@@ -194,13 +276,10 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
         if (len > (BUF_SIZE - index)) {
 
             if (index > 0) {
-                bytes += index;
-                out.write(buffer, 0, index);
-                index = 0;
+                writeBuffer();
             }
             if (len >= BUF_SIZE) {
-                bytes += len;
-                out.write(ref, off, len);
+                writeDirect(ref, off, len);
             } else {
                 System.arraycopy(ref, off, buffer, 0, len);
                 index = len;
@@ -337,10 +416,33 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
     }
 
     public void flush() throws IOException {
+        if (sender != null) {
+            bytes += index;
+            sender.send(buffer, index, true);
+            buffer = sender.getBuffer();
+            index = 0;
+            return;
+        }
         flush(BUF_SIZE + 1); /* Forces flush */
         out.flush();
     }
 
+    public int send() throws IOException {
+        if (sender == null) {
+            return 0;
+        }
+        if (index > 0) {
+            flush();
+        }
+        return sender.lastTicket();
+    }
+
+    public void sync(int ticket) throws IOException {
+        if (sender != null) {
+            sender.sync(ticket);
+        }
+    }
+
     public void finish() {
         // empty
     }
@@ -351,6 +453,9 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
 
     public void close() throws IOException {
         flush();
+        if (sender != null) {
+            sender.sync(sender.lastTicket());
+        }
         out.close();
     }
     
@@ -368,21 +473,27 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
 	
         if (len > (BUF_SIZE - index)) {
 
+            if (len >= BUF_SIZE && !value.hasArray() && sender == null
+                    && out instanceof GatheringByteChannel) {
+                // write the buffered data and the byte buffer in one go
+                writeGathering(value, len);
+                return;
+            }
+
             if (index > 0) {
-                bytes += index;
-                out.write(buffer, 0, index);
-                index = 0;
+                writeBuffer();
             }
             
             if (len >= BUF_SIZE) {
                 if (value.hasArray()) {
-                    bytes += len;
-                    out.write(value.array(), value.position() + value.arrayOffset(), len);
+                    writeDirect(value.array(), value.position() + value.arrayOffset(), len);
+                } else if (out instanceof WritableByteChannel) {
+                    writeChannel(value, len);
                 } else {
                     while (len >= BUF_SIZE) {
-                	bytes += BUF_SIZE;
                 	value.get(buffer, 0, BUF_SIZE);
-                	out.write(buffer, 0, BUF_SIZE);
+                	index = BUF_SIZE;
+                	writeBuffer();
                 	len -= BUF_SIZE;
                     }
                     value.get(buffer, 0, len);
@@ -397,4 +508,35 @@ public final class BufferedArrayOutputStream extends DataOutputStream {
             index += len;
         }	
     }
+
+    /**
+     * Writes the buffered data, followed by the specified byte buffer, with a
+     * single gathering write on the underlying channel.
+     */
+    private void writeGathering(ByteBuffer value, int len) throws IOException {
+        ByteBuffer[] bufs = new ByteBuffer[] {
+                ByteBuffer.wrap(buffer, 0, index), value };
+        GatheringByteChannel channel = (GatheringByteChannel) out;
+        while (value.hasRemaining()) {
+            channel.write(bufs);
+        }
+        bytes += index + len;
+        index = 0;
+    }
+
+    /**
+     * Writes the specified byte buffer to the underlying channel, once the
+     * buffered data has been written. The buffer is completely written when
+     * this call returns, also in asynchronous mode.
+     */
+    private void writeChannel(ByteBuffer value, int len) throws IOException {
+        if (sender != null) {
+            sender.sync(sender.lastTicket());
+        }
+        WritableByteChannel channel = (WritableByteChannel) out;
+        while (value.hasRemaining()) {
+            channel.write(value);
+        }
+        bytes += len;
+    }
 }
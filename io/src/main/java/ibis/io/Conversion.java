@@ -23,6 +23,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteOrder;
 import java.util.Properties;
 
 public abstract class Conversion {
@@ -37,6 +38,10 @@ public abstract class Conversion {
 
     public static final Conversion defaultConversion;
 
+    /** Whether the native byte order of this machine is big-endian. */
+    public static final boolean NATIVE_BIG_ENDIAN = ByteOrder.nativeOrder()
+            == ByteOrder.BIG_ENDIAN;
+
     private static final Conversion simpleBig;
 
     private static final Conversion simpleLittle;
@@ -151,13 +156,32 @@ public abstract class Conversion {
             } catch (Exception e) {
                 // nio conversion loading failed
             }
-        } else if (conversion == null
+        } else if ("varhandle".equalsIgnoreCase(conversion)
+                || "view".equalsIgnoreCase(conversion)) {
+            // These need Java 9, and are only there when built with it.
+            String name = "varhandle".equalsIgnoreCase(conversion) ? "VarHandle"
+                    : "View";
+            try {
+                return loadConversion("ibis.io.nio." + name
+                        + (bigEndian ? "Big" : "Little") + "Conversion");
+            } catch (Throwable e) {
+                // VarHandles not available
+            }
+        } else if ("auto".equalsIgnoreCase(conversion)) {
+            // the fastest conversion for each type and size, as measured on
+            // this JVM. Also needs Java 9.
+            try {
+                return (Conversion) Class.forName(
+                        "ibis.io.nio.CalibratedConversion").getConstructor(
+                        Boolean.TYPE).newInstance(bigEndian);
+            } catch (Throwable e) {
+                // VarHandles not available
+            }
+        }
+
+        if (conversion == null || conversion.equalsIgnoreCase("auto")
                 || conversion.equalsIgnoreCase("hybrid")) {
             // default conversion
-            // if (conversion != null) {
-            // System.err.println("hybrid conversion selected");
-            // }
-
             try {
                 if (bigEndian) {
                     return new ibis.io.nio.HybridChunkBigConversion();
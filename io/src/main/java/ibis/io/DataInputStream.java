@@ -41,6 +41,16 @@ public abstract class DataInputStream extends java.io.InputStream
      */
     public abstract void resetBytesRead();
 
+    /**
+     * Reads the byte order announced by
+     * {@link DataOutputStream#writeByteOrder()}, and uses it for the
+     * primitives that follow. The default implementation reads nothing.
+     * @exception IOException is thrown on I/O error.
+     */
+    public void readByteOrder() throws IOException {
+        // Nothing to read: the byte order of this stream is fixed.
+    }
+
     /**
      * Reads a boolean value from the stream.
      * @return	The boolean read.
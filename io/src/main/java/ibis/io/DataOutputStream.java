@@ -59,6 +59,51 @@ public abstract class DataOutputStream extends OutputStream
         return true;
     }
 
+    /**
+     * Starts writing out all data flushed so far, without waiting for the
+     * write to complete, and returns a ticket that can be passed on to
+     * {@link #sync(int)}. The default implementation writes synchronously,
+     * so there is nothing to start.
+     * 
+     * @return a ticket.
+     * @throws IOException
+     *             on I/O error
+     */
+    public int send() throws IOException {
+        // Default implementation: flush() already wrote everything.
+        return 0;
+    }
+
+    /**
+     * Blocks until the data of the {@link #send()} that returned the
+     * specified ticket, and of all sends before it, has been written. If the
+     * ticket does not correspond to any send, blocks until all outstanding
+     * data has been written.
+     * 
+     * @param ticket
+     *            the ticket.
+     * @throws IOException
+     *             on I/O error
+     */
+    public void sync(int ticket) throws IOException {
+        // Default implementation does nothing.
+    }
+
+    /**
+     * Starts a new stream of data: announces the byte order used for the
+     * primitives that follow, so that the receiving side can pick it up with
+     * {@link DataInputStream#readByteOrder()}. Streams that support it switch
+     * to the native byte order of this machine, so that a receiver with the
+     * same byte order can copy primitive arrays instead of converting them.
+     * The default implementation writes nothing.
+     * 
+     * @throws IOException
+     *             on I/O error
+     */
+    public void writeByteOrder() throws IOException {
+        // Nothing to announce: the byte order of this stream is fixed.
+    }
+
     @Override
     public abstract void flush() throws IOException;
 
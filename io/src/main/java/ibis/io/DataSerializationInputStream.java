@@ -18,6 +18,7 @@
 package ibis.io;
 
 import java.io.IOException;
+import java.io.StreamCorruptedException;
 import java.io.UTFDataFormatException;
 import java.nio.ByteBuffer;
 
@@ -126,6 +127,15 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
     /** Number of arrays in current bunch. */
     private int max_array_index;
 
+    /**
+     * Set when ints and longs are read in the compact format, see
+     * {@link DataSerializationOutputStream#setCompact(boolean)}.
+     */
+    boolean compact = false;
+
+    /** Storage for the ints and longs of a bunch, in the compact format. */
+    private byte[] compact_buffer;
+
     private final int BYTE_BUFFER_SIZE;
 
     private final int CHAR_BUFFER_SIZE;
@@ -210,6 +220,17 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         return "data";
     }
 
+    /**
+     * Selects the compact format, which must also be used by the output
+     * stream, see {@link DataSerializationOutputStream#setCompact(boolean)}.
+     *
+     * @param compact
+     *            whether to use the compact format.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
     @Override
     public boolean readBoolean() throws IOException {
         boolean a;
@@ -314,7 +335,12 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
             timer.start();
         }
         if (NO_ARRAY_BUFFERS) {
-            a = in.readInt();
+            if (compact) {
+                int v = (int) readVarint();
+                a = (v >>> 1) ^ -(v & 1);
+            } else {
+                a = in.readInt();
+            }
         } else {
             while (int_index == max_int_index) {
                 receive();
@@ -339,7 +365,12 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
             timer.start();
         }
         if (NO_ARRAY_BUFFERS) {
-            a = in.readLong();
+            if (compact) {
+                long v = readVarint();
+                a = (v >>> 1) ^ -(v & 1);
+            } else {
+                a = in.readLong();
+            }
         } else {
             while (long_index == max_long_index) {
                 receive();
@@ -744,6 +775,81 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         double_buffer = new double[DOUBLE_BUFFER_SIZE];
     }
 
+    /**
+     * Reads an unsigned variable-length number directly from the underlying
+     * stream.
+     */
+    private long readVarint() throws IOException {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * Reads the header and the ints and longs of a bunch in the compact
+     * format, see {@link DataSerializationOutputStream}.
+     */
+    private void receiveCompact() throws IOException {
+        for (int i = Constants.BEGIN_TYPES; i < Constants.PRIMITIVE_TYPES; i++) {
+            indices_short[i] = (short) readVarint();
+        }
+        int len = (int) readVarint();
+
+        int ints = indices_short[Constants.TYPE_INT];
+        int longs = indices_short[Constants.TYPE_LONG];
+        if (len > ints * 5 + longs * 10) {
+            throw new StreamCorruptedException("compact data too large: "
+                    + len);
+        }
+        if (compact_buffer == null || compact_buffer.length < len) {
+            compact_buffer = new byte[Math.max(len, 256)];
+        }
+        if (len > 0) {
+            in.readArray(compact_buffer, 0, len);
+        }
+        if (ints > int_buffer.length) {
+            int_buffer = new int[ints];
+        }
+        if (longs > long_buffer.length) {
+            long_buffer = new long[longs];
+        }
+
+        byte[] b = compact_buffer;
+        int index = 0;
+        for (int i = 0; i < ints; i++) {
+            int v = 0;
+            int shift = 0;
+            byte x;
+            do {
+                x = b[index++];
+                v |= (x & 0x7f) << shift;
+                shift += 7;
+            } while (x < 0);
+            int_buffer[i] = (v >>> 1) ^ -(v & 1);
+        }
+        for (int i = 0; i < longs; i++) {
+            long v = 0;
+            int shift = 0;
+            byte x;
+            do {
+                x = b[index++];
+                v |= (long) (x & 0x7f) << shift;
+                shift += 7;
+            } while (x < 0);
+            long_buffer[i] = (v >>> 1) ^ -(v & 1);
+        }
+        if (index != len) {
+            throw new StreamCorruptedException("compact data corrupted: read "
+                    + index + " of " + len + " bytes");
+        }
+    }
+
     /**
      * Receive a new bunch of data.
      *
@@ -784,8 +890,12 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
             timer.suspend();
         }
 
-        in.readArray(indices_short, Constants.BEGIN_TYPES,
-                Constants.PRIMITIVE_TYPES - Constants.BEGIN_TYPES);
+        if (compact) {
+            receiveCompact();
+        } else {
+            in.readArray(indices_short, Constants.BEGIN_TYPES,
+                    Constants.PRIMITIVE_TYPES - Constants.BEGIN_TYPES);
+        }
 
         array_index = 0;
         byte_index = 0;
@@ -834,13 +944,13 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
             }
             in.readArray(short_buffer, 0, max_short_index);
         }
-        if (max_int_index > 0) {
+        if (max_int_index > 0 && !compact) {
             if (max_int_index > int_buffer.length) {
                 int_buffer = new int[max_int_index];
             }
             in.readArray(int_buffer, 0, max_int_index);
         }
-        if (max_long_index > 0) {
+        if (max_long_index > 0 && !compact) {
             if (max_long_index > long_buffer.length) {
                 long_buffer = new long[max_long_index];
             }
@@ -987,6 +1097,7 @@ public class DataSerializationInputStream extends ByteSerializationInputStream {
         long_buffer = null;
         float_buffer = null;
         double_buffer = null;
+        compact_buffer = null;
         super.close();
     }
 }
@@ -141,6 +141,18 @@ public class DataSerializationOutputStream
     /** For each. */
     private boolean[] touched = new boolean[Constants.PRIMITIVE_TYPES];
 
+    /**
+     * Set when ints and longs are written in the compact format, see
+     * {@link #setCompact(boolean)}.
+     */
+    boolean compact = false;
+
+    /** Storage for the header of a bunch, in the compact format. */
+    private byte[] compact_header;
+
+    /** Storage for the ints and longs of a bunch, in the compact format. */
+    private byte[] compact_buffer;
+
     /** Timer. */
     final SerializationTimer timer;
 
@@ -213,6 +225,22 @@ public class DataSerializationOutputStream
         return "data";
     }
 
+    /**
+     * Selects the compact format, in which ints and longs, and thereby also
+     * lengths and object handles, are written as variable-length zigzag
+     * encoded numbers: small values, positive or negative, take only one or
+     * two bytes. Arrays of more than {@link IOProperties#SMALL_ARRAY_BOUND}
+     * elements are still written as they are. This saves bandwidth at the
+     * cost of some CPU time. The input stream must use the same format, and
+     * the format must be selected before anything is written.
+     *
+     * @param compact
+     *            whether to use the compact format.
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
     @Override
     public void statistics() {
         // No statistics
@@ -821,7 +849,11 @@ public class DataSerializationOutputStream
             timer.start();
         }
         if (NO_ARRAY_BUFFERS) {
-            out.writeInt(value);
+            if (compact) {
+                writeVarint(((value << 1) ^ (value >> 31)) & 0xffffffffL);
+            } else {
+                out.writeInt(value);
+            }
         } else {
             if (int_index == int_buffer.length) {
                 internalFlush();
@@ -851,7 +883,11 @@ public class DataSerializationOutputStream
             timer.start();
         }
         if (NO_ARRAY_BUFFERS) {
-            out.writeLong(value);
+            if (compact) {
+                writeVarint((value << 1) ^ (value >> 63));
+            } else {
+                out.writeLong(value);
+            }
         } else {
             if (long_index == long_buffer.length) {
                 internalFlush();
@@ -1026,6 +1062,71 @@ public class DataSerializationOutputStream
         double_index = 0;
     }
 
+    /**
+     * Writes an unsigned variable-length number directly to the underlying
+     * stream: seven bits per byte, least significant first, with the high bit
+     * set in all but the last byte.
+     */
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((byte) (value | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((byte) value);
+    }
+
+    /**
+     * Stores an unsigned variable-length number in the specified buffer.
+     *
+     * @return the index following the number.
+     */
+    private static int putVarint(byte[] b, int index, long value) {
+        while ((value & ~0x7fL) != 0) {
+            b[index++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        b[index++] = (byte) value;
+        return index;
+    }
+
+    /**
+     * Writes the header and the ints and longs of a bunch in the compact
+     * format. The header consists of the counts, followed by the number of
+     * bytes taken by the ints and longs.
+     */
+    private void flushCompactBuffers() throws IOException {
+        int size = int_index * 5 + long_index * 10;
+        if (compact_buffer == null || compact_buffer.length < size) {
+            compact_buffer = new byte[Math.max(size, 256)];
+        }
+        if (compact_header == null) {
+            compact_header = new byte[(Constants.PRIMITIVE_TYPES
+                    - Constants.BEGIN_TYPES + 1) * 5];
+        }
+
+        int len = 0;
+        for (int i = 0; i < int_index; i++) {
+            int v = int_buffer[i];
+            len = putVarint(compact_buffer, len,
+                    ((v << 1) ^ (v >> 31)) & 0xffffffffL);
+        }
+        for (int i = 0; i < long_index; i++) {
+            long v = long_buffer[i];
+            len = putVarint(compact_buffer, len, (v << 1) ^ (v >> 63));
+        }
+
+        int h = 0;
+        for (int i = Constants.BEGIN_TYPES; i < Constants.PRIMITIVE_TYPES; i++) {
+            h = putVarint(compact_header, h, indices_short[i]);
+        }
+        h = putVarint(compact_header, h, len);
+
+        out.writeArray(compact_header, 0, h);
+        if (len > 0) {
+            out.writeArray(compact_buffer, 0, len);
+        }
+    }
+
     /**
      * Flush the primitive arrays.
      *
@@ -1053,8 +1154,12 @@ public class DataSerializationOutputStream
             logger.debug("writing doubles " + double_index);
         }
 
-        out.writeArray(indices_short, Constants.BEGIN_TYPES,
-                Constants.PRIMITIVE_TYPES - Constants.BEGIN_TYPES);
+        if (compact) {
+            flushCompactBuffers();
+        } else {
+            out.writeArray(indices_short, Constants.BEGIN_TYPES,
+                    Constants.PRIMITIVE_TYPES - Constants.BEGIN_TYPES);
+        }
 
         if (byte_index > 0) {
             out.writeArray(byte_buffer, 0, byte_index);
@@ -1069,11 +1174,15 @@ public class DataSerializationOutputStream
             touched[Constants.TYPE_SHORT] = true;
         }
         if (int_index > 0) {
-            out.writeArray(int_buffer, 0, int_index);
+            if (!compact) {
+                out.writeArray(int_buffer, 0, int_index);
+            }
             touched[Constants.TYPE_INT] = true;
         }
         if (long_index > 0) {
-            out.writeArray(long_buffer, 0, long_index);
+            if (!compact) {
+                out.writeArray(long_buffer, 0, long_index);
+            }
             touched[Constants.TYPE_LONG] = true;
         }
         if (float_index > 0) {
@@ -1199,6 +1308,8 @@ public class DataSerializationOutputStream
         long_buffer = null;
         float_buffer = null;
         double_buffer = null;
+        compact_header = null;
+        compact_buffer = null;
         array = null;
     }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import java.io.IOException;
+
+/**
+ * Superclass of the field serializers that are generated at runtime for
+ * classes that are not rewritten. A generated serializer reads and writes the
+ * serializable fields declared by a single class, in the same order as the
+ * reflection-based code in {@link IbisSerializationOutputStream} does.
+ *
+ * This class is public because the generated classes live in the package of
+ * the class they serialize. It is not meant to be used by applications.
+ */
+public abstract class GeneratedSerializer {
+
+    protected GeneratedSerializer() {
+        // nothing
+    }
+
+    /**
+     * Writes the serializable fields of <code>ref</code>.
+     *
+     * @param out
+     *            the stream to write to.
+     * @param ref
+     *            the object whose fields are to be written.
+     * @exception IOException
+     *                when an IO error occurs.
+     */
+    public abstract void writeFields(IbisSerializationOutputStream out,
+            Object ref) throws IOException;
+
+    /**
+     * Reads the serializable fields of <code>ref</code>.
+     *
+     * @param in
+     *            the stream to read from.
+     * @param ref
+     *            the object whose fields are to be read.
+     * @exception IOException
+     *                when an IO error occurs.
+     * @exception ClassNotFoundException
+     *                when the class of a field value cannot be found.
+     */
+    public abstract void readFields(IbisSerializationInputStream in, Object ref)
+            throws IOException, ClassNotFoundException;
+
+    /**
+     * Writes the value of a reference field.
+     */
+    protected static void writeReference(IbisSerializationOutputStream out,
+            Object value) throws IOException {
+        out.doWriteObject(value);
+    }
+
+    /**
+     * Reads the value of a reference field.
+     */
+    protected static Object readReference(IbisSerializationInputStream in)
+            throws IOException, ClassNotFoundException {
+        return in.doReadObject(false);
+    }
+}
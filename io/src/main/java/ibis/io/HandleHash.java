@@ -19,9 +19,20 @@ package ibis.io;
 
 import ibis.util.Timer;
 
+import java.util.Arrays;
+
 /**
  * A hash table that aims for speed for pairs (Object, int). This one is
- * specially made for (object, handle) pairs.
+ * specially made for (object, handle) pairs, with objects compared by
+ * identity.
+ *
+ * The table uses open addressing with linear probing, so that a lookup
+ * mostly touches a single cache line of each array. Each slot carries the
+ * generation in which it was filled, and only slots of the current generation
+ * are in use, so {@link #clear()} only has to start a new generation, and
+ * drop the references to the objects in the slots that were filled, so that
+ * they do not stay alive. Tables that have become much larger than needed
+ * are shrunk back to their initial size.
  */
 public final class HandleHash {
 
@@ -33,28 +44,29 @@ public final class HandleHash {
 
     private static final int MIN_BUCKETS = 32;
 
-    private static final boolean CACHE_HASH = false;
-
     /*
-     * Choose this value between 50 and 200.
-     * It determines the amount of chaining
-     * before the hashmap is resized. Lower value means less chaining, but
-     * larger hashtable.
+     * The fill-percentage before the table is doubled, between 25 and 75.
+     * Lower value means shorter probe sequences, but larger hashtable.
      */
-    private static final int RESIZE_PERCENTAGE = IOProperties.properties.getIntProperty(
-            IOProperties.s_hash_resize, 100);
+    private static final int RESIZE_PERCENTAGE = Math.max(25, Math.min(75,
+            IOProperties.properties.getIntProperty(IOProperties.s_hash_resize,
+                    50)));
 
-    /** Maps handle to object. */
-    private Object[] dataBucket;
+    /** The objects. */
+    private Object[] keys;
 
-    /** Maps handle to hashcode. */
-    private int[] hashBucket;   // if (CACHE_HASH)
+    /**
+     * For each slot, the generation in which it was filled in the upper 32
+     * bits, and the handle of the object in the lower 32 bits, so that a
+     * probe needs only one load to check both.
+     */
+    private long[] entries;
 
-    /** Maps handle to next with same hash value. */
-    private int[] nextBucket;
+    /** The current generation, never 0. */
+    private int generation;
 
-    /** Maps hash value to handle. */
-    private int[] map;
+    /** The slots filled in the current generation, in order. */
+    private int[] slots;
 
     // if (STATS)
     private long finds;
@@ -63,12 +75,10 @@ public final class HandleHash {
 
     private long collisions;
 
-    private long rebuild_collisions;
+    private long clears;
 
     private int maxsize;
 
-    private int mapsize;
-
     // if (TIMINGS)
     private Timer t_insert;
 
@@ -76,17 +86,12 @@ public final class HandleHash {
 
     private Timer t_rebuild;
 
-    private Timer t_growbucket;
-
-    /** Initial size of buckets. */
+    /** Initial size of the table. */
     private int initSize;
 
     /** When to grow ... */
     private int sizeThreshold;
 
-    /** maximum handle+1 */
-    private int size;
-
     /** Number of entries. */
     private int present;
 
@@ -108,7 +113,6 @@ public final class HandleHash {
 
         initSize = sz;
         maxsize = initSize;
-        mapsize = initSize;
 
         init(sz);
 
@@ -116,7 +120,6 @@ public final class HandleHash {
             t_insert = Timer.createTimer();
             t_find = Timer.createTimer();
             t_rebuild = Timer.createTimer();
-            t_growbucket = Timer.createTimer();
         }
         if (STATS || TIMINGS) {
             Runtime.getRuntime().addShutdownHook(
@@ -131,21 +134,19 @@ public final class HandleHash {
     private void init(int sz) {
         sizeThreshold = (sz * RESIZE_PERCENTAGE) / 100;
 
-        map = new int[sz];
-        nextBucket = new int[sz];
-        if (CACHE_HASH) {
-            hashBucket = new int[sz];
-        }
-        dataBucket = new Object[sz];
-        size = 1;
+        keys = new Object[sz];
+        entries = new long[sz];
+        slots = new int[sizeThreshold + 1];
+        generation = 1;
         present = 0;
     }
 
-    /**
-     * We know size is a power of two. Make mod cheap.
-     */
-    private static final int mod(int x, int size) {
-        return (x & (size - 1));
+    private boolean inUse(long entry) {
+        return (int) (entry >>> 32) == generation;
+    }
+
+    private long entry(int handle) {
+        return ((long) generation << 32) | (handle & 0xffffffffL);
     }
 
     static final int getHashCode(Object ref) {
@@ -172,14 +173,16 @@ public final class HandleHash {
             finds++;
         }
 
-        int h = mod(hashcode, map.length);
-        for (int i = map[h]; i > 0; i = nextBucket[i]) {
-            if (dataBucket[i] == ref) {
+        int mask = keys.length - 1;
+        long e;
+        for (int i = hashcode & mask;
+                (int) ((e = entries[i]) >>> 32) == generation;
+                i = (i + 1) & mask) {
+            if (keys[i] == ref) {
                 if (TIMINGS) {
                     t_find.stop();
                 }
-                
-                return i;
+                return (int) e;
             }
         }
 
@@ -190,39 +193,38 @@ public final class HandleHash {
     }
 
     /**
-     * Rebuild if fill factor is too high.
+     * Doubles the table when the fill factor is too high.
      */
     private final void growMap() {
 
-        long saved_collisions = collisions;
-
         if (TIMINGS) {
             t_rebuild.start();
         }
-        map = new int[(map.length << 1)];
-        if (map.length > mapsize) {
-            mapsize = map.length;
+
+        Object[] oldKeys = keys;
+        long[] oldEntries = entries;
+        int sz = oldKeys.length << 1;
+        int mask = sz - 1;
+
+        keys = new Object[sz];
+        entries = new long[sz];
+        sizeThreshold = (sz * RESIZE_PERCENTAGE) / 100;
+        if (sz > maxsize) {
+            maxsize = sz;
         }
-        sizeThreshold = (map.length * RESIZE_PERCENTAGE) / 100;
-
-        for (int i = 0; i < size; i++) {
-            if (dataBucket[i] != null) {
-                int h;
-                if (CACHE_HASH) {
-                    h = hashBucket[i];
-                } else {
-                    h = getHashCode(dataBucket[i]);
-                }
-                h = mod(h, map.length);
 
-                if (STATS) {
-                    if (map[h] != 0) {
-                        collisions++;
-                    }
-                }
-                nextBucket[i] = map[h];
-                map[h] = i;
+        int[] oldSlots = slots;
+        slots = new int[sizeThreshold + 1];
+
+        for (int k = 0; k < present; k++) {
+            int j = oldSlots[k];
+            int i = getHashCode(oldKeys[j]) & mask;
+            while (inUse(entries[i])) {
+                i = (i + 1) & mask;
             }
+            keys[i] = oldKeys[j];
+            entries[i] = oldEntries[j];
+            slots[k] = i;
         }
 
         if (TIMINGS) {
@@ -230,35 +232,10 @@ public final class HandleHash {
         }
 
         if (STATS) {
-            rebuild_collisions += collisions - saved_collisions;
             rebuilds++;
         }
     }
 
-    private void growBuckets(int sz) {
-        if (TIMINGS) {
-            t_growbucket.start();
-        }
-        int newsize = (sz << 1) + 1;
-        if (newsize > maxsize) {
-            maxsize = newsize;
-        }
-        int[] newNextBucket = new int[newsize];
-        System.arraycopy(nextBucket, 0, newNextBucket, 0, sz);
-        nextBucket = newNextBucket;
-        Object[] newDataBucket = new Object[newsize];
-        System.arraycopy(dataBucket, 0, newDataBucket, 0, sz);
-        dataBucket = newDataBucket;
-        if (CACHE_HASH) {
-            int[] newHashBucket = new int[newsize];
-            System.arraycopy(hashBucket, 0, newHashBucket, 0, sz);
-            hashBucket = newHashBucket;
-        }
-        if (TIMINGS) {
-            t_growbucket.stop();
-        }
-    }
-
     /**
      * Insert (ref, handle) into the hash table.
      * 
@@ -277,33 +254,25 @@ public final class HandleHash {
             growMap();
         }
 
-        if (handle >= dataBucket.length) {
-            growBuckets(handle);
-        }
-
         if (TIMINGS) {
             t_insert.start();
         }
 
-        int h = mod(hashcode, map.length);
-        dataBucket[handle] = ref;
-        if (CACHE_HASH) {
-            hashBucket[handle] = hashcode;
-        }
-        if (STATS) {
-            if (map[h] != 0) {
+        int mask = keys.length - 1;
+        int i = hashcode & mask;
+        while (inUse(entries[i])) {
+            if (STATS) {
                 collisions++;
             }
+            i = (i + 1) & mask;
         }
-        nextBucket[handle] = map[h];
-        map[h] = handle;
+        keys[i] = ref;
+        entries[i] = entry(handle);
+        slots[present++] = i;
+
         if (TIMINGS) {
             t_insert.stop();
         }
-        present++;
-        if (handle >= size) {
-            size = handle + 1;
-        }
         return handle;
     }
 
@@ -321,12 +290,32 @@ public final class HandleHash {
      * @return the handle found.
      */
     public final int lazyPut(Object ref, int handle, int hashcode) {
-        int f = find(ref, hashcode);
-        if (f != 0) {
-            return f;
+        if (present >= sizeThreshold) {
+            growMap();
         }
 
-        return put(ref, handle, hashcode);
+        if (STATS) {
+            finds++;
+        }
+
+        // A single probe sequence: the object is either found, or
+        // inserted in the free slot at the end of it.
+        int mask = keys.length - 1;
+        int i = hashcode & mask;
+        long e;
+        while ((int) ((e = entries[i]) >>> 32) == generation) {
+            if (keys[i] == ref) {
+                return (int) e;
+            }
+            if (STATS) {
+                collisions++;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = ref;
+        entries[i] = entry(handle);
+        slots[present++] = i;
+        return handle;
     }
 
     public final int put(Object ref, int handle) {
@@ -339,25 +328,26 @@ public final class HandleHash {
 
     public final void clear() {
 
-        // Check if the table has grown. If not, we
-        // can reuse the existing arrays.
-
         if (present != 0) {
-            if (size < initSize) {
-
-                for (int i = 0; i < map.length; i++) {
-                    map[i] = 0;
-                }
-
-                for (int i = 0; i < size; i++) {
-                    nextBucket[i] = 0;
-                    dataBucket[i] = null;
-                }
-
-                size = 1;
-                present = 0;
-            } else {
+            if (STATS) {
+                clears++;
+            }
+            if (keys.length > initSize && present < sizeThreshold / 4) {
+                // Much larger than needed now, start small again.
                 init(initSize);
+                return;
+            }
+            // Keep the table for the next message, but do not keep
+            // the objects alive.
+            for (int k = 0; k < present; k++) {
+                keys[slots[k]] = null;
+            }
+            present = 0;
+            generation++;
+            if (generation == 0) {
+                // Wrapped around, the stamps cannot be trusted anymore.
+                Arrays.fill(entries, 0);
+                generation = 1;
             }
         }
     }
@@ -368,11 +358,9 @@ public final class HandleHash {
 
     final void statistics() {
         if (STATS) {
-            System.err.println(this + ": " +
-            // "buckets = " + size +
-                    " mapsize " + mapsize + " maxsize " + maxsize + " finds "
-                    + finds + " rebuilds " + rebuilds + " collisions "
-                    + collisions + " (rebuild " + rebuild_collisions + ")");
+            System.err.println(this + ": " + " maxsize " + maxsize
+                    + " finds " + finds + " rebuilds " + rebuilds
+                    + " collisions " + collisions + " clears " + clears);
         }
         if (TIMINGS) {
             System.err.println(this +
@@ -381,9 +369,7 @@ public final class HandleHash {
                     + " find(" + t_find.nrTimes() + ") "
                     + Timer.format(t_find.totalTimeVal())
                     + " rebuild(" + t_rebuild.nrTimes() + ") "
-                    + Timer.format(t_rebuild.totalTimeVal())
-                    + " growBucket(" + t_growbucket.nrTimes() + ") "
-                    + Timer.format(t_growbucket.totalTimeVal()));
+                    + Timer.format(t_rebuild.totalTimeVal()));
         }
     }
 }
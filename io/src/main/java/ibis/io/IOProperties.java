@@ -53,6 +53,8 @@ public final class IOProperties {
 
     static final String s_classloader = PREFIX + "serialization.classloader";
 
+    static final String s_acyclic = PREFIX + "serialization.acyclic";
+
     static final String s_timer_data = PREFIX + "serialization.timer.data";
 
     static final String s_timer_ibis = PREFIX + "serialization.timer.ibis";
@@ -69,6 +71,13 @@ public final class IOProperties {
 
     static final String s_array_buffer = PREFIX + "array.buffer";
 
+    static final String s_async_buffers = PREFIX + "async.buffers";
+
+    static final String s_splitter_window = PREFIX + "splitter.window";
+
+    static final String s_generate_serializers = PREFIX
+            + "serializers.generate";
+
     static final String s_debug = PREFIX + "debug";
 
     static final String s_asserts = PREFIX + "assert";
@@ -96,6 +105,11 @@ public final class IOProperties {
             { s_classloader, null,
                     "String: the name of a classloader to be used when a class "
                             + "cannot be found" },
+            { s_acyclic, null,
+                    "String: comma-separated list of classes of which the "
+                            + "objects are never shared and never part of a "
+                            + "cycle; Ibis serialization writes these without "
+                            + "object handles. Must be the same on all sides" },
             { s_timer_data, "false",
                     "Boolean: if true, enables data serialization timers" },
             { s_timer_ibis, "false",
@@ -104,7 +118,11 @@ public final class IOProperties {
                     "Boolean: if true, leaves all buffering of Ibis serialization "
                             + "to the layers below it" },
             { s_conversion, "hybrid",
-                    "String: determines the conversion used" },
+                    "String: determines the conversion used: hybrid, "
+                            + "hybridwrap, chunk, wrap, varhandle, view or "
+                            + "auto. auto picks the fastest conversion for "
+                            + "each type and array size after a calibration. "
+                            + "varhandle, view and auto need Java 9" },
             { s_buffer_size, "8192",
                     "Integer: determines the size of the buffers used in Ibis "
                             + "serialization" },
@@ -116,6 +134,16 @@ public final class IOProperties {
                             + "used in Ibis serialization" },
             { s_array_buffer, "32",
                     "Integer: determines the size of the buffer for arrays" },
+            { s_async_buffers, "4",
+                    "Integer: determines the maximum number of buffers in "
+                            + "flight when buffered output is asynchronous" },
+            { s_splitter_window, "8",
+                    "Integer: determines the number of buffers a destination of "
+                            + "a one-to-many output stream splitter may lag behind" },
+            { s_generate_serializers, "true",
+                    "Boolean: if true, Ibis serialization generates code at "
+                            + "runtime to access the fields of classes that "
+                            + "are not rewritten, instead of using reflection" },
             { s_debug, "false", "Boolean: if true, enables log4j calls" },
             { s_asserts, "false", "Boolean: if true, enables some assertions" },
             { s_small_array_bound, "256",
@@ -128,10 +156,10 @@ public final class IOProperties {
                     "Boolean: if true, enables statistics in the ibis hash" },
             { s_hash_timings, "false",
                     "Boolean: if true, enables various timers in the ibis hash" },
-            { s_hash_resize, "100",
-                    "Integer: determines the fill-percentage before the ibis hash "
-                            + " is resized; choose between 50 and 200; larger values "
-                            + " mean more chaining but a smaller hash size" },
+            { s_hash_resize, "50",
+                    "Integer: determines the fill-percentage before the handle hash "
+                            + " is resized; choose between 25 and 75; larger values "
+                            + " mean longer probe sequences but a smaller hash size" },
             { s_serialization_default, "ibis",
                     "String: either \"ibis\" or \"sun\", determines the default object serialization" },
             { s_deepcopy_ser, "ibis",
@@ -161,9 +189,21 @@ public final class IOProperties {
     public static final int ARRAY_BUFFER_SIZE = properties
             .getIntProperty(s_array_buffer, 32);
 
+    public static final int ASYNC_BUFFERS = properties
+            .getIntProperty(s_async_buffers, 4);
+
+    public static final int SPLITTER_WINDOW = properties
+            .getIntProperty(s_splitter_window, 8);
+
+    public static final boolean GENERATE_SERIALIZERS = properties
+            .getBooleanProperty(s_generate_serializers, true);
+
     public static final int CONVERSION_BUFFER_SIZE = properties
             .getIntProperty(s_conversion_buf_size, 32 * 1024);
 
+    public static final String[] ACYCLIC_CLASSES = properties
+            .getStringList(s_acyclic);
+
     /**
      * Returns the hard-coded Ibis IO properties.
      *
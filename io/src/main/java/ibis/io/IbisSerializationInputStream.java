@@ -26,6 +26,7 @@ import java.io.ObjectStreamClass;
 import java.io.StreamCorruptedException;
 import java.lang.reflect.Field;
 import java.nio.ByteBuffer;
+import java.util.HashMap;
 import java.util.Hashtable;
 
 import org.slf4j.Logger;
@@ -84,12 +85,25 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
     /** Handle to invalidate. */
     private int unshared_handle = 0;
 
+    /**
+     * Set when the object that is being read is of an acyclic class, so that
+     * it does not get a handle.
+     */
+    private boolean acyclicPending = false;
+
     /** First free type index. */
     private int next_type = 1;
 
     /** List of types seen sofar. */
     private IbisVector types;
 
+    /**
+     * Types seen sofar, by name. Unlike the type table, this cache survives a
+     * clear, so that a type that is sent again does not have to be looked up
+     * again.
+     */
+    private HashMap<String, AlternativeTypeInfo> typeCache = new HashMap<String, AlternativeTypeInfo>();
+
     /**
      * There is a notion of a "current" object. This is needed when a
      * user-defined <code>readObject</code> refers to
@@ -202,6 +216,7 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
         objects.clear();
         objects = null;
         types = null;
+        typeCache = null;
         current_object = null;
         object_stack = null;
         level_stack = null;
@@ -641,7 +656,7 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
      * @return the handle read.
      */
     private final int readHandle() throws IOException {
-        int handle = readInt();
+        int handle = readHandleValue();
 
         /*
          * this replaces the checks for the reset handle everywhere else. --N
@@ -652,13 +667,13 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
                     logger.debug("received a RESET");
                 }
                 do_reset(false);
-                handle = readInt();
+                handle = readHandleValue();
             } else if (handle == Constants.CLEAR_HANDLE) {
                 if (DEBUG && logger.isDebugEnabled()) {
                     logger.debug("received a CLEAR");
                 }
                 do_reset(true);
-                handle = readInt();
+                handle = readHandleValue();
             } else {
                 break;
             }
@@ -671,6 +686,18 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
         return handle;
     }
 
+    /**
+     * Reads a handle as an int, undoing the mapping of type numbers in the
+     * compact format.
+     */
+    private int readHandleValue() throws IOException {
+        int v = readInt();
+        if (compact) {
+            v ^= (v >> 31) & Constants.TYPE_MASK;
+        }
+        return v;
+    }
+
     /**
      * Reads a <code>Class</code> object from the stream and tries to load it.
      *
@@ -762,6 +789,10 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
      *            the object to be added
      */
     public void addObjectToCycleCheck(Object o) {
+        if (acyclicPending) {
+            acyclicPending = false;
+            return;
+        }
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("addObjectToCycleCheck: handle = " + next_handle);
         }
@@ -821,7 +852,9 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
         }
 
         handle_or_type &= Constants.TYPE_MASK;
-        if (handle_or_type >= next_type) {
+        if (AlternativeTypeInfo.ACYCLIC_TYPES) {
+            acyclicPending = readType(handle_or_type).acyclic;
+        } else if (handle_or_type >= next_type) {
             readType(handle_or_type);
         }
         if (DEBUG && logger.isDebugEnabled()) {
@@ -925,10 +958,12 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
                     + " type " + typeName);
         }
 
-        Class<?> clazz = JavaDependantStuff.getClassFromName(typeName);
-
-        AlternativeTypeInfo t = AlternativeTypeInfo
-                .getAlternativeTypeInfo(clazz);
+        AlternativeTypeInfo t = typeCache.get(typeName);
+        if (t == null) {
+            Class<?> clazz = JavaDependantStuff.getClassFromName(typeName);
+            t = AlternativeTypeInfo.getAlternativeTypeInfo(clazz);
+            typeCache.put(typeName, t);
+        }
 
         types.add(next_type, t);
         next_type++;
@@ -1236,6 +1271,10 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
             logger.debug("alternativeDefaultReadObject, class = "
                     + t.clazz.getName());
         }
+        if (t.serializer != null) {
+            t.serializer.readFields(this, ref);
+            return;
+        }
         for (int i = 0; i < t.double_count; i++) {
             Field f = t.serializable_fields[temp];
             if (t.fields_final[temp]) {
@@ -1644,7 +1683,9 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("readString returns " + s);
         }
-        addObjectToCycleCheck(s);
+        if (!AlternativeTypeInfo.ACYCLIC_STRINGS) {
+            addObjectToCycleCheck(s);
+        }
         if (TIME_IBIS_SERIALIZATION) {
             timer.stop();
         }
@@ -1701,13 +1742,15 @@ public class IbisSerializationInputStream extends DataSerializationInputStream {
             return o;
         }
 
-        if (unshared) {
-            unshared_handle = next_handle;
-        }
-
         int type = handle_or_type & Constants.TYPE_MASK;
         AlternativeTypeInfo t = readType(type);
 
+        if (t.acyclic) {
+            acyclicPending = true;
+        } else if (unshared) {
+            unshared_handle = next_handle;
+        }
+
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("start readObject of class " + t.clazz.getName()
                     + " handle = " + next_handle);
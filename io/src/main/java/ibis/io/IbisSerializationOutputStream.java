@@ -39,6 +39,8 @@ public class IbisSerializationOutputStream
 
     private static final boolean DEBUG = IOProperties.DEBUG;
 
+    private static final boolean ASSERTS = IOProperties.ASSERTS;
+
     /** If <code>false</code>, makes all timer calls disappear. */
     private static final boolean TIME_IBIS_SERIALIZATION = IOProperties.properties
             .getBooleanProperty(IOProperties.s_timer_ibis);
@@ -107,6 +109,12 @@ public class IbisSerializationOutputStream
 
     // private IbisHash references = new IbisHash(2048);
 
+    /**
+     * Objects of acyclic classes written since the last reset. Only used when
+     * assertions are enabled, to detect objects that are not acyclic after all.
+     */
+    private HandleHash acyclicObjects = null;
+
     /** Remember when a reset must be sent out. */
     private boolean resetPending = false;
 
@@ -334,6 +342,9 @@ public class IbisSerializationOutputStream
                 logger.debug("reset: next handle = " + next_handle + ".");
             }
             references.clear();
+            if (acyclicObjects != null) {
+                acyclicObjects.clear();
+            }
             /*
              * We cannot send out the reset immediately, because the reader side
              * only accepts a reset when it is expecting a handle. So, instead,
@@ -399,14 +410,14 @@ public class IbisSerializationOutputStream
      */
     void writeHandle(int v) throws IOException {
         if (clearPending) {
-            writeInt(Constants.CLEAR_HANDLE);
+            writeHandleValue(Constants.CLEAR_HANDLE);
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("wrote a CLEAR");
             }
             resetPending = false;
             clearPending = false;
         } else if (resetPending) {
-            writeInt(Constants.RESET_HANDLE);
+            writeHandleValue(Constants.RESET_HANDLE);
             if (DEBUG && logger.isDebugEnabled()) {
                 logger.debug("wrote a RESET");
             }
@@ -414,12 +425,24 @@ public class IbisSerializationOutputStream
         }
 
         // treating handles as normal int's --N
-        writeInt(v);
+        writeHandleValue(v);
         if (DEBUG && logger.isDebugEnabled()) {
             logger.debug("wrote handle " + v);
         }
     }
 
+    /**
+     * Writes a handle as an int. In the compact format, type numbers, which
+     * have the sign bit set, are mapped onto small negative numbers, so that
+     * both object handles and type numbers usually take a single byte.
+     */
+    private void writeHandleValue(int v) throws IOException {
+        if (compact) {
+            v ^= (v >> 31) & Constants.TYPE_MASK;
+        }
+        writeInt(v);
+    }
+
     @Override
     public void writeArray(boolean[] ref, int off, int len) throws IOException {
         if (TIME_IBIS_SERIALIZATION) {
@@ -801,6 +824,17 @@ public class IbisSerializationOutputStream
             return 0;
         }
 
+        if (AlternativeTypeInfo.ACYCLIC_TYPES) {
+            Class<?> clazz = ref.getClass();
+            if (AlternativeTypeInfo.getAlternativeTypeInfo(clazz).acyclic) {
+                if (ASSERTS) {
+                    checkAcyclic(ref);
+                }
+                writeType(clazz);
+                return 1;
+            }
+        }
+
         int handle = references.lazyPut(ref, next_handle);
         if (handle == next_handle) {
             // System.err.write("+");
@@ -847,7 +881,7 @@ public class IbisSerializationOutputStream
         if (handle == next_handle) {
             // System.err.write("+");
             next_handle++;
-            writeInt(typehandle | Constants.TYPE_BIT);
+            writeHandle(typehandle | Constants.TYPE_BIT);
             return 1;
         }
 
@@ -883,6 +917,10 @@ public class IbisSerializationOutputStream
             logger.debug("alternativeDefaultWriteObject, class = "
                     + t.clazz.getName());
         }
+        if (t.serializer != null) {
+            t.serializer.writeFields(this, ref);
+            return;
+        }
         for (i = 0; i < t.double_count; i++) {
             writeDouble(t.serializable_fields[temp++].getDouble(ref));
         }
@@ -1080,6 +1118,18 @@ public class IbisSerializationOutputStream
             return;
         }
 
+        if (AlternativeTypeInfo.ACYCLIC_STRINGS) {
+            if (ASSERTS) {
+                checkAcyclic(ref);
+            }
+            writeType(java.lang.String.class);
+            writeUTF(ref);
+            if (TIME_IBIS_SERIALIZATION) {
+                timer.stop();
+            }
+            return;
+        }
+
         int handle = references.lazyPut(ref, next_handle);
         if (handle == next_handle) {
             next_handle++;
@@ -1176,6 +1226,22 @@ public class IbisSerializationOutputStream
         }
     }
 
+    /**
+     * Checks that an object of an acyclic class is not written twice since
+     * the last reset, which would mean that it is shared, or part of a cycle.
+     */
+    void checkAcyclic(Object ref) throws IOException {
+        if (acyclicObjects == null) {
+            acyclicObjects = new HandleHash();
+        }
+        if (acyclicObjects.find(ref) != 0) {
+            throw new IbisIOException("object of acyclic class "
+                    + ref.getClass().getName()
+                    + " is shared or part of a cycle");
+        }
+        acyclicObjects.put(ref, 1);
+    }
+
     void doWriteObject(Object ref) throws IOException {
         /*
          * ref < 0: type ref = 0: null ptr ref > 0: handle
@@ -1203,6 +1269,18 @@ public class IbisSerializationOutputStream
             ref = replacer.replace(ref);
         }
 
+        if (AlternativeTypeInfo.ACYCLIC_TYPES) {
+            AlternativeTypeInfo t = AlternativeTypeInfo
+                    .getAlternativeTypeInfo(ref.getClass());
+            if (t.acyclic) {
+                t.writer.writeObject(this, ref, t, 0, false);
+                if (TIME_IBIS_SERIALIZATION) {
+                    timer.stop();
+                }
+                return;
+            }
+        }
+
         int hashCode = HandleHash.getHashCode(ref);
         int handle = references.find(ref, hashCode);
 
@@ -31,7 +31,11 @@ abstract class IbisWriter {
             AlternativeTypeInfo t, int hashCode, boolean unshared)
             throws IOException {
         // Code needed for most IbisWriters.
-        if (! unshared) {
+        if (t.acyclic) {
+            if (IOProperties.ASSERTS) {
+                out.checkAcyclic(ref);
+            }
+        } else if (! unshared) {
             out.assignHandle(ref, hashCode);
         }
         out.writeType(t.clazz);
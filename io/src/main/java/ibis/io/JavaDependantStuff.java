@@ -18,6 +18,7 @@ package ibis.io;
 import java.io.IOException;
 import java.io.ObjectStreamClass;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +44,12 @@ abstract class JavaDependantStuff {
         primitiveTypes.put("double", Double.TYPE);
     };
 
+    /**
+     * Classes found by <code>Class.forName()</code>. Which class that finds
+     * does not depend on the calling thread, so it only needs to be done once.
+     */
+    private static ConcurrentHashMap<String, Class<?>> loadedClasses = new ConcurrentHashMap<String, Class<?>>();
+
     static final Logger logger = LoggerFactory
             .getLogger(JavaDependantStuff.class);
 
@@ -91,8 +98,14 @@ abstract class JavaDependantStuff {
         if (cl != null) {
             return cl;
         }
+        cl = loadedClasses.get(typeName);
+        if (cl != null) {
+            return cl;
+        }
         try {
-            return Class.forName(typeName);
+            cl = Class.forName(typeName);
+            loadedClasses.put(typeName, cl);
+            return cl;
         } catch (ClassNotFoundException e) {
             try {
                 if (DEBUG && logger.isDebugEnabled()) {
@@ -21,6 +21,9 @@ import ibis.util.ThreadPool;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.util.ArrayList;
 
 /**
@@ -29,10 +32,32 @@ import java.util.ArrayList;
  * when the data is written to all streams, throw one large exception
  * that contains all previous exceptions.
  * This way, even when one of the streams dies, the rest will receive the data.
+ *
+ * With a single stream, data is written directly by the caller. With more
+ * streams, each stream gets a long-lived writer thread. A write copies the
+ * data into a slot of a window shared by all writers and wakes them up once;
+ * a stream may lag behind the others by at most the window size
+ * (see {@link IOProperties#SPLITTER_WINDOW}). A flush or close waits until
+ * all writers have caught up. Once the splitter is closed, writes and
+ * flushes fail with a {@link ClosedChannelException}.
+ *
+ * The splitter is also a {@link GatheringByteChannel}. When its only stream is
+ * a channel as well, byte buffers are written to it as they are, without
+ * copying them to the heap first.
  **/
-public final class OutputStreamSplitter extends OutputStream {
+public final class OutputStreamSplitter extends OutputStream implements
+        GatheringByteChannel {
+
+    private static final int WINDOW = Math.max(1, IOProperties.SPLITTER_WINDOW);
+
+    /** Large writes are split into slots of at most this size. */
+    private static final int MAX_SLOT_SIZE = 64 * 1024;
+
+    private static final int OP_WRITE = 0;
 
-    private static final int MAXTHREADS = 32;
+    private static final int OP_FLUSH = 1;
+
+    private static final int OP_CLOSE = 2;
 
     private boolean removeOnException = false;
     private boolean saveException = false;
@@ -41,180 +66,282 @@ public final class OutputStreamSplitter extends OutputStream {
 
     ArrayList<OutputStream> out = new ArrayList<OutputStream>();
 
-    private int numSenders = 0;
+    /** The writers, one per stream, or empty when there is only one stream. */
+    private final ArrayList<Writer> writers = new ArrayList<Writer>();
 
-    private class Sender implements Runnable {
-        int offset;
-        int len;
-        byte[] buf;
-        int index;
+    /** Ring of slots, indexed by sequence number modulo the window size. */
+    private final Slot[] window = new Slot[WINDOW];
 
-        Sender(byte[] buf, int index, int offset, int len) {
-            this.buf = buf;
-            this.offset = offset;
-            this.len = len;
-            this.index = index;
-        }
+    /** Sequence number of the next slot to be filled. */
+    private long produced = 0;
 
-        public void run() {
-            doWrite(buf, offset, len, index);
-            finish();
-        }
-    }
+    /** Sequence number of the oldest slot that is still in use. */
+    private long consumed = 0;
 
-    private class Flusher implements Runnable {
-        int index;
+    private byte[] tmp = new byte[1];
 
-        Flusher(int index) {
-            this.index = index;
-        }
+    /** Used to copy byte buffers that cannot be written directly. */
+    private byte[] copy = null;
 
-        public void run() {
-            doFlush(index);
-            finish();
-        }
+    private boolean closed = false;
+
+    /** An operation to be performed by every writer. */
+    private static final class Slot {
+        byte[] buf;
+        int len;
+        int op;
+        int pending;
     }
 
-    private class Closer implements Runnable {
-        int index;
+    /** Performs the operations in the window on a single stream. */
+    private final class Writer implements Runnable {
+        final OutputStream stream;
+        long next;
+        boolean stopped = false;
+        boolean dead = false;
 
-        Closer(int index) {
-            this.index = index;
+        Writer(OutputStream stream, long next) {
+            this.stream = stream;
+            this.next = next;
         }
 
         public void run() {
-            doClose(index);
-            finish();
-        }
-    }
-
-    void doWrite(byte[] buf, int offset, int len, int index) {
-        try {
-            OutputStream o = out.get(index);
-            if (o != null) {
-        	o.write(buf, offset, len);
-            }
-        } catch(IOException e) {
-            addException(e, index);
-        }
-    }
-
-    void doFlush(int index) {
-        try {
-            OutputStream o = out.get(index);
-            if (o != null) {
-        	o.flush();
+            while (true) {
+                Slot s;
+                synchronized (OutputStreamSplitter.this) {
+                    while (!stopped && next == produced) {
+                        try {
+                            OutputStreamSplitter.this.wait();
+                        } catch (Exception e) {
+                            // Ignored
+                        }
+                    }
+                    if (stopped) {
+                        return;
+                    }
+                    s = window[(int) (next % WINDOW)];
+                }
+                if (!dead) {
+                    try {
+                        switch (s.op) {
+                        case OP_WRITE:
+                            stream.write(s.buf, 0, s.len);
+                            break;
+                        case OP_FLUSH:
+                            stream.flush();
+                            break;
+                        case OP_CLOSE:
+                            stream.close();
+                            break;
+                        }
+                    } catch (IOException e) {
+                        synchronized (OutputStreamSplitter.this) {
+                            addException(e, stream);
+                            dead = removeOnException;
+                        }
+                    }
+                }
+                synchronized (OutputStreamSplitter.this) {
+                    next++;
+                    s.pending--;
+                    while (consumed != produced
+                            && window[(int) (consumed % WINDOW)].pending == 0) {
+                        consumed++;
+                    }
+                    OutputStreamSplitter.this.notifyAll();
+                }
             }
-        } catch(IOException e) {
-            addException(e, index);
         }
     }
 
-    void doClose(int index) {
-        try {
-            OutputStream o = out.get(index);
-            if (o != null) {
-        	o.close();
-            }
-        } catch(IOException e) {
-            addException(e, index);
-        }
+    public OutputStreamSplitter() {
+        // empty constructor
     }
 
-    private synchronized void finish() {
-        numSenders--;
-        notifyAll();
+    public OutputStreamSplitter(boolean removeOnException, boolean saveException) {
+        this();
+        this.removeOnException = removeOnException;
+        this.saveException = saveException;
     }
 
-    private synchronized void addException(IOException e, int index) {
+    private void addException(IOException e, OutputStream s) {
         if (savedException == null) {
             savedException = new SplitterException();
         }
-        savedException.add(out.get(index), e);
-        if (removeOnException) {
-            out.set(index, null);
-        }
+        savedException.add(s, e);
     }
 
-    public OutputStreamSplitter() {
-        // empty constructor
+    private void startWriter(OutputStream s) {
+        Writer w = new Writer(s, produced);
+        writers.add(w);
+        ThreadPool.createNew(w, "Splitter writer");
     }
 
-    public OutputStreamSplitter(boolean removeOnException, boolean saveException) {
-        this();
-        this.removeOnException = removeOnException;
-        this.saveException = saveException;
+    private void stopWriter(Writer w) {
+        w.stopped = true;
+        writers.remove(w);
+        notifyAll();
     }
 
     public synchronized void add(OutputStream s) {
+        drain();
+        if (out.size() == 1) {
+            startWriter(out.get(0));
+        }
         out.add(s);
+        if (out.size() > 1) {
+            startWriter(s);
+        }
     }
 
     public synchronized void remove(OutputStream s) throws IOException {
 
-	while (numSenders != 0) {
-	    try {
-		wait();
-	    } catch(Exception e) {
-		// Ignored
-	    }
-	}
-        
+        drain();
+
         int i = out.indexOf(s);
-        
+
         if (i == -1) {
             throw new IOException("Removing unknown stream from splitter.");
         }
 
         out.remove(i);
-    }
 
-    public void write(int b) throws IOException {
+        for (int j = 0; j < writers.size(); j++) {
+            if (writers.get(j).stream == s) {
+                stopWriter(writers.get(j));
+                break;
+            }
+        }
+        if (writers.size() == 1) {
+            stopWriter(writers.get(0));
+        }
+    }
 
-        synchronized(this) {
-            while (numSenders != 0) {
-                try {
-                    wait();
-                } catch(Exception e) {
-                    // Ignored
+    /**
+     * Waits until all writers have processed all slots. Then removes the
+     * streams that got an exception, if requested.
+     */
+    private synchronized void drain() {
+        while (consumed != produced) {
+            try {
+                wait();
+            } catch (Exception e) {
+                // Ignored
+            }
+        }
+        if (removeOnException) {
+            for (int i = 0; i < writers.size(); i++) {
+                Writer w = writers.get(i);
+                if (w.dead) {
+                    out.remove(w.stream);
+                    stopWriter(w);
+                    i--;
                 }
             }
-            numSenders++;
+            if (writers.size() == 1) {
+                stopWriter(writers.get(0));
+            }
         }
+    }
 
-        bytesWritten += out.size();
-
-        for (int i = 0; i < out.size(); i++) {
+    /**
+     * Hands an operation to all writers. Blocks while the window is full.
+     */
+    private synchronized void enqueue(int op, byte[] b, int off, int len) {
+        while (produced - consumed >= WINDOW) {
             try {
-        	OutputStream o = out.get(i);
-        	if (o != null) {
-        	    o.write(b);
-        	}
-            } catch (IOException e2) {
-                if (savedException == null) {
-                    savedException = new SplitterException();
-                }
-                savedException.add(out.get(i), e2);
+                wait();
+            } catch (Exception e) {
+                // Ignored
+            }
+        }
+        int index = (int) (produced % WINDOW);
+        Slot s = window[index];
+        if (s == null) {
+            s = new Slot();
+            window[index] = s;
+        }
+        if (len > 0) {
+            if (s.buf == null || s.buf.length < len) {
+                s.buf = new byte[len];
+            }
+            System.arraycopy(b, off, s.buf, 0, len);
+        }
+        s.len = len;
+        s.op = op;
+        s.pending = writers.size();
+        produced++;
+        notifyAll();
+    }
+
+    /**
+     * Performs an operation on the only stream, in the calling thread.
+     */
+    private void doDirect(int op, byte[] b, int off, int len) {
+        OutputStream o = out.get(0);
+        try {
+            switch (op) {
+            case OP_WRITE:
+                o.write(b, off, len);
+                break;
+            case OP_FLUSH:
+                o.flush();
+                break;
+            case OP_CLOSE:
+                o.close();
+                break;
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                addException(e, o);
                 if (removeOnException) {
-                    out.remove(i);
-                    --i;
+                    out.remove(0);
                 }
             }
         }
+    }
 
-        synchronized(this) {
-            numSenders--;
-            notifyAll();
+    private void checkException() throws IOException {
+        synchronized (this) {
+            if (savedException != null) {
+                if (! saveException) {
+                    SplitterException e = savedException;
+                    savedException = null;
+                    throw e;
+                }
+            }
         }
+    }
 
-        if (savedException != null) {
-            if (! saveException) {
-                SplitterException e = savedException;
-                savedException = null;
-                throw e;
-            }
+    private void doOp(int op, byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            // the writers are gone, so the streams would not all get it
+            throw new ClosedChannelException();
+        }
+        if (out.size() == 0 || (op == OP_WRITE && len == 0)) {
+            // nothing to do, and an empty slot would have no buffer
+            return;
         }
+        if (writers.isEmpty()) {
+            doDirect(op, b, off, len);
+        } else if (op == OP_WRITE) {
+            do {
+                int size = Math.min(len, MAX_SLOT_SIZE);
+                enqueue(op, b, off, size);
+                off += size;
+                len -= size;
+            } while (len > 0);
+        } else {
+            enqueue(op, b, off, len);
+            drain();
+        }
+        checkException();
+    }
 
+    public void write(int b) throws IOException {
+        bytesWritten += out.size();
+        tmp[0] = (byte) b;
+        doOp(OP_WRITE, tmp, 0, 1);
     }
 
     public void write(byte[] b) throws IOException {
@@ -222,68 +349,96 @@ public final class OutputStreamSplitter extends OutputStream {
     }
 
     public void write(byte[] b, int off, int len) throws IOException {
-        if (out.size() > 0) {
-            bytesWritten += len * out.size();
-            synchronized(this) {
-                while (numSenders != 0) {
-                    try {
-                        wait();
-                    } catch(Exception e) {
-                        // Ignored
+        bytesWritten += len * out.size();
+        doOp(OP_WRITE, b, off, len);
+    }
+
+    public void flush() throws IOException {
+        doOp(OP_FLUSH, null, 0, 0);
+    }
+
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[] { src }, 0, 1);
+    }
+
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        long len = 0;
+        for (int i = offset; i < offset + length; i++) {
+            len += srcs[i].remaining();
+        }
+        bytesWritten += len * out.size();
+
+        if (out.size() == 1 && writers.isEmpty()
+                && out.get(0) instanceof GatheringByteChannel) {
+            OutputStream o = out.get(0);
+            try {
+                long done = 0;
+                while (done < len) {
+                    done += ((GatheringByteChannel) o).write(srcs, offset,
+                            length);
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    addException(e, o);
+                    if (removeOnException) {
+                        out.remove(0);
                     }
                 }
-                numSenders++;
             }
-            for (int i = 1; i < out.size(); i++) {
-                Sender s = new Sender(b, i, off, len);
-                runThread(s, "Splitter sender");
+        } else if (out.size() != 0) {
+            for (int i = offset; i < offset + length; i++) {
+                writeCopy(srcs[i]);
             }
-            doWrite(b, off, len, 0);
-            done();
         }
+        // Whatever happened, the data is consumed, as with the other writes.
+        for (int i = offset; i < offset + length; i++) {
+            srcs[i].position(srcs[i].limit());
+        }
+        checkException();
+        return len;
     }
 
-    public void flush() throws IOException {
-        if (out.size() > 0) {
-            synchronized(this) {
-                while (numSenders != 0) {
-                    try {
-                        wait();
-                    } catch(Exception e) {
-                        // Ignored
-                    }
-                }
-                numSenders++;
-            }
-            for (int i = 1; i < out.size(); i++) {
-                Flusher f = new Flusher(i);
-                runThread(f, "Splitter flusher");
+    private void writeCopy(ByteBuffer b) throws IOException {
+        if (b.hasArray()) {
+            doOp(OP_WRITE, b.array(), b.arrayOffset() + b.position(),
+                    b.remaining());
+            return;
+        }
+        while (b.hasRemaining()) {
+            int size = Math.min(b.remaining(), MAX_SLOT_SIZE);
+            if (copy == null || copy.length < size) {
+                copy = new byte[size];
             }
-            doFlush(0);
-            done();
+            b.get(copy, 0, size);
+            doOp(OP_WRITE, copy, 0, size);
         }
     }
 
-    public void close() throws IOException {
+    public boolean isOpen() {
+        return !closed;
+    }
 
-        if (out.size() > 0) {
-            synchronized(this) {
-                while (numSenders != 0) {
-                    try {
-                        wait();
-                    } catch(Exception e) {
-                        // Ignored
-                    }
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            doOp(OP_CLOSE, null, 0, 0);
+        } finally {
+            closed = true;
+            synchronized (this) {
+                while (!writers.isEmpty()) {
+                    stopWriter(writers.get(0));
                 }
-                numSenders++;
             }
-
-            for (int i = 1; i < out.size(); i++) {
-                Closer f = new Closer(i);
-                runThread(f, "Splitter closer");
-            }
-            doClose(0);
-            done();
         }
     }
 
@@ -296,53 +451,10 @@ public final class OutputStreamSplitter extends OutputStream {
     }
 
     public SplitterException getExceptions() {
-        SplitterException e = savedException;
-        savedException = null;
-        return e;
-    }
-
-    private void runThread(Runnable r, String name) {
-        synchronized(this) {
-            while (numSenders >= MAXTHREADS) {
-                try {
-                    wait();
-                } catch(Exception e) {
-                    // Ignored
-                }
-            }
-            numSenders++;
-        }
-        ThreadPool.createNew(r, name);
-    }
-
-    private void done() throws IOException {
-        synchronized(this) {
-            numSenders--;
-            while (numSenders != 0) {
-                try {
-                    wait();
-                } catch(Exception e) {
-                    // Ignored
-                }
-            }
-            notifyAll();
-
-            if (savedException != null) {
-                if (removeOnException) {
-                    for (int i = 0; i < out.size(); i++) {
-                        if (out.get(i) == null) {
-                            out.remove(i);
-                            i--;
-                        }
-                    }
-                }
-
-                if (! saveException) {
-                    SplitterException e = savedException;
-                    savedException = null;
-                    throw e;
-                }
-            }
+        synchronized (this) {
+            SplitterException e = savedException;
+            savedException = null;
+            return e;
         }
     }
 }
@@ -149,4 +149,60 @@ public class SerializationFactory {
             throw new IbisIOException("got unexpected error", e);
         }
     }
+
+    /**
+     * Creates a {@link SerializationInput} as specified by the name,
+     * optionally in the compact format.
+     * 
+     * @param name
+     *            the nickname for this serialization type.
+     * @param in
+     *            the underlying input stream.
+     * @param props
+     *            the properties to use
+     * @param compact
+     *            when set, the compact format is used, see
+     *            {@link DataSerializationOutputStream#setCompact(boolean)}.
+     *            Only data and Ibis serialization have a compact format.
+     * @return the serialization input stream.
+     * @exception IOException
+     *                gets thrown when an IO error occurs.
+     */
+    public static SerializationInput createSerializationInput(String name,
+            DataInputStream in, Properties props, boolean compact)
+            throws IOException {
+        SerializationInput s = createSerializationInput(name, in, props);
+        if (compact && s instanceof DataSerializationInputStream) {
+            ((DataSerializationInputStream) s).setCompact(true);
+        }
+        return s;
+    }
+
+    /**
+     * Creates a {@link SerializationOutput} as specified by the name,
+     * optionally in the compact format.
+     * 
+     * @param name
+     *            the nickname for this serialization type.
+     * @param out
+     *            the underlying output stream.
+     * @param props
+     *            the properties to use.
+     * @param compact
+     *            when set, the compact format is used, see
+     *            {@link DataSerializationOutputStream#setCompact(boolean)}.
+     *            Only data and Ibis serialization have a compact format.
+     * @return the serialization output stream.
+     * @exception IOException
+     *                gets thrown when an IO error occurs.
+     */
+    public static SerializationOutput createSerializationOutput(String name,
+            DataOutputStream out, Properties props, boolean compact)
+            throws IOException {
+        SerializationOutput s = createSerializationOutput(name, out, props);
+        if (compact && s instanceof DataSerializationOutputStream) {
+            ((DataSerializationOutputStream) s).setCompact(true);
+        }
+        return s;
+    }
 }
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Generates, at runtime, a {@link GeneratedSerializer} for a class that is not
+ * rewritten by the Ibis bytecode rewriter. The generated code accesses the
+ * fields directly, like rewritten code does, instead of through reflection.
+ *
+ * To be able to access private fields, the generated class is defined as a
+ * hidden nestmate of the class it serializes. This requires Java 15 or later,
+ * so the methods involved are looked up through reflection; when they are not
+ * there, or the class cannot be opened, no serializer is generated and the
+ * reflection-based code is used.
+ *
+ * Final fields cannot be assigned outside of a constructor, so these are still
+ * read through the <code>readFieldXXX</code> methods of
+ * {@link IbisSerializationInputStream}.
+ */
+final class SerializerGenerator implements Opcodes {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(SerializerGenerator.class);
+
+    private static final String SERIALIZER = Type
+            .getInternalName(GeneratedSerializer.class);
+
+    private static final String OUTPUT = Type
+            .getInternalName(IbisSerializationOutputStream.class);
+
+    private static final String INPUT = Type
+            .getInternalName(IbisSerializationInputStream.class);
+
+    /** MethodHandles.privateLookupIn(Class, Lookup), Java 9 and later. */
+    private static Method privateLookupInMethod;
+
+    /** Lookup.defineHiddenClass(byte[], boolean, ClassOption...), Java 15. */
+    private static Method defineHiddenClassMethod;
+
+    /** An array containing the NESTMATE class option. */
+    private static Object nestmateOption;
+
+    static final boolean available;
+
+    static {
+        boolean ok = false;
+        try {
+            privateLookupInMethod = MethodHandles.class.getMethod(
+                    "privateLookupIn", Class.class,
+                    MethodHandles.Lookup.class);
+            Class<?> optionClass = Class.forName(
+                    "java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            Object options = Array.newInstance(optionClass, 1);
+            for (Object o : optionClass.getEnumConstants()) {
+                if (o.toString().equals("NESTMATE")) {
+                    Array.set(options, 0, o);
+                }
+            }
+            if (Array.get(options, 0) != null) {
+                defineHiddenClassMethod = MethodHandles.Lookup.class.getMethod(
+                        "defineHiddenClass", byte[].class, Boolean.TYPE,
+                        options.getClass());
+                nestmateOption = options;
+                ok = true;
+            }
+        } catch (Throwable e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("No hidden classes, serializers will not be "
+                        + "generated: " + e);
+            }
+        }
+        available = ok && IOProperties.GENERATE_SERIALIZERS;
+    }
+
+    private SerializerGenerator() {
+        // not instantiated
+    }
+
+    /**
+     * Generates a serializer for the fields declared by the class of the
+     * specified type info.
+     *
+     * @param t
+     *            the type info.
+     * @return the serializer, or <code>null</code> if none could be generated.
+     */
+    static GeneratedSerializer generate(AlternativeTypeInfo t) {
+        if (!available || !canGenerate(t)) {
+            return null;
+        }
+        try {
+            byte[] code = generateClass(t);
+            Object lookup = privateLookupInMethod.invoke(null, t.clazz,
+                    MethodHandles.lookup());
+            MethodHandles.Lookup hidden = (MethodHandles.Lookup) defineHiddenClassMethod
+                    .invoke(lookup, code, Boolean.TRUE, nestmateOption);
+            GeneratedSerializer s = (GeneratedSerializer) hidden.lookupClass()
+                    .getConstructor().newInstance();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Generated serializer for " + t.clazz.getName());
+            }
+            return s;
+        } catch (Throwable e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("Could not generate serializer for "
+                        + t.clazz.getName() + ", using reflection", e);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Checks that the generated code can refer to the types of all fields.
+     */
+    private static boolean canGenerate(AlternativeTypeInfo t) {
+        if (t.serializable_fields == null || t.serial_persistent_fields != null) {
+            return false;
+        }
+        for (Field f : t.serializable_fields) {
+            if (f == null || f.getDeclaringClass() != t.clazz) {
+                return false;
+            }
+            Class<?> type = f.getType();
+            while (type.isArray()) {
+                type = type.getComponentType();
+            }
+            if (!type.isPrimitive() && !Modifier.isPublic(type.getModifiers())
+                    && !samePackage(type, t.clazz)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean samePackage(Class<?> a, Class<?> b) {
+        if (a.getClassLoader() != b.getClassLoader()) {
+            return false;
+        }
+        String na = a.getName();
+        String nb = b.getName();
+        return na.substring(0, na.lastIndexOf('.') + 1).equals(
+                nb.substring(0, nb.lastIndexOf('.') + 1));
+    }
+
+    /** Returns the suffix of the stream methods for the given type. */
+    private static String kind(Class<?> type) {
+        String name = type.getName();
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static byte[] generateClass(AlternativeTypeInfo t) {
+        String owner = Type.getInternalName(t.clazz);
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+
+        cw.visit(V11, ACC_PUBLIC | ACC_FINAL | ACC_SUPER,
+                owner + "$IbisSerializer", null, SERIALIZER, null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null,
+                null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, SERIALIZER, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        generateWrite(cw, t, owner);
+        generateRead(cw, t, owner);
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void generateWrite(ClassWriter cw, AlternativeTypeInfo t,
+            String owner) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "writeFields", "(L"
+                + OUTPUT + ";Ljava/lang/Object;)V", null,
+                new String[] { "java/io/IOException" });
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitTypeInsn(CHECKCAST, owner);
+        mv.visitVarInsn(ASTORE, 3);
+
+        for (Field f : t.serializable_fields) {
+            Class<?> type = f.getType();
+            String desc = Type.getDescriptor(type);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitVarInsn(ALOAD, 3);
+            mv.visitFieldInsn(GETFIELD, owner, f.getName(), desc);
+            if (type.isPrimitive()) {
+                mv.visitMethodInsn(INVOKEVIRTUAL, OUTPUT, "write" + kind(type),
+                        "(" + desc + ")V", false);
+            } else {
+                mv.visitMethodInsn(INVOKESTATIC, SERIALIZER, "writeReference",
+                        "(L" + OUTPUT + ";Ljava/lang/Object;)V", false);
+            }
+        }
+
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    private static void generateRead(ClassWriter cw, AlternativeTypeInfo t,
+            String owner) {
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "readFields", "(L"
+                + INPUT + ";Ljava/lang/Object;)V", null, new String[] {
+                "java/io/IOException", "java/lang/ClassNotFoundException" });
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 2);
+        mv.visitTypeInsn(CHECKCAST, owner);
+        mv.visitVarInsn(ASTORE, 3);
+
+        for (int i = 0; i < t.serializable_fields.length; i++) {
+            Field f = t.serializable_fields[i];
+            Class<?> type = f.getType();
+            String desc = Type.getDescriptor(type);
+            if (t.fields_final[i]) {
+                // Same calls as in alternativeDefaultReadObject.
+                mv.visitVarInsn(ALOAD, 1);
+                mv.visitVarInsn(ALOAD, 2);
+                mv.visitLdcInsn(f.getName());
+                mv.visitLdcInsn(t.clazz.getName());
+                if (type.isPrimitive()) {
+                    mv.visitMethodInsn(INVOKEVIRTUAL, INPUT, "readField"
+                            + kind(type),
+                            "(Ljava/lang/Object;Ljava/lang/String;"
+                                    + "Ljava/lang/String;)V", false);
+                } else {
+                    mv.visitLdcInsn(type.isArray() ? type.getName() : desc);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, INPUT, "readFieldObject",
+                            "(Ljava/lang/Object;Ljava/lang/String;"
+                                    + "Ljava/lang/String;Ljava/lang/String;)V",
+                            false);
+                }
+            } else {
+                mv.visitVarInsn(ALOAD, 3);
+                if (type.isPrimitive()) {
+                    mv.visitVarInsn(ALOAD, 1);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, INPUT, "read"
+                            + kind(type), "()" + desc, false);
+                } else {
+                    mv.visitVarInsn(ALOAD, 1);
+                    mv.visitMethodInsn(INVOKESTATIC, SERIALIZER,
+                            "readReference", "(L" + INPUT
+                                    + ";)Ljava/lang/Object;", false);
+                    if (type != Object.class) {
+                        mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+                    }
+                }
+                mv.visitFieldInsn(PUTFIELD, owner, f.getName(), desc);
+            }
+        }
+
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+}
@@ -0,0 +1,462 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io.nio;
+
+import ibis.io.Conversion;
+import ibis.io.SimpleBigConversion;
+import ibis.io.SimpleLittleConversion;
+
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Conversion that picks, for each primitive type, array size and direction,
+ * the conversion that is fastest on the current JVM. The choice is made by a
+ * calibration the first time a conversion for a byte order is created, and is
+ * shared by all instances. It takes a few hundred milliseconds, so this
+ * conversion is only used when asked for. Another conversion than the hybrid
+ * one is only picked when it is clearly faster, which makes the choice less
+ * sensitive to noise in the timings. It may still differ between runs and
+ * machines, which is fine, as the choice does not affect the data format.
+ * Single values are converted with a {@link VarHandleBigConversion} or
+ * {@link VarHandleLittleConversion}.
+ * Large arrays in the native byte order are always copied through a view,
+ * which amounts to a plain memory copy.
+ */
+public final class CalibratedConversion extends Conversion {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(CalibratedConversion.class);
+
+    // candidates
+    private static final int SIMPLE = 0;
+
+    private static final int HYBRID = 1;
+
+    private static final int VARHANDLE = 2;
+
+    private static final int VIEW = 3;
+
+    private static final int NR_CANDIDATES = 4;
+
+    private static final String[] CANDIDATE_NAMES = { "simple", "hybrid",
+            "varhandle", "view" };
+
+    // primitive types
+    private static final int CHAR = 0;
+
+    private static final int SHORT = 1;
+
+    private static final int INT = 2;
+
+    private static final int LONG = 3;
+
+    private static final int FLOAT = 4;
+
+    private static final int DOUBLE = 5;
+
+    private static final int NR_TYPES = 6;
+
+    private static final String[] TYPE_NAMES = { "char", "short", "int",
+            "long", "float", "double" };
+
+    private static final int[] TYPE_SIZES = { CHAR_SIZE, SHORT_SIZE, INT_SIZE,
+            LONG_SIZE, FLOAT_SIZE, DOUBLE_SIZE };
+
+    /** Array sizes in bytes below which the small and medium choices apply. */
+    private static final int SMALL = 256;
+
+    private static final int MEDIUM = 2048;
+
+    private static final int NR_BUCKETS = 3;
+
+    /** Array sizes in bytes used to calibrate each bucket. */
+    private static final int[] CALIBRATION_SIZES = { 64, 1024, 8192 };
+
+    /** Number of bytes converted in a single timed round. */
+    private static final int ROUND_BYTES = 16 * 1024;
+
+    /** Untimed rounds, to get the candidates compiled by the JIT. */
+    private static final int WARMUP_ROUNDS = 32;
+
+    private static final int ROUNDS = 8;
+
+    /** A candidate must be this much faster than the hybrid conversion. */
+    private static final double MARGIN = 1.25;
+
+    /** Choices, indexed by [direction][type][bucket]; 0 is to bytes. */
+    private static byte[][][] bigChoices;
+
+    private static byte[][][] littleChoices;
+
+    private final Conversion base;
+
+    /** Conversions to bytes, indexed by [type][bucket]. */
+    private final Conversion[][] to = new Conversion[NR_TYPES][NR_BUCKETS];
+
+    /** Conversions from bytes, indexed by [type][bucket]. */
+    private final Conversion[][] from = new Conversion[NR_TYPES][NR_BUCKETS];
+
+    public CalibratedConversion(boolean bigEndian) {
+        byte[][][] choices = getChoices(bigEndian);
+        Conversion[] candidates = new Conversion[NR_CANDIDATES];
+        base = candidate(bigEndian, VARHANDLE);
+        candidates[VARHANDLE] = base;
+        for (int type = 0; type < NR_TYPES; type++) {
+            for (int bucket = 0; bucket < NR_BUCKETS; bucket++) {
+                to[type][bucket] = get(candidates, bigEndian,
+                        choices[0][type][bucket]);
+                from[type][bucket] = get(candidates, bigEndian,
+                        choices[1][type][bucket]);
+            }
+        }
+    }
+
+    private static Conversion get(Conversion[] candidates, boolean bigEndian,
+            int choice) {
+        // only create the candidates that are used, the hybrid ones
+        // allocate a direct buffer
+        if (candidates[choice] == null) {
+            candidates[choice] = candidate(bigEndian, choice);
+        }
+        return candidates[choice];
+    }
+
+    private static Conversion candidate(boolean bigEndian, int choice) {
+        switch (choice) {
+        case HYBRID:
+            return bigEndian ? new HybridChunkBigConversion()
+                    : new HybridChunkLittleConversion();
+        case VARHANDLE:
+            return bigEndian ? new VarHandleBigConversion()
+                    : new VarHandleLittleConversion();
+        case VIEW:
+            return bigEndian ? new ViewBigConversion()
+                    : new ViewLittleConversion();
+        default:
+            return bigEndian ? new SimpleBigConversion()
+                    : new SimpleLittleConversion();
+        }
+    }
+
+    private static synchronized byte[][][] getChoices(boolean bigEndian) {
+        if (bigEndian) {
+            if (bigChoices == null) {
+                bigChoices = calibrate(true);
+            }
+            return bigChoices;
+        }
+        if (littleChoices == null) {
+            littleChoices = calibrate(false);
+        }
+        return littleChoices;
+    }
+
+    private static byte[][][] calibrate(boolean bigEndian) {
+        long start = System.nanoTime();
+
+        Conversion[] candidates = new Conversion[NR_CANDIDATES];
+        for (int i = 0; i < NR_CANDIDATES; i++) {
+            candidates[i] = candidate(bigEndian, i);
+        }
+
+        int max = CALIBRATION_SIZES[NR_BUCKETS - 1];
+        Object[] arrays = { new char[max / CHAR_SIZE],
+                new short[max / SHORT_SIZE], new int[max / INT_SIZE],
+                new long[max / LONG_SIZE], new float[max / FLOAT_SIZE],
+                new double[max / DOUBLE_SIZE] };
+        byte[] bytes = new byte[max];
+        for (int i = 0; i < max; i++) {
+            bytes[i] = (byte) (i * 7);
+        }
+
+        byte[][][] result = new byte[2][NR_TYPES][NR_BUCKETS];
+        long[] best = new long[NR_CANDIDATES];
+
+        for (int dir = 0; dir < 2; dir++) {
+            for (int type = 0; type < NR_TYPES; type++) {
+                for (int bucket = 0; bucket < NR_BUCKETS; bucket++) {
+                    if (bucket == NR_BUCKETS - 1
+                            && bigEndian == NATIVE_BIG_ENDIAN) {
+                        // In the native byte order, a view copies large
+                        // arrays without converting them.
+                        result[dir][type][bucket] = VIEW;
+                        continue;
+                    }
+                    int len = CALIBRATION_SIZES[bucket] / TYPE_SIZES[type];
+                    int reps = ROUND_BYTES / CALIBRATION_SIZES[bucket];
+                    for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                        for (int c = 0; c < NR_CANDIDATES; c++) {
+                            for (int r = 0; r < reps; r++) {
+                                convert(candidates[c], dir == 0, type,
+                                        arrays[type], bytes, len);
+                            }
+                        }
+                    }
+                    Arrays.fill(best, Long.MAX_VALUE);
+                    // interleave the candidates, so that they all see
+                    // the same state of the JIT and the machine
+                    for (int round = 0; round < ROUNDS; round++) {
+                        for (int c = 0; c < NR_CANDIDATES; c++) {
+                            long t = System.nanoTime();
+                            for (int r = 0; r < reps; r++) {
+                                convert(candidates[c], dir == 0, type,
+                                        arrays[type], bytes, len);
+                            }
+                            t = System.nanoTime() - t;
+                            if (t < best[c]) {
+                                best[c] = t;
+                            }
+                        }
+                    }
+                    int choice = HYBRID;
+                    for (int c = 0; c < NR_CANDIDATES; c++) {
+                        if (best[c] * MARGIN < best[choice]) {
+                            choice = c;
+                        }
+                    }
+                    result[dir][type][bucket] = (byte) choice;
+                }
+            }
+        }
+
+        if (logger.isDebugEnabled()) {
+            StringBuilder b = new StringBuilder("Calibrated "
+                    + (bigEndian ? "big" : "little") + "-endian conversion in "
+                    + (System.nanoTime() - start) / 1000000 + " ms:");
+            for (int type = 0; type < NR_TYPES; type++) {
+                b.append(" " + TYPE_NAMES[type] + "=");
+                for (int dir = 0; dir < 2; dir++) {
+                    b.append(dir == 0 ? "[" : " / ");
+                    for (int bucket = 0; bucket < NR_BUCKETS; bucket++) {
+                        if (bucket != 0) {
+                            b.append(",");
+                        }
+                        b.append(CANDIDATE_NAMES[result[dir][type][bucket]]);
+                    }
+                }
+                b.append("]");
+            }
+            logger.debug(b.toString());
+        }
+
+        return result;
+    }
+
+    private static void convert(Conversion c, boolean toBytes, int type,
+            Object array, byte[] bytes, int len) {
+        switch (type) {
+        case CHAR:
+            if (toBytes) {
+                c.char2byte((char[]) array, 0, len, bytes, 0);
+            } else {
+                c.byte2char(bytes, 0, (char[]) array, 0, len);
+            }
+            break;
+        case SHORT:
+            if (toBytes) {
+                c.short2byte((short[]) array, 0, len, bytes, 0);
+            } else {
+                c.byte2short(bytes, 0, (short[]) array, 0, len);
+            }
+            break;
+        case INT:
+            if (toBytes) {
+                c.int2byte((int[]) array, 0, len, bytes, 0);
+            } else {
+                c.byte2int(bytes, 0, (int[]) array, 0, len);
+            }
+            break;
+        case LONG:
+            if (toBytes) {
+                c.long2byte((long[]) array, 0, len, bytes, 0);
+            } else {
+                c.byte2long(bytes, 0, (long[]) array, 0, len);
+            }
+            break;
+        case FLOAT:
+            if (toBytes) {
+                c.float2byte((float[]) array, 0, len, bytes, 0);
+            } else {
+                c.byte2float(bytes, 0, (float[]) array, 0, len);
+            }
+            break;
+        default:
+            if (toBytes) {
+                c.double2byte((double[]) array, 0, len, bytes, 0);
+            } else {
+                c.byte2double(bytes, 0, (double[]) array, 0, len);
+            }
+            break;
+        }
+    }
+
+    private static int bucket(int bytes) {
+        if (bytes < SMALL) {
+            return 0;
+        }
+        if (bytes < MEDIUM) {
+            return 1;
+        }
+        return 2;
+    }
+
+    public boolean bigEndian() {
+        return base.bigEndian();
+    }
+
+    public byte boolean2byte(boolean src) {
+        return base.boolean2byte(src);
+    }
+
+    public boolean byte2boolean(byte src) {
+        return base.byte2boolean(src);
+    }
+
+    public void boolean2byte(boolean[] src, int off, int len, byte[] dst,
+            int off2) {
+        base.boolean2byte(src, off, len, dst, off2);
+    }
+
+    public void byte2boolean(byte[] src, int index_src, boolean[] dst,
+            int index_dst, int len) {
+        base.byte2boolean(src, index_src, dst, index_dst, len);
+    }
+
+    public void char2byte(char src, byte[] dst, int off) {
+        base.char2byte(src, dst, off);
+    }
+
+    public char byte2char(byte[] src, int off) {
+        return base.byte2char(src, off);
+    }
+
+    public void short2byte(short src, byte[] dst, int off) {
+        base.short2byte(src, dst, off);
+    }
+
+    public short byte2short(byte[] src, int off) {
+        return base.byte2short(src, off);
+    }
+
+    public void int2byte(int src, byte[] dst, int off) {
+        base.int2byte(src, dst, off);
+    }
+
+    public int byte2int(byte[] src, int off) {
+        return base.byte2int(src, off);
+    }
+
+    public void long2byte(long src, byte[] dst, int off) {
+        base.long2byte(src, dst, off);
+    }
+
+    public long byte2long(byte[] src, int off) {
+        return base.byte2long(src, off);
+    }
+
+    public void float2byte(float src, byte[] dst, int off) {
+        base.float2byte(src, dst, off);
+    }
+
+    public float byte2float(byte[] src, int off) {
+        return base.byte2float(src, off);
+    }
+
+    public void double2byte(double src, byte[] dst, int off) {
+        base.double2byte(src, dst, off);
+    }
+
+    public double byte2double(byte[] src, int off) {
+        return base.byte2double(src, off);
+    }
+
+    public void char2byte(char[] src, int off, int len, byte[] dst,
+            int off2) {
+        to[CHAR][bucket(len * CHAR_SIZE)].char2byte(src, off, len, dst,
+                off2);
+    }
+
+    public void byte2char(byte[] src, int index_src, char[] dst,
+            int index_dst, int len) {
+        from[CHAR][bucket(len * CHAR_SIZE)].byte2char(src, index_src,
+                dst, index_dst, len);
+    }
+
+    public void short2byte(short[] src, int off, int len, byte[] dst,
+            int off2) {
+        to[SHORT][bucket(len * SHORT_SIZE)].short2byte(src, off, len, dst,
+                off2);
+    }
+
+    public void byte2short(byte[] src, int index_src, short[] dst,
+            int index_dst, int len) {
+        from[SHORT][bucket(len * SHORT_SIZE)].byte2short(src, index_src,
+                dst, index_dst, len);
+    }
+
+    public void int2byte(int[] src, int off, int len, byte[] dst,
+            int off2) {
+        to[INT][bucket(len * INT_SIZE)].int2byte(src, off, len, dst,
+                off2);
+    }
+
+    public void byte2int(byte[] src, int index_src, int[] dst,
+            int index_dst, int len) {
+        from[INT][bucket(len * INT_SIZE)].byte2int(src, index_src,
+                dst, index_dst, len);
+    }
+
+    public void long2byte(long[] src, int off, int len, byte[] dst,
+            int off2) {
+        to[LONG][bucket(len * LONG_SIZE)].long2byte(src, off, len, dst,
+                off2);
+    }
+
+    public void byte2long(byte[] src, int index_src, long[] dst,
+            int index_dst, int len) {
+        from[LONG][bucket(len * LONG_SIZE)].byte2long(src, index_src,
+                dst, index_dst, len);
+    }
+
+    public void float2byte(float[] src, int off, int len, byte[] dst,
+            int off2) {
+        to[FLOAT][bucket(len * FLOAT_SIZE)].float2byte(src, off, len, dst,
+                off2);
+    }
+
+    public void byte2float(byte[] src, int index_src, float[] dst,
+            int index_dst, int len) {
+        from[FLOAT][bucket(len * FLOAT_SIZE)].byte2float(src, index_src,
+                dst, index_dst, len);
+    }
+
+    public void double2byte(double[] src, int off, int len, byte[] dst,
+            int off2) {
+        to[DOUBLE][bucket(len * DOUBLE_SIZE)].double2byte(src, off, len, dst,
+                off2);
+    }
+
+    public void byte2double(byte[] src, int index_src, double[] dst,
+            int index_dst, int len) {
+        from[DOUBLE][bucket(len * DOUBLE_SIZE)].byte2double(src, index_src,
+                dst, index_dst, len);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io.nio;
+
+import ibis.io.Conversion;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Conversion to and from big-endian, based on byte array view
+ * {@link VarHandle}s. Each access reads or writes a complete primitive, which
+ * the JIT compiles to a single (possibly byte-swapping) load or store, instead
+ * of a sequence of shifts on single bytes.
+ */
+public class VarHandleBigConversion extends Conversion {
+
+    private static final VarHandle CHAR = MethodHandles
+            .byteArrayViewVarHandle(char[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle SHORT = MethodHandles
+            .byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle INT = MethodHandles
+            .byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle LONG = MethodHandles
+            .byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle FLOAT = MethodHandles
+            .byteArrayViewVarHandle(float[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final VarHandle DOUBLE = MethodHandles
+            .byteArrayViewVarHandle(double[].class, ByteOrder.BIG_ENDIAN);
+
+    public final boolean bigEndian() {
+        return true;
+    }
+
+    public final byte boolean2byte(boolean src) {
+        return (src ? (byte) 1 : (byte) 0);
+    }
+
+    public final boolean byte2boolean(byte src) {
+        return (src == (byte) 1);
+    }
+
+    public final void boolean2byte(boolean[] src, int off, int len, byte[] dst,
+            int off2) {
+        for (int i = 0; i < len; i++) {
+            dst[off2 + i] = (src[off + i] ? (byte) 1 : (byte) 0);
+        }
+    }
+
+    public final void byte2boolean(byte[] src, int index_src, boolean[] dst,
+            int index_dst, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[index_dst + i] = (src[index_src + i] == (byte) 1);
+        }
+    }
+
+    public final void char2byte(char src, byte[] dst, int off) {
+        CHAR.set(dst, off, src);
+    }
+
+    public final char byte2char(byte[] src, int off) {
+        return (char) CHAR.get(src, off);
+    }
+
+    public final void short2byte(short src, byte[] dst, int off) {
+        SHORT.set(dst, off, src);
+    }
+
+    public final short byte2short(byte[] src, int off) {
+        return (short) SHORT.get(src, off);
+    }
+
+    public final void int2byte(int src, byte[] dst, int off) {
+        INT.set(dst, off, src);
+    }
+
+    public final int byte2int(byte[] src, int off) {
+        return (int) INT.get(src, off);
+    }
+
+    public final void long2byte(long src, byte[] dst, int off) {
+        LONG.set(dst, off, src);
+    }
+
+    public final long byte2long(byte[] src, int off) {
+        return (long) LONG.get(src, off);
+    }
+
+    public final void float2byte(float src, byte[] dst, int off) {
+        FLOAT.set(dst, off, src);
+    }
+
+    public final float byte2float(byte[] src, int off) {
+        return (float) FLOAT.get(src, off);
+    }
+
+    public final void double2byte(double src, byte[] dst, int off) {
+        DOUBLE.set(dst, off, src);
+    }
+
+    public final double byte2double(byte[] src, int off) {
+        return (double) DOUBLE.get(src, off);
+    }
+
+    // functions from here to EOF not final so View*Conversion can
+    // override them.
+
+    public void char2byte(char[] src, int off, int len, byte[] dst,
+            int off2) {
+        for (int i = 0; i < len; i++) {
+            CHAR.set(dst, off2, src[off + i]);
+            off2 += CHAR_SIZE;
+        }
+    }
+
+    public void byte2char(byte[] src, int index_src, char[] dst,
+            int index_dst, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[index_dst + i] = (char) CHAR.get(src, index_src);
+            index_src += CHAR_SIZE;
+        }
+    }
+
+    public void short2byte(short[] src, int off, int len, byte[] dst,
+            int off2) {
+        for (int i = 0; i < len; i++) {
+            SHORT.set(dst, off2, src[off + i]);
+            off2 += SHORT_SIZE;
+        }
+    }
+
+    public void byte2short(byte[] src, int index_src, short[] dst,
+            int index_dst, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[index_dst + i] = (short) SHORT.get(src, index_src);
+            index_src += SHORT_SIZE;
+        }
+    }
+
+    public void int2byte(int[] src, int off, int len, byte[] dst,
+            int off2) {
+        for (int i = 0; i < len; i++) {
+            INT.set(dst, off2, src[off + i]);
+            off2 += INT_SIZE;
+        }
+    }
+
+    public void byte2int(byte[] src, int index_src, int[] dst,
+            int index_dst, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[index_dst + i] = (int) INT.get(src, index_src);
+            index_src += INT_SIZE;
+        }
+    }
+
+    public void long2byte(long[] src, int off, int len, byte[] dst,
+            int off2) {
+        for (int i = 0; i < len; i++) {
+            LONG.set(dst, off2, src[off + i]);
+            off2 += LONG_SIZE;
+        }
+    }
+
+    public void byte2long(byte[] src, int index_src, long[] dst,
+            int index_dst, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[index_dst + i] = (long) LONG.get(src, index_src);
+            index_src += LONG_SIZE;
+        }
+    }
+
+    public void float2byte(float[] src, int off, int len, byte[] dst,
+            int off2) {
+        for (int i = 0; i < len; i++) {
+            FLOAT.set(dst, off2, src[off + i]);
+            off2 += FLOAT_SIZE;
+        }
+    }
+
+    public void byte2float(byte[] src, int index_src, float[] dst,
+            int index_dst, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[index_dst + i] = (float) FLOAT.get(src, index_src);
+            index_src += FLOAT_SIZE;
+        }
+    }
+
+    public void double2byte(double[] src, int off, int len, byte[] dst,
+            int off2) {
+        for (int i = 0; i < len; i++) {
+            DOUBLE.set(dst, off2, src[off + i]);
+            off2 += DOUBLE_SIZE;
+        }
+    }
+
+    public void byte2double(byte[] src, int index_src, double[] dst,
+            int index_dst, int len) {
+        for (int i = 0; i < len; i++) {
+            dst[index_dst + i] = (double) DOUBLE.get(src, index_src);
+            index_src += DOUBLE_SIZE;
+        }
+    }
+}
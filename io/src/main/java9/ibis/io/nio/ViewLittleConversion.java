@@ -0,0 +1,100 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+/* $Id$ */
+
+package ibis.io.nio;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Conversion to and from little-endian that converts arrays with bulk
+ * operations on a typed view of the byte array, without the intermediate
+ * direct buffer of the Nio*Conversion classes. Creating the view costs a few
+ * objects per call, so this pays off for larger arrays only.
+ */
+public final class ViewLittleConversion extends VarHandleLittleConversion {
+
+    private static ByteBuffer wrap(byte[] b, int off, int len) {
+        return ByteBuffer.wrap(b, off, len).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void char2byte(char[] src, int off, int len, byte[] dst,
+            int off2) {
+        wrap(dst, off2, len * CHAR_SIZE).asCharBuffer().put(src, off, len);
+    }
+
+    public void byte2char(byte[] src, int index_src, char[] dst,
+            int index_dst, int len) {
+        wrap(src, index_src, len * CHAR_SIZE).asCharBuffer().get(dst,
+                index_dst, len);
+    }
+
+    public void short2byte(short[] src, int off, int len, byte[] dst,
+            int off2) {
+        wrap(dst, off2, len * SHORT_SIZE).asShortBuffer().put(src, off, len);
+    }
+
+    public void byte2short(byte[] src, int index_src, short[] dst,
+            int index_dst, int len) {
+        wrap(src, index_src, len * SHORT_SIZE).asShortBuffer().get(dst,
+                index_dst, len);
+    }
+
+    public void int2byte(int[] src, int off, int len, byte[] dst,
+            int off2) {
+        wrap(dst, off2, len * INT_SIZE).asIntBuffer().put(src, off, len);
+    }
+
+    public void byte2int(byte[] src, int index_src, int[] dst,
+            int index_dst, int len) {
+        wrap(src, index_src, len * INT_SIZE).asIntBuffer().get(dst,
+                index_dst, len);
+    }
+
+    public void long2byte(long[] src, int off, int len, byte[] dst,
+            int off2) {
+        wrap(dst, off2, len * LONG_SIZE).asLongBuffer().put(src, off, len);
+    }
+
+    public void byte2long(byte[] src, int index_src, long[] dst,
+            int index_dst, int len) {
+        wrap(src, index_src, len * LONG_SIZE).asLongBuffer().get(dst,
+                index_dst, len);
+    }
+
+    public void float2byte(float[] src, int off, int len, byte[] dst,
+            int off2) {
+        wrap(dst, off2, len * FLOAT_SIZE).asFloatBuffer().put(src, off, len);
+    }
+
+    public void byte2float(byte[] src, int index_src, float[] dst,
+            int index_dst, int len) {
+        wrap(src, index_src, len * FLOAT_SIZE).asFloatBuffer().get(dst,
+                index_dst, len);
+    }
+
+    public void double2byte(double[] src, int off, int len, byte[] dst,
+            int off2) {
+        wrap(dst, off2, len * DOUBLE_SIZE).asDoubleBuffer().put(src, off, len);
+    }
+
+    public void byte2double(byte[] src, int index_src, double[] dst,
+            int index_dst, int len) {
+        wrap(src, index_src, len * DOUBLE_SIZE).asDoubleBuffer().get(dst,
+                index_dst, len);
+    }
+}
@@ -409,36 +409,39 @@ public abstract class Ibis implements ibis.ipl.Ibis // , IbisMBean
         }
     }
 
-    synchronized void addSentPerIbis(long cnt,
-            ibis.ipl.ReceivePortIdentifier[] idents) {
+    /**
+     * Adds the bytes sent over a connection that is now closed.
+     */
+    void addSentPerIbis(long cnt, ibis.ipl.IbisIdentifier id) {
         if (sentBytesPerIbis == null) {
             return;
         }
-        for (ibis.ipl.ReceivePortIdentifier rp : idents) {
-            ibis.ipl.IbisIdentifier i = rp.ibisIdentifier();
-            Long oldval = sentBytesPerIbis.get(i);
-            if (oldval != null) {
-                cnt += oldval.longValue();
-            }
-            sentBytesPerIbis.put(i, new Long(cnt));
+        synchronized (sentBytesPerIbis) {
+            addBytes(sentBytesPerIbis, id, cnt);
         }
     }
 
-    synchronized void addReceivedPerIbis(long cnt,
-            ibis.ipl.SendPortIdentifier[] idents) {
+    /**
+     * Adds the bytes received over a connection that is now closed.
+     */
+    void addReceivedPerIbis(long cnt, ibis.ipl.IbisIdentifier id) {
         if (receivedBytesPerIbis == null) {
             return;
         }
-        for (ibis.ipl.SendPortIdentifier sp : idents) {
-            ibis.ipl.IbisIdentifier i = sp.ibisIdentifier();
-            Long oldval = receivedBytesPerIbis.get(i);
-            if (oldval != null) {
-                cnt += oldval.longValue();
-            }
-            receivedBytesPerIbis.put(i, new Long(cnt));
+        synchronized (receivedBytesPerIbis) {
+            addBytes(receivedBytesPerIbis, id, cnt);
         }
     }
 
+    static void addBytes(Map<ibis.ipl.IbisIdentifier, Long> map,
+            ibis.ipl.IbisIdentifier id, long cnt) {
+        Long oldval = map.get(id);
+        if (oldval != null) {
+            cnt += oldval.longValue();
+        }
+        map.put(id, cnt);
+    }
+
     // +++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
     // Public methods, may called by Ibis implementations.
     // +++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++++
@@ -781,21 +784,47 @@ public abstract class Ibis implements ibis.ipl.Ibis // , IbisMBean
     /*
      * @ibis.experimental
      */
-    public synchronized Map<ibis.ipl.IbisIdentifier, Long> getSentBytesPerIbis() {
+    public Map<ibis.ipl.IbisIdentifier, Long> getSentBytesPerIbis() {
         if (sentBytesPerIbis == null) {
             return null;
         }
-        return new HashMap<ibis.ipl.IbisIdentifier, Long>(sentBytesPerIbis);
+        // Closed connections are in the map, open connections are counted
+        // by the ports themselves.
+        HashMap<ibis.ipl.IbisIdentifier, Long> result;
+        synchronized (sentBytesPerIbis) {
+            result = new HashMap<ibis.ipl.IbisIdentifier, Long>(
+                    sentBytesPerIbis);
+        }
+        SendPort[] ports;
+        synchronized (this) {
+            ports = sendPorts.values().toArray(new SendPort[0]);
+        }
+        for (SendPort port : ports) {
+            port.getSentPerIbis(result);
+        }
+        return result;
     }
 
     /*
      * @ibis.experimental
      */
-    public synchronized Map<ibis.ipl.IbisIdentifier, Long> getReceivedBytesPerIbis() {
+    public Map<ibis.ipl.IbisIdentifier, Long> getReceivedBytesPerIbis() {
         if (receivedBytesPerIbis == null) {
             return null;
         }
-        return new HashMap<ibis.ipl.IbisIdentifier, Long>(receivedBytesPerIbis);
+        HashMap<ibis.ipl.IbisIdentifier, Long> result;
+        synchronized (receivedBytesPerIbis) {
+            result = new HashMap<ibis.ipl.IbisIdentifier, Long>(
+                    receivedBytesPerIbis);
+        }
+        ReceivePort[] ports;
+        synchronized (this) {
+            ports = receivePorts.values().toArray(new ReceivePort[0]);
+        }
+        for (ReceivePort port : ports) {
+            port.getReceivedPerIbis(result);
+        }
+        return result;
     }
 
     /*
@@ -48,6 +48,9 @@ public class ReadMessage implements ibis.ipl.ReadMessage {
 
     protected boolean finishCalledFromUpcall = false;
 
+    /** Set while the upcall for this message counts as a running upcall. */
+    boolean dispatched = false;
+
     public ReadMessage(SerializationInput in, ReceivePortConnectionInfo info) {
         this.in = in;
         this.info = info;
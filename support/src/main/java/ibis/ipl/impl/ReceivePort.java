@@ -23,6 +23,8 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
@@ -37,6 +39,7 @@ import ibis.ipl.MessageUpcall;
 import ibis.ipl.PortType;
 import ibis.ipl.ReceivePortConnectUpcall;
 import ibis.ipl.ReceiveTimedOutException;
+import ibis.util.TypedProperties;
 
 /**
  * Implementation of the {@link ibis.ipl.ReceivePort} interface, to be extended
@@ -49,6 +52,26 @@ public abstract class ReceivePort extends Manageable
     private static final Logger logger = LoggerFactory
             .getLogger("ibis.ipl.impl.ReceivePort");
 
+    private static final String CONCURRENT_UPCALLS = "ibis.receiveport.upcalls.concurrent";
+
+    private static final String NUMBERED_WAIT = "ibis.receiveport.numbered.wait";
+
+    private static final String[][] propertiesList = new String[][] {
+            { CONCURRENT_UPCALLS, "1",
+                    "Int: maximum number of message upcalls of a receive port"
+                            + " that run at the same time, for messages from"
+                            + " different connections. Messages arriving while"
+                            + " the maximum is reached are queued, and"
+                            + " dispatched in arrival order." },
+            { NUMBERED_WAIT, "0",
+                    "Int(milliseconds): when larger than 0, a receive port"
+                            + " with COMMUNICATION_NUMBERED delivers messages"
+                            + " in sequence number order: a message is held"
+                            + " back while another connection may still send"
+                            + " a lower number, but for at most this long."
+                            + " Only has effect when each connection is read"
+                            + " by a thread of its own." }, };
+
     // Possible results of a connection attempt.
 
     /** Connection attempt accepted. */
@@ -121,6 +144,9 @@ public abstract class ReceivePort extends Manageable
     /** The serialization for this receive port. */
     protected final String serialization;
 
+    /** Set when the serialization uses the compact format. */
+    protected final boolean compact;
+
     /** Set when this port is closed. */
     protected boolean closed = false;
 
@@ -136,6 +162,28 @@ public abstract class ReceivePort extends Manageable
     /** Properties. */
     protected final Properties properties;
 
+    /**
+     * Maximum number of upcalls running at the same time. When larger than 1,
+     * {@link #message} is not used for upcalls. An upcall that has finished
+     * its message no longer counts.
+     */
+    private final int maxUpcalls;
+
+    /** Number of upcalls currently running, when {@link #maxUpcalls} > 1. */
+    private int activeUpcalls = 0;
+
+    /** Ticket of the next message to arrive, for FIFO dispatching. */
+    private long arrivalTicket = 0;
+
+    /** Ticket of the next message to be dispatched. */
+    private long dispatchTicket = 0;
+
+    /**
+     * When larger than 0, the maximum time in milliseconds that a numbered
+     * message is held back to deliver messages in sequence number order.
+     */
+    private final long orderWait;
+
     private long nMessages = 0;
     private long messageBytes = 0;
     private long bytes = 0;
@@ -189,6 +237,18 @@ public abstract class ReceivePort extends Manageable
                 this.properties.setProperty(key, value);
             }
         }
+        if (upcall != null) {
+            maxUpcalls = Math.max(1, new TypedProperties(this.properties)
+                    .getIntProperty(CONCURRENT_UPCALLS, 1));
+        } else {
+            maxUpcalls = 1;
+        }
+        if (numbered && readsConnectionsConcurrently()) {
+            orderWait = Math.max(0, new TypedProperties(this.properties)
+                    .getLongProperty(NUMBERED_WAIT, 0));
+        } else {
+            orderWait = 0;
+        }
         if (type.hasCapability(PortType.SERIALIZATION_DATA)) {
             serialization = "data";
         } else if (type.hasCapability(PortType.SERIALIZATION_OBJECT_SUN)) {
@@ -200,6 +260,7 @@ public abstract class ReceivePort extends Manageable
         } else {
             serialization = "byte";
         }
+        compact = type.hasCapability(PortType.SERIALIZATION_COMPACT);
         ibis.register(this);
         if (logger.isDebugEnabled()) {
             logger.debug(ibis.ident + ": ReceivePort '" + name + "' created");
@@ -212,6 +273,46 @@ public abstract class ReceivePort extends Manageable
         addValidKey("ClosedConnections");
     }
 
+    /**
+     * Returns a map mapping hard-coded property names to their descriptions.
+     *
+     * @return the name/description map.
+     */
+    public static Map<String, String> getDescriptions() {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+
+        for (String[] element : propertiesList) {
+            result.put(element[0], element[2]);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a list of recognized properties.
+     *
+     * @return the list of properties
+     */
+    public static List<String> getPropertyNames() {
+        ArrayList<String> result = new ArrayList<String>();
+        for (String[] element : propertiesList) {
+            result.add(element[0]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns whether each connection of this port is read by a thread of its
+     * own, so that a message on one connection may wait for a message on
+     * another. Numbered messages are only delivered in sequence number order
+     * when this is the case. This version returns <code>true</code>.
+     *
+     * @return whether connections are read concurrently.
+     */
+    protected boolean readsConnectionsConcurrently() {
+        return true;
+    }
+
     protected ReadMessage createReadMessage(SerializationInput in,
             ReceivePortConnectionInfo info) {
         return new ReadMessage(in, info);
@@ -505,12 +606,31 @@ public abstract class ReceivePort extends Manageable
     public synchronized ReceivePortConnectionInfo removeInfo(
             SendPortIdentifier id) {
         ReceivePortConnectionInfo info = connections.remove(id);
-        if (connections.size() == 0) {
+        if (info != null) {
+            ibis.addReceivedPerIbis(info.messageBytes, id.ibisIdentifier());
+        }
+        if (connections.size() == 0 || orderWait > 0) {
+            // A message held back for this connection may now be delivered.
             notifyAll();
         }
         return info;
     }
 
+    /**
+     * Adds the bytes received over the current connections of this port to
+     * the specified per-Ibis totals.
+     * 
+     * @param totals
+     *            the totals.
+     */
+    synchronized void getReceivedPerIbis(
+            Map<ibis.ipl.IbisIdentifier, Long> totals) {
+        for (ReceivePortConnectionInfo info : connections.values()) {
+            Ibis.addBytes(totals, info.origin.ibisIdentifier(),
+                    info.messageBytes);
+        }
+    }
+
     /**
      * Returns an array with entries for each connection.
      * 
@@ -632,21 +752,146 @@ public abstract class ReceivePort extends Manageable
     }
 
     public void messageArrived(ReadMessage msg) {
+        if (maxUpcalls > 1) {
+            concurrentMessageArrived(msg);
+            return;
+        }
         // Wait until the previous message was finished.
         synchronized (this) {
-            while (message != null) {
+            long deadline = messageQueued(msg);
+            while (message != null || !inOrder(msg, deadline)) {
+                waitForOrder(deadline);
+            }
+            message = msg;
+            delivered = false;
+            messageTaken(msg);
+            notifyAll();
+        }
+        if (upcall != null) {
+            doUpcall(message);
+        }
+    }
+
+    /**
+     * Delivers a message when multiple upcalls may run at the same time. The
+     * message waits, in arrival order, until fewer than the maximum number of
+     * upcalls is running, and then its upcall is done by the calling thread.
+     * A connection delivers its next message only when the current one is
+     * finished, so messages from the same connection are still handled one by
+     * one, in order.
+     *
+     * @param msg
+     *            the message.
+     */
+    private void concurrentMessageArrived(ReadMessage msg) {
+        synchronized (this) {
+            long deadline = messageQueued(msg);
+            while (!inOrder(msg, deadline)) {
+                waitForOrder(deadline);
+            }
+            // Tickets are handed out in sequence number order now.
+            messageTaken(msg);
+            long ticket = arrivalTicket++;
+            while (ticket != dispatchTicket || activeUpcalls >= maxUpcalls) {
                 try {
                     wait();
                 } catch (InterruptedException e) {
                     // ignored.
                 }
             }
-            message = msg;
-            delivered = false;
+            dispatchTicket++;
+            activeUpcalls++;
+            msg.dispatched = true;
             notifyAll();
         }
-        if (upcall != null) {
-            doUpcall(message);
+        doUpcall(msg);
+    }
+
+    /**
+     * Records, with the lock held, that a message arrived. Until it is
+     * delivered, other connections do not get ahead of its sequence number.
+     *
+     * @param msg
+     *            the message.
+     * @return the time until which the message may be held back.
+     */
+    private long messageQueued(ReadMessage msg) {
+        if (orderWait == 0) {
+            return 0;
+        }
+        msg.getInfo().sequenceBound = msg.sequenceNr;
+        notifyAll();
+        return System.currentTimeMillis() + orderWait;
+    }
+
+    /**
+     * Records, with the lock held, that a message is being delivered. Later
+     * messages on its connection have a higher sequence number.
+     *
+     * @param msg
+     *            the message.
+     */
+    private void messageTaken(ReadMessage msg) {
+        if (orderWait > 0) {
+            msg.getInfo().sequenceBound = msg.sequenceNr + 1;
+        }
+    }
+
+    /**
+     * Returns, with the lock held, whether a message may be delivered as far
+     * as ordering is concerned: no other connection has, or may still send, a
+     * message with a lower sequence number, or the message waited long
+     * enough.
+     *
+     * @param msg
+     *            the message.
+     * @param deadline
+     *            the time until which the message may be held back.
+     * @return whether the message may be delivered.
+     */
+    private boolean inOrder(ReadMessage msg, long deadline) {
+        if (orderWait == 0) {
+            return true;
+        }
+        ReceivePortConnectionInfo from = msg.getInfo();
+        for (ReceivePortConnectionInfo info : connections.values()) {
+            if (info != from && info.sequenceBound < msg.sequenceNr) {
+                if (System.currentTimeMillis() < deadline) {
+                    return false;
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug(name + ": message " + msg.sequenceNr
+                            + " from " + from.origin
+                            + " delivered before " + info.origin
+                            + " sent a higher number");
+                }
+                return true;
+            }
+        }
+        return true;
+    }
+
+    // called with lock held
+    private void waitForOrder(long deadline) {
+        try {
+            long time = deadline - System.currentTimeMillis();
+            if (orderWait > 0 && time > 0) {
+                wait(time);
+            } else {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            // ignored.
+        }
+    }
+
+    // called with lock held
+    private void messageDone(ReadMessage r) {
+        if (r.dispatched) {
+            r.dispatched = false;
+            activeUpcalls--;
+        } else {
+            message = null;
         }
     }
 
@@ -659,18 +904,13 @@ public abstract class ReceivePort extends Manageable
      * @param cnt
      *            the byte count of this message.
      */
-    public void finishMessage(ReadMessage r, long cnt) {
-        ibis.ipl.SendPortIdentifier[] ports;
-        synchronized (this) {
-            ports = connectedTo();
-            nMessages++;
-            messageBytes += cnt;
-            message = null;
-            threadsInUpcallSet.remove(Thread.currentThread());
-            notifyAll();
-        }
-        // This outside the lock, otherwise deadlock.
-        ibis.addReceivedPerIbis(cnt, ports);
+    public synchronized void finishMessage(ReadMessage r, long cnt) {
+        nMessages++;
+        messageBytes += cnt;
+        r.getInfo().messageBytes += cnt;
+        messageDone(r);
+        threadsInUpcallSet.remove(Thread.currentThread());
+        notifyAll();
     }
 
     /**
@@ -685,7 +925,7 @@ public abstract class ReceivePort extends Manageable
      */
     public synchronized void finishMessage(ReadMessage r, IOException e) {
         r.getInfo().close(e);
-        message = null;
+        messageDone(r);
         threadsInUpcallSet.remove(Thread.currentThread());
         notifyAll();
     }
@@ -58,6 +58,16 @@ public class ReceivePortConnectionInfo {
 
     private long cnt = 0;
 
+    /** Bytes of the messages received over this connection. */
+    long messageBytes = 0;
+
+    /**
+     * Lowest sequence number that the next numbered message delivered from
+     * this connection can have. Only kept when the receive port delivers
+     * numbered messages in order.
+     */
+    long sequenceBound = 0;
+
     /**
      * Constructs a new <code>ReceivePortConnectionInfo</code> with the
      * specified parameters.
@@ -95,7 +105,8 @@ public class ReceivePortConnectionInfo {
      * This method must be called each time a connected sendport adds a new
      * connection. This new connection may either be to the current receiveport,
      * or to another one. In both cases, the serialization stream must be
-     * recreated.
+     * recreated. The new stream starts with its byte order, so this method
+     * blocks until the sender starts using it.
      * @exception IOException is thrown in case of trouble.
      */
     public void newStream() throws IOException {
@@ -103,8 +114,9 @@ public class ReceivePortConnectionInfo {
         if (in != null) {
             in.close();
         }
+        dataIn.readByteOrder();
         in = SerializationFactory.createSerializationInput(port.serialization,
-                dataIn, port.properties);
+                dataIn, port.properties, port.compact);
         message = port.createReadMessage(in, this);
     }
 
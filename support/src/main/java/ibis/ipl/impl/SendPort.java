@@ -60,13 +60,19 @@ public abstract class SendPort extends Manageable implements ibis.ipl.SendPort {
 
     private static final String ALLOW_CONN_IN_UPCALL = "ibis.upcall.connections";
 
+    private static final String ASYNC_SEND = "ibis.sendport.async";
+
     private static final String[][] propertiesList = new String[][] {
             { ALLOW_COMM_IN_UPCALL, "false",
                     "Boolean: when set, communication is allowed from inside upcalls,"
                             + " without first calling finish()." },
             { ALLOW_CONN_IN_UPCALL, "false",
                     "Boolean: when set, connection setup is allowed from inside upcalls,"
-                            + " without first calling finish()." }, };
+                            + " without first calling finish()." },
+            { ASYNC_SEND, "false",
+                    "Boolean: when set, WriteMessage.send() and full buffers are"
+                            + " handed to a sender thread, so that the application"
+                            + " can continue writing while the data drains." }, };
 
     /** The type of this port. */
     public final PortType type;
@@ -136,6 +142,14 @@ public abstract class SendPort extends Manageable implements ibis.ipl.SendPort {
      */
     private long messageBytes = 0;
 
+    /**
+     * Counts the same bytes as messageBytes, but is never reset. The bytes
+     * sent over a connection are the growth of this counter while the
+     * connection exists, so nothing needs to be counted per connection for
+     * each message.
+     */
+    private long perIbisBytes = 0;
+
     /**
      * The total number of bytes written for these messages. In contrast to
      * messageBytes, this one counts the number of bytes actually put on the
@@ -174,6 +188,13 @@ public abstract class SendPort extends Manageable implements ibis.ipl.SendPort {
      */
     private final boolean allowConnectionsInUpcall;
 
+    /**
+     * When set, the implementation should create a data output stream that
+     * writes asynchronously, so that {@link WriteMessage#send()} does not
+     * wait for the data to be written.
+     */
+    protected final boolean asyncSend;
+
     /**
      * Constructs a <code>SendPort</code> with the specified parameters. Note
      * that all property checks are already performed in the
@@ -233,6 +254,7 @@ public abstract class SendPort extends Manageable implements ibis.ipl.SendPort {
                 false);
         allowConnectionsInUpcall = tp.getBooleanProperty(ALLOW_CONN_IN_UPCALL,
                 false);
+        asyncSend = tp.getBooleanProperty(ASYNC_SEND, false);
         ibis.register(this);
         if (logger.isDebugEnabled()) {
             logger.debug(
@@ -359,8 +381,12 @@ public abstract class SendPort extends Manageable implements ibis.ipl.SendPort {
         } else {
             serialization = "byte";
         }
+        // Lets the receivers know the byte order of the new stream. When
+        // it matches their own, primitive arrays are copied, not converted.
+        dataOut.writeByteOrder();
         out = SerializationFactory.createSerializationOutput(serialization,
-                dataOut, properties);
+                dataOut, properties,
+                type.hasCapability(PortType.SERIALIZATION_COMPACT));
         if (replacer != null) {
             out.setReplacer(replacer);
         }
@@ -807,6 +833,7 @@ public abstract class SendPort extends Manageable implements ibis.ipl.SendPort {
      */
     private synchronized void addInfo(ReceivePortIdentifier id,
             SendPortConnectionInfo info) {
+        info.bytesAtConnect = perIbisBytes;
         receivers.put(id, info);
     }
 
@@ -819,7 +846,27 @@ public abstract class SendPort extends Manageable implements ibis.ipl.SendPort {
      */
     protected synchronized SendPortConnectionInfo removeInfo(
             ReceivePortIdentifier id) {
-        return receivers.remove(id);
+        SendPortConnectionInfo info = receivers.remove(id);
+        if (info != null) {
+            ibis.addSentPerIbis(perIbisBytes - info.bytesAtConnect,
+                    id.ibisIdentifier());
+        }
+        return info;
+    }
+
+    /**
+     * Adds the bytes sent over the current connections of this port to the
+     * specified per-Ibis totals.
+     *
+     * @param totals
+     *            the totals.
+     */
+    synchronized void getSentPerIbis(
+            Map<ibis.ipl.IbisIdentifier, Long> totals) {
+        for (SendPortConnectionInfo info : receivers.values()) {
+            Ibis.addBytes(totals, info.target.ibisIdentifier(), perIbisBytes
+                    - info.bytesAtConnect);
+        }
     }
 
     /**
@@ -843,28 +890,22 @@ public abstract class SendPort extends Manageable implements ibis.ipl.SendPort {
      * @throws IOException
      *             when an IO error occurs.
      */
-    protected void finishMessage(WriteMessage w, long cnt) throws IOException {
-        ibis.ipl.ReceivePortIdentifier[] ports = null;
-        try {
-            synchronized (this) {
-                aMessageIsAlive = false;
-                ports = connectedTo();
-                if (waitingForMessage > 0) {
-                    // NotifyAll, because we don't know who is waiting, and what
-                    // for.
-                    notifyAll();
-                }
-                nMessages++;
-                messageBytes += cnt;
-                bytes = prevBytes + totalWritten();
-                if (collectedExceptions != null) {
-                    IOException e = collectedExceptions;
-                    collectedExceptions = null;
-                    throw e;
-                }
-            }
-        } finally {
-            ibis.addSentPerIbis(cnt, ports);
+    protected synchronized void finishMessage(WriteMessage w, long cnt)
+            throws IOException {
+        aMessageIsAlive = false;
+        if (waitingForMessage > 0) {
+            // NotifyAll, because we don't know who is waiting, and what
+            // for.
+            notifyAll();
+        }
+        nMessages++;
+        messageBytes += cnt;
+        perIbisBytes += cnt;
+        bytes = prevBytes + totalWritten();
+        if (collectedExceptions != null) {
+            IOException e = collectedExceptions;
+            collectedExceptions = null;
+            throw e;
         }
     }
 
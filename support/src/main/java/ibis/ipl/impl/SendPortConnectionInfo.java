@@ -27,6 +27,9 @@ public abstract class SendPortConnectionInfo {
     /** The sendport of the connection. */
     public final SendPort port;
 
+    /** Bytes sent by the sendport before this connection was added. */
+    long bytesAtConnect;
+
     /**
      * Constructs a <code>SendPortConnectionInfo</code> with the specified parameters.
      * @param port the sendport.
@@ -61,6 +61,12 @@ public class WriteMessage implements ibis.ipl.WriteMessage {
 
     public int send() throws IOException {
         checkNotFinished();
+        try {
+            out.flush();
+            return port.dataOut.send();
+        } catch (Throwable e) {
+            throwException(e);
+        }
         return 0;
     }
 
@@ -85,7 +91,7 @@ public class WriteMessage implements ibis.ipl.WriteMessage {
     public void sync(int ticket) throws IOException {
         checkNotFinished();
         try {
-            out.flush();
+            port.dataOut.sync(ticket);
         } catch (Throwable e) {
             throwException(e);
         }
@@ -95,11 +101,20 @@ public class WriteMessage implements ibis.ipl.WriteMessage {
         checkNotFinished();
         try {
             out.flush();
+            drain();
         } catch (Throwable e) {
             throwException(e);
         }
     }
 
+    /**
+     * Waits until all data flushed so far has actually been written. This is
+     * a no-op unless the data output stream writes asynchronously.
+     */
+    private void drain() throws IOException {
+        port.dataOut.sync(port.dataOut.send());
+    }
+
     public void writeBoolean(boolean value) throws IOException {
         checkNotFinished();
         try {
@@ -382,6 +397,7 @@ public class WriteMessage implements ibis.ipl.WriteMessage {
         }
         try {
             out.flush();
+            drain();
         } catch (Throwable e) {
             throwException(e);
         }
@@ -404,6 +420,7 @@ public class WriteMessage implements ibis.ipl.WriteMessage {
 
         try {
             out.flush();
+            drain();
         } catch (Throwable e2) {
             // ignored
         }
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ibis.ipl.registry.central;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Serialized state of a pool at a certain event time, as sent to a joining
+ * ibis: the members, elections, and whether the pool is closed or terminated.
+ * The state is the same for every ibis bootstrapping at the same event time,
+ * so a snapshot can be created once and sent to all of them. Large snapshots
+ * are compressed.
+ *
+ * Signals are not part of the snapshot, as they depend on the join time of
+ * the receiver. They are sent after the snapshot.
+ */
+public final class PoolSnapshot {
+
+    private final int time;
+
+    private final boolean compressed;
+
+    private final byte[] data;
+
+    /**
+     * Creates a snapshot from the given (uncompressed) state.
+     *
+     * @param time
+     *            event time of the state
+     * @param state
+     *            the state
+     * @param compressionThreshold
+     *            the state is compressed if it is at least this large. A
+     *            negative value disables compression.
+     */
+    public PoolSnapshot(int time, byte[] state, int compressionThreshold)
+            throws IOException {
+        this.time = time;
+
+        if (compressionThreshold >= 0 && state.length >= compressionThreshold) {
+            ByteArrayOutputStream arrayOut = new ByteArrayOutputStream(
+                    state.length / 2);
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            DeflaterOutputStream deflaterOut = new DeflaterOutputStream(
+                    arrayOut, deflater);
+            deflaterOut.write(state);
+            deflaterOut.close();
+            deflater.end();
+            byte[] bytes = arrayOut.toByteArray();
+
+            if (bytes.length < state.length) {
+                compressed = true;
+                data = bytes;
+                return;
+            }
+        }
+        compressed = false;
+        data = state;
+    }
+
+    /**
+     * Reads a snapshot written with {@link #writeTo(DataOutputStream)}.
+     */
+    public PoolSnapshot(DataInputStream in) throws IOException {
+        time = in.readInt();
+        compressed = in.readBoolean();
+
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("negative pool state size");
+        }
+        data = new byte[size];
+        in.readFully(data);
+    }
+
+    public int getTime() {
+        return time;
+    }
+
+    /**
+     * Returns the size of this snapshot as sent over the network.
+     */
+    public int size() {
+        return data.length;
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(time);
+        out.writeBoolean(compressed);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    /**
+     * Returns a stream to read the (uncompressed) state from.
+     */
+    public DataInputStream getState() {
+        InputStream in = new ByteArrayInputStream(data);
+        if (compressed) {
+            in = new InflaterInputStream(in);
+        }
+        return new DataInputStream(in);
+    }
+}
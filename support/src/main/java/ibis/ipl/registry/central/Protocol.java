@@ -57,10 +57,15 @@ public final class Protocol {
 
     public static final byte OPCODE_GET_TOKEN = 16;
 
-    public static final int NR_OF_OPCODES = 17;
+    public static final byte OPCODE_CHANNEL = 17;
+
+    public static final byte OPCODE_SEQUENCE_NR_BLOCK = 18;
+
+    public static final int NR_OF_OPCODES = 19;
 
     public static final String[] OPCODE_NAMES = { "JOIN", "LEAVE", "GOSSIP",
             "ELECT", "SEQUENCE_NR", "DEAD", "MAYBE_DEAD", "SIGNAL", "PING",
             "PUSH", "BROADCAST", "FORWARD", "GET_STATE", "HEARTBEAT",
-            "TERMINATE", "ADD_TOKENS", "GET_TOKEN" };
+            "TERMINATE", "ADD_TOKENS", "GET_TOKEN", "CHANNEL",
+            "SEQUENCE_NR_BLOCK" };
 }
@@ -52,6 +52,14 @@ public class RegistryProperties {
     public static final String SERVER_CONNECT_TIMEOUT = PREFIX
             + "server.connect.timeout";
 
+    public static final String SERVER_CHANNEL = PREFIX + "server.channel";
+
+    public static final String SEQUENCE_NUMBER_BLOCK = PREFIX
+            + "sequence.number.block";
+
+    public static final String STATE_COMPRESSION_THRESHOLD = PREFIX
+            + "state.compression.threshold";
+
     public static final String STATISTICS = PREFIX + "statistics";
 
     public static final String STATISTICS_INTERVAL = PREFIX
@@ -110,6 +118,19 @@ public class RegistryProperties {
                     "10",
                     "Int(seconds): how long does the server attempt to connect to a client before giving up" },
 
+            { SERVER_CHANNEL, "true",
+                    "Boolean: send requests to the server over a single persistent connection, "
+                            + "instead of a new connection per request" },
+
+            { SEQUENCE_NUMBER_BLOCK, "1",
+                    "Int: number of consecutive sequence numbers obtained from the server at once. "
+                            + "Numbers stay unique and increase per ibis, but are no longer handed out "
+                            + "in global request order; see ibis.receiveport.numbered.wait" },
+
+            { STATE_COMPRESSION_THRESHOLD, "4096",
+                    "Int(bytes): pool state sent to a joining ibis is compressed if it is at least this large, "
+                            + "a negative value disables compression" },
+
             { STATISTICS, "false",
                     "Boolean: gather per-pool statistics at the server and save them to a file" },
 
@@ -63,6 +63,9 @@ final class CommunicationHandler implements Runnable {
 
     private final VirtualSocketAddress serverAddress;
 
+    // null if requests are not sent over a channel
+    private final ServerChannel channel;
+
     private final Pool pool;
 
     private final TypedProperties properties;
@@ -143,6 +146,13 @@ final class CommunicationHandler implements Runnable {
             throw new IOException("could not get address of server");
         }
 
+        if (properties.getBooleanProperty(RegistryProperties.SERVER_CHANNEL)) {
+            channel = new ServerChannel(serverAddress, virtualSocketFactory,
+                    timeout);
+        } else {
+            channel = null;
+        }
+
         if (logger.isDebugEnabled()) {
             logger.debug(
                     "local address = " + serverSocket.getLocalSocketAddress());
@@ -177,6 +187,22 @@ final class CommunicationHandler implements Runnable {
 
     }
 
+    /**
+     * Creates a connection for a single request to the server. If possible,
+     * the request is sent over the channel to the server, otherwise a new
+     * connection is set up.
+     *
+     * @param timeout
+     *            timeout for setting up a new connection
+     */
+    private Connection connectToServer(int timeout) throws IOException {
+        if (channel != null && channel.connect()) {
+            return new Connection(channel);
+        }
+        return new Connection(serverAddress, timeout, true,
+                virtualSocketFactory);
+    }
+
     synchronized IbisIdentifier getIdentifier() {
         return identifier;
     }
@@ -400,8 +426,7 @@ final class CommunicationHandler implements Runnable {
                     "could not bootstrap registry with any peer, trying server");
         }
 
-        Connection connection = new Connection(serverAddress, timeout, true,
-                virtualSocketFactory);
+        Connection connection = connectToServer(timeout);
         try {
             connection.out().writeByte(Protocol.MAGIC_BYTE);
             connection.out().writeByte(Protocol.OPCODE_GET_STATE);
@@ -430,8 +455,7 @@ final class CommunicationHandler implements Runnable {
             throws IOException {
         long start = System.currentTimeMillis();
 
-        Connection connection = new Connection(serverAddress, timeout, true,
-                virtualSocketFactory);
+        Connection connection = connectToServer(timeout);
 
         try {
             connection.out().writeByte(Protocol.MAGIC_BYTE);
@@ -467,8 +491,7 @@ final class CommunicationHandler implements Runnable {
     public void terminate() throws IOException {
         long start = System.currentTimeMillis();
 
-        Connection connection = new Connection(serverAddress, timeout, true,
-                virtualSocketFactory);
+        Connection connection = connectToServer(timeout);
 
         try {
             connection.out().writeByte(Protocol.MAGIC_BYTE);
@@ -507,8 +530,7 @@ final class CommunicationHandler implements Runnable {
         if (logger.isDebugEnabled()) {
             logger.debug("getting sequence number");
         }
-        Connection connection = new Connection(serverAddress, timeout, true,
-                virtualSocketFactory);
+        Connection connection = connectToServer(timeout);
 
         try {
             connection.out().writeByte(Protocol.MAGIC_BYTE);
@@ -541,6 +563,57 @@ final class CommunicationHandler implements Runnable {
         }
     }
 
+    /**
+     * Reserves a block of <code>count</code> consecutive sequence numbers.
+     *
+     * @return the first number of the block.
+     */
+    public long getSeqnoBlock(String name, int count) throws IOException {
+        long start = System.currentTimeMillis();
+
+        if (pool.isStopped()) {
+            throw new IOException(
+                    "cannot get sequence numbers, registry already stopped");
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("getting " + count + " sequence numbers");
+        }
+        Connection connection = connectToServer(timeout);
+
+        try {
+            connection.out().writeByte(Protocol.MAGIC_BYTE);
+            connection.out().writeByte(Protocol.OPCODE_SEQUENCE_NR_BLOCK);
+            getIdentifier().writeTo(connection.out());
+            connection.out().writeUTF(name);
+            connection.out().writeInt(count);
+            connection.out().flush();
+
+            connection.getAndCheckReply();
+
+            long result = connection.in().readLong();
+
+            connection.close();
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("sequence numbers = " + result + " - "
+                        + (result + count - 1));
+            }
+
+            heartbeat.resetDeadlines();
+            long end = System.currentTimeMillis();
+            if (statistics != null) {
+                statistics.add(Protocol.OPCODE_SEQUENCE_NR_BLOCK, end - start,
+                        connection.read(), connection.written(), false);
+            }
+
+            return result;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
     public void assumeDead(ibis.ipl.IbisIdentifier ibis) throws IOException {
         long start = System.currentTimeMillis();
 
@@ -553,8 +626,7 @@ final class CommunicationHandler implements Runnable {
             logger.debug("declaring " + ibis + " to be dead");
         }
 
-        Connection connection = new Connection(serverAddress, timeout, true,
-                virtualSocketFactory);
+        Connection connection = connectToServer(timeout);
 
         try {
             connection.out().writeByte(Protocol.MAGIC_BYTE);
@@ -595,8 +667,7 @@ final class CommunicationHandler implements Runnable {
             logger.debug("reporting " + ibis + " to possibly be dead");
         }
 
-        Connection connection = new Connection(serverAddress, timeout, true,
-                virtualSocketFactory);
+        Connection connection = connectToServer(timeout);
 
         try {
             connection.out().writeByte(Protocol.MAGIC_BYTE);
@@ -651,8 +722,7 @@ final class CommunicationHandler implements Runnable {
 
         Connection connection = null;
         try {
-            connection = new Connection(serverAddress, timeout, true,
-                    virtualSocketFactory);
+            connection = connectToServer(timeout);
 
             connection.out().writeByte(Protocol.MAGIC_BYTE);
             connection.out().writeByte(Protocol.OPCODE_HEARTBEAT);
@@ -691,8 +761,7 @@ final class CommunicationHandler implements Runnable {
 
         long start = System.currentTimeMillis();
 
-        Connection connection = new Connection(serverAddress, timeout, true,
-                virtualSocketFactory);
+        Connection connection = connectToServer(timeout);
 
         try {
             connection.out().writeByte(Protocol.MAGIC_BYTE);
@@ -736,8 +805,7 @@ final class CommunicationHandler implements Runnable {
             timeout = this.timeout;
         }
 
-        Connection connection = new Connection(serverAddress, (int) timeout,
-                true, virtualSocketFactory);
+        Connection connection = connectToServer((int) timeout);
 
         try {
             connection.out().writeByte(Protocol.MAGIC_BYTE);
@@ -1266,6 +1334,10 @@ final class CommunicationHandler implements Runnable {
     }
 
     void end() {
+        if (channel != null) {
+            channel.end();
+        }
+
         try {
             serverSocket.close();
         } catch (Exception e) {
@@ -1290,8 +1362,7 @@ final class CommunicationHandler implements Runnable {
         if (logger.isDebugEnabled()) {
             logger.debug("adding tokens");
         }
-        Connection connection = new Connection(serverAddress, timeout, true,
-                virtualSocketFactory);
+        Connection connection = connectToServer(timeout);
 
         try {
             connection.out().writeByte(Protocol.MAGIC_BYTE);
@@ -1327,8 +1398,7 @@ final class CommunicationHandler implements Runnable {
         if (logger.isDebugEnabled()) {
             logger.debug("getting token");
         }
-        Connection connection = new Connection(serverAddress, timeout, true,
-                virtualSocketFactory);
+        Connection connection = connectToServer(timeout);
 
         try {
             connection.out().writeByte(Protocol.MAGIC_BYTE);
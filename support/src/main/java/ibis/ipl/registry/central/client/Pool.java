@@ -26,12 +26,12 @@ import ibis.ipl.registry.central.EventList;
 import ibis.ipl.registry.central.ListMemberSet;
 import ibis.ipl.registry.central.Member;
 import ibis.ipl.registry.central.MemberSet;
+import ibis.ipl.registry.central.PoolSnapshot;
 import ibis.ipl.registry.central.RegistryProperties;
 import ibis.ipl.registry.central.TreeMemberSet;
 import ibis.ipl.registry.statistics.Statistics;
 import ibis.util.TypedProperties;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -79,6 +79,9 @@ final class Pool {
 
     private int time;
 
+    // state is compressed if at least this large, negative to disable
+    private final int compressionThreshold;
+
     Pool(IbisCapabilities capabilities, TypedProperties properties,
             Registry registry, Statistics statistics) {
         this.registry = registry;
@@ -133,6 +136,8 @@ final class Pool {
         heartbeatInterval = properties
                 .getIntProperty(RegistryProperties.HEARTBEAT_INTERVAL) * 1000;
 
+        compressionThreshold = properties
+                .getIntProperty(RegistryProperties.STATE_COMPRESSION_THRESHOLD);
     }
 
     synchronized Event[] getEventsFrom(int start) {
@@ -221,11 +226,17 @@ final class Pool {
     void init(DataInputStream stream) throws IOException {
         long start = System.currentTimeMillis();
         // copy over data first so we are not blocked while reading data
-        byte[] bytes = new byte[stream.readInt()];
-        stream.readFully(bytes);
+        PoolSnapshot snapshot = new PoolSnapshot(stream);
+
+        int nrOfSignals = stream.readInt();
+        if (nrOfSignals < 0) {
+            throw new IOException("negative number of signals");
+        }
 
-        DataInputStream in = new DataInputStream(
-                new ByteArrayInputStream(bytes));
+        ArrayList<Event> signals = new ArrayList<Event>();
+        for (int i = 0; i < nrOfSignals; i++) {
+            signals.add(new Event(stream));
+        }
 
         long read = System.currentTimeMillis();
 
@@ -242,22 +253,15 @@ final class Pool {
         	logger.debug("reading bootstrap state");
             }
 
-            time = in.readInt();
+            time = snapshot.getTime();
+
+            DataInputStream in = snapshot.getState();
 
             members.init(in);
 
             long membersDone = System.currentTimeMillis();
 
             elections.init(in);
-            int nrOfSignals = in.readInt();
-            if (nrOfSignals < 0) {
-                throw new IOException("negative number of signals");
-            }
-
-            ArrayList<Event> signals = new ArrayList<Event>();
-            for (int i = 0; i < nrOfSignals; i++) {
-                signals.add(new Event(in));
-            }
 
             closed = in.readBoolean();
             if (closed) {
@@ -319,40 +323,45 @@ final class Pool {
     void writeState(DataOutputStream out, int joinTime) throws IOException {
         ByteArrayOutputStream arrayOut = new ByteArrayOutputStream();
         DataOutputStream dataOut = new DataOutputStream(arrayOut);
+        int time;
+        Event[] signals;
 
         synchronized (this) {
             if (!initialized) {
                 throw new IOException("state not initialized yet");
             }
 
-            dataOut.writeInt(time);
+            time = this.time;
 
             members.writeTo(dataOut);
             elections.writeTo(dataOut);
 
-            Event[] signals = eventList.getSignalEvents(joinTime, time);
-            dataOut.writeInt(signals.length);
-            for (Event event : signals) {
-                event.writeTo(dataOut);
-            }
-
             dataOut.writeBoolean(closed);
             if (closed) {
-            	closeEvent.writeTo(out);
+            	closeEvent.writeTo(dataOut);
             }
             dataOut.writeBoolean(terminated);
             if (terminated) {
-            	terminateEvent.writeTo(out);
+            	terminateEvent.writeTo(dataOut);
             }
+
+            signals = eventList.getSignalEvents(joinTime, time);
         }
 
         dataOut.flush();
         dataOut.close();
-        byte[] bytes = arrayOut.toByteArray();
-        out.writeInt(bytes.length);
-        out.write(bytes);
+
+        PoolSnapshot snapshot = new PoolSnapshot(time, arrayOut.toByteArray(),
+                compressionThreshold);
+        snapshot.writeTo(out);
+
+        out.writeInt(signals.length);
+        for (Event event : signals) {
+            event.writeTo(out);
+        }
+
         if (logger.isDebugEnabled()) {
-            logger.debug("pool state size = " + bytes.length);
+            logger.debug("pool state size = " + snapshot.size());
         }
     }
     
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
@@ -72,6 +73,21 @@ public final class Registry extends ibis.ipl.registry.Registry {
 
     private final ArrayList<String> signals;
 
+    // number of sequence numbers fetched from the server at once
+    private final int sequenceNumberBlock;
+
+    // blocks of sequence numbers not handed out yet, per sequencer
+    private final Map<String, SequenceBlock> sequenceBlocks;
+
+    /**
+     * Range of sequence numbers reserved at the server.
+     */
+    private static final class SequenceBlock {
+        long next = 0;
+
+        long end = 0;
+    }
+
     /**
      * Creates a Central Registry.
      *
@@ -151,6 +167,10 @@ public final class Registry extends ibis.ipl.registry.Registry {
             }
         }
 
+        sequenceNumberBlock = Math.max(1, properties
+                .getIntProperty(RegistryProperties.SEQUENCE_NUMBER_BLOCK));
+        sequenceBlocks = new HashMap<String, SequenceBlock>();
+
         pool = new Pool(capabilities, properties, this, statistics);
 
         try {
@@ -380,7 +400,30 @@ public final class Registry extends ibis.ipl.registry.Registry {
                     "cannot send signals, registry already stopped");
         }
 
-        return communicationHandler.getSeqno(name);
+        if (sequenceNumberBlock == 1) {
+            return communicationHandler.getSeqno(name);
+        }
+
+        SequenceBlock block;
+        synchronized (sequenceBlocks) {
+            block = sequenceBlocks.get(name);
+            if (block == null) {
+                block = new SequenceBlock();
+                sequenceBlocks.put(name, block);
+            }
+        }
+
+        // Only threads using the same sequencer wait for the server. Numbers
+        // handed out here keep increasing, also across blocks, so the
+        // messages of a send port are still numbered in sending order.
+        synchronized (block) {
+            if (block.next == block.end) {
+                block.next = communicationHandler.getSeqnoBlock(name,
+                        sequenceNumberBlock);
+                block.end = block.next + sequenceNumberBlock;
+            }
+            return block.next++;
+        }
     }
 
     @Override
@@ -0,0 +1,400 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ibis.ipl.registry.central.client;
+
+import ibis.ipl.registry.central.Protocol;
+import ibis.ipl.support.Connection;
+import ibis.ipl.support.RemoteException;
+import ibis.smartsockets.virtual.VirtualSocketAddress;
+import ibis.smartsockets.virtual.VirtualSocketFactory;
+import ibis.util.ThreadPool;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent connection to the server, shared by all requests of this client.
+ * Every request is sent as a frame with a request id, and the server replies
+ * with a frame containing the same id, so multiple requests can be
+ * outstanding at the same time. The connection is set up when needed, and
+ * closed again when it has not been used for a while.
+ *
+ * If the server does not support channels, requests should be sent over a
+ * connection of their own, see {@link #connect()}.
+ */
+final class ServerChannel implements Connection.Channel {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(ServerChannel.class);
+
+    // close connection if it has not been used for this long
+    static final int IDLE_TIMEOUT = 60000;
+
+    // time to wait before trying to set up a channel again when the server
+    // closed the connection during the handshake
+    static final int RETRY_INTERVAL = 60000;
+
+    /**
+     * A request waiting for its reply.
+     */
+    private static final class Call {
+        boolean done = false;
+
+        byte[] reply = null;
+
+        IOException exception = null;
+    }
+
+    /**
+     * A single connection to the server, and the requests sent over it.
+     */
+    private final class Link implements Runnable {
+
+        final Connection connection;
+
+        final Map<Integer, Call> calls = new HashMap<Integer, Call>();
+
+        boolean closed = false;
+
+        long lastUsed = System.currentTimeMillis();
+
+        Link(Connection connection) {
+            this.connection = connection;
+            ThreadPool.createNew(this, "server channel reader");
+        }
+
+        public void run() {
+            DataInputStream in = connection.in();
+            try {
+                while (true) {
+                    int first;
+                    try {
+                        // only the first byte may time out, so a timeout
+                        // never leaves us halfway a reply
+                        first = in.read();
+                    } catch (SocketTimeoutException e) {
+                        if (closeIfIdle(this)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    if (first < 0) {
+                        throw new EOFException("server closed channel");
+                    }
+                    int requestID = (first << 24)
+                            | (in.readUnsignedByte() << 16)
+                            | (in.readUnsignedByte() << 8)
+                            | in.readUnsignedByte();
+
+                    int length = in.readInt();
+                    if (length < 0) {
+                        throw new IOException("negative reply size");
+                    }
+                    byte[] reply = new byte[length];
+                    in.readFully(reply);
+
+                    replyReceived(this, requestID, reply);
+                }
+            } catch (IOException e) {
+                failed(this, e);
+            }
+        }
+    }
+
+    private final VirtualSocketAddress serverAddress;
+
+    private final VirtualSocketFactory factory;
+
+    private final int timeout;
+
+    private Link link = null;
+
+    // set while a link is being set up, outside the lock
+    private boolean connecting = false;
+
+    private boolean supported = true;
+
+    // no channel is set up before this time
+    private long retryTime = 0;
+
+    private boolean ended = false;
+
+    private int nextRequestID = 0;
+
+    ServerChannel(VirtualSocketAddress serverAddress,
+            VirtualSocketFactory factory, int timeout) {
+        this.serverAddress = serverAddress;
+        this.factory = factory;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Makes sure a connection to the server is available.
+     *
+     * @return true if requests can be sent over this channel, false if the
+     *         server does not support channels, or the channel has been
+     *         ended.
+     * @throws IOException
+     *             if the server could not be reached.
+     */
+    boolean connect() throws IOException {
+        return getLink() != null;
+    }
+
+    private Link getLink() throws IOException {
+        synchronized (this) {
+            while (connecting && !ended) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // IGNORE
+                }
+            }
+
+            if (!supported || ended
+                    || System.currentTimeMillis() < retryTime) {
+                return null;
+            }
+
+            if (link != null) {
+                return link;
+            }
+
+            connecting = true;
+        }
+
+        // set up the connection without holding the lock, as this may take
+        // a while, and replies on the current link must still be handled.
+        Connection connection = null;
+        try {
+            connection = handshake();
+        } finally {
+            synchronized (this) {
+                connecting = false;
+                notifyAll();
+                if (connection != null) {
+                    if (ended) {
+                        connection.close();
+                        connection = null;
+                    } else {
+                        link = new Link(connection);
+                    }
+                }
+            }
+        }
+
+        if (connection == null) {
+            return null;
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("channel to server established");
+        }
+        return link;
+    }
+
+    /**
+     * Sets up a new connection to the server, and asks it to be used as a
+     * channel.
+     *
+     * @return the connection, or null if the server does not want to use it
+     *         as a channel.
+     */
+    private Connection handshake() throws IOException {
+        Connection connection = new Connection(serverAddress, timeout, true,
+                factory);
+        try {
+            connection.out().writeByte(Protocol.MAGIC_BYTE);
+            connection.out().writeByte(Protocol.OPCODE_CHANNEL);
+            connection.out().flush();
+
+            connection.getAndCheckReply();
+
+            connection.setTimeout(IDLE_TIMEOUT);
+        } catch (RemoteException e) {
+            // server replied with an error: it does not know about channels
+            connection.close();
+            if (logger.isInfoEnabled()) {
+                logger.info("server does not support channels, "
+                        + "using a connection per request: " + e);
+            }
+            synchronized (this) {
+                supported = false;
+            }
+            return null;
+        } catch (EOFException e) {
+            // Server closed the connection. Either it does not know about
+            // channels, or it is restarting. Try again later.
+            connection.close();
+            if (logger.isDebugEnabled()) {
+                logger.debug("server closed channel during setup, "
+                        + "using a connection per request for now: " + e);
+            }
+            synchronized (this) {
+                retryTime = System.currentTimeMillis() + RETRY_INTERVAL;
+            }
+            return null;
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    public byte[] call(byte[] request) throws IOException {
+        Call call = new Call();
+        Link link = getLink();
+        int requestID;
+
+        if (link == null) {
+            throw new IOException("channel to server not available");
+        }
+
+        synchronized (this) {
+            if (link.closed) {
+                throw new IOException("channel to server closed");
+            }
+            requestID = nextRequestID++;
+            link.calls.put(requestID, call);
+            link.lastUsed = System.currentTimeMillis();
+        }
+
+        try {
+            synchronized (link.connection) {
+                DataOutputStream out = link.connection.out();
+                out.writeInt(requestID);
+                out.writeInt(request.length);
+                out.write(request);
+                out.flush();
+            }
+        } catch (IOException e) {
+            failed(link, e);
+        }
+
+        boolean timedOut = false;
+
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (!call.done) {
+                long left = deadline - System.currentTimeMillis();
+                if (timeout > 0 && left <= 0) {
+                    timedOut = true;
+                    break;
+                }
+                try {
+                    wait(timeout > 0 ? left : 0);
+                } catch (InterruptedException e) {
+                    // IGNORE
+                }
+            }
+            link.lastUsed = System.currentTimeMillis();
+        }
+
+        if (timedOut) {
+            // The server, or the connection to it, is stuck. Give up on this
+            // link, which fails all calls on it, including this one.
+            failed(link, new SocketTimeoutException("no reply from server in "
+                    + timeout + " ms"));
+        }
+
+        synchronized (this) {
+            // the reply may have arrived just before the link failed
+            if (call.reply == null) {
+                throw new IOException("channel to server failed",
+                        call.exception);
+            }
+            return call.reply;
+        }
+    }
+
+    private synchronized void replyReceived(Link link, int requestID,
+            byte[] reply) {
+        Call call = link.calls.remove(requestID);
+        if (call == null) {
+            logger.warn("received reply for unknown request " + requestID);
+            return;
+        }
+        call.reply = reply;
+        call.done = true;
+        notifyAll();
+    }
+
+    private void failed(Link link, IOException exception) {
+        synchronized (this) {
+            if (link.closed) {
+                return;
+            }
+            if (logger.isDebugEnabled() && !ended) {
+                logger.debug("channel to server failed", exception);
+            }
+            remove(link);
+
+            for (Call call : link.calls.values()) {
+                call.exception = exception;
+                call.done = true;
+            }
+            link.calls.clear();
+            notifyAll();
+        }
+        // outside lock, closing may block on a pending write
+        link.connection.close();
+    }
+
+    private boolean closeIfIdle(Link link) {
+        synchronized (this) {
+            if (link.closed) {
+                return true;
+            }
+            if (!link.calls.isEmpty()
+                    || System.currentTimeMillis() - link.lastUsed < IDLE_TIMEOUT) {
+                return false;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("closing idle channel to server");
+            }
+            remove(link);
+        }
+        link.connection.close();
+        return true;
+    }
+
+    // called with lock held
+    private void remove(Link link) {
+        link.closed = true;
+        if (this.link == link) {
+            this.link = null;
+        }
+    }
+
+    void end() {
+        Link link;
+        synchronized (this) {
+            ended = true;
+            link = this.link;
+        }
+        if (link != null) {
+            failed(link, new IOException("registry ended"));
+        }
+    }
+}
@@ -68,6 +68,8 @@ public final class CentralRegistryService extends Thread
 
     private final int connectTimeout;
 
+    private final int compressionThreshold;
+
     private ServerConnectionHandler handler;
 
     private boolean stopped = false;
@@ -105,6 +107,9 @@ public final class CentralRegistryService extends Thread
         connectTimeout = typedProperties.getIntProperty(
                 RegistryProperties.SERVER_CONNECT_TIMEOUT) * 1000;
 
+        compressionThreshold = typedProperties.getIntProperty(
+                RegistryProperties.STATE_COMPRESSION_THRESHOLD);
+
         pools = new TreeMap<String, Pool>();
 
         // start handling connections
@@ -147,7 +152,7 @@ public final class CentralRegistryService extends Thread
                     gossipInterval, adaptGossipInterval, tree, closedWorld,
                     poolSize, keepStatistics, statisticsInterval,
                     connectTimeout, implementationVersion, printEvents,
-                    printErrors, purgeHistory);
+                    printErrors, purgeHistory, compressionThreshold);
             pools.put(poolName, result);
         }
 
@@ -36,6 +36,7 @@ import ibis.ipl.registry.central.EventList;
 import ibis.ipl.registry.central.ListMemberSet;
 import ibis.ipl.registry.central.Member;
 import ibis.ipl.registry.central.MemberSet;
+import ibis.ipl.registry.central.PoolSnapshot;
 import ibis.ipl.registry.central.Protocol;
 import ibis.ipl.registry.central.TreeMemberSet;
 import ibis.ipl.registry.statistics.Statistics;
@@ -101,7 +102,7 @@ final class Pool implements Runnable {
     // so the server can print them if so requested
     private final int[] eventStats;
 
-    private final Map<String, Integer> sequencers;
+    private final Map<String, Long> sequencers;
 
     private final Map<String, Integer> tokens;
 
@@ -117,13 +118,20 @@ final class Pool implements Runnable {
 
     private Event terminateEvent = null;
 
+    // state is compressed if at least this large, negative to disable
+    private final int compressionThreshold;
+
+    // state last sent to a joining ibis
+    private PoolSnapshot snapshot = null;
+
     Pool(String name, VirtualSocketFactory socketFactory, boolean peerBootstrap,
             long heartbeatInterval, long eventPushInterval, boolean gossip,
             long gossipInterval, boolean adaptGossipInterval, boolean tree,
             boolean closedWorld, int poolSize, boolean keepStatistics,
             long statisticsInterval, int connectTimeout,
             String implementationVersion, boolean printEvents,
-            boolean printErrors, boolean purgeHistory) {
+            boolean printErrors, boolean purgeHistory,
+            int compressionThreshold) {
         print("creating new pool: \"" + name + "\"");
 
         this.name = name;
@@ -139,6 +147,7 @@ final class Pool implements Runnable {
         this.printErrors = printErrors;
         this.purgeHistory = purgeHistory;
         this.connectTimeout = connectTimeout;
+        this.compressionThreshold = compressionThreshold;
 
         if (keepStatistics) {
             statistics = new Statistics(Protocol.OPCODE_NAMES);
@@ -151,7 +160,7 @@ final class Pool implements Runnable {
         currentEventTime = 0;
         minEventTime = 0;
         nextID = 0;
-        sequencers = new HashMap<String, Integer>();
+        sequencers = new HashMap<String, Long>();
         tokens = new HashMap<String, Integer>();
 
         events = new EventList();
@@ -406,42 +415,62 @@ final class Pool implements Runnable {
 
     public void writeState(DataOutputStream out, int joinTime)
             throws IOException {
+        PoolSnapshot snapshot;
+        Event[] signals;
+        byte[] state = null;
+        int time;
 
-        ByteArrayOutputStream arrayOut = new ByteArrayOutputStream();
-        DataOutputStream dataOut = new DataOutputStream(arrayOut);
-
-        // create byte array of data
         synchronized (this) {
-            dataOut.writeInt(currentEventTime);
+            time = currentEventTime;
+            snapshot = this.snapshot;
 
-            members.writeTo(dataOut);
-            elections.writeTo(dataOut);
+            // the snapshot is only valid for the time it was created at
+            if (snapshot == null || snapshot.getTime() != time) {
+                snapshot = null;
 
-            Event[] signals = events.getSignalEvents(joinTime,
-                    currentEventTime);
-            dataOut.writeInt(signals.length);
-            for (Event event : signals) {
-                event.writeTo(dataOut);
-            }
+                ByteArrayOutputStream arrayOut = new ByteArrayOutputStream();
+                DataOutputStream dataOut = new DataOutputStream(arrayOut);
+
+                members.writeTo(dataOut);
+                elections.writeTo(dataOut);
 
-            dataOut.writeBoolean(closed);
-            if (closed) {
-                closeEvent.writeTo(dataOut);
+                dataOut.writeBoolean(closed);
+                if (closed) {
+                    closeEvent.writeTo(dataOut);
+                }
+                dataOut.writeBoolean(terminated);
+                if (terminated) {
+                    terminateEvent.writeTo(dataOut);
+                }
+                dataOut.flush();
+                state = arrayOut.toByteArray();
             }
-            dataOut.writeBoolean(terminated);
-            if (terminated) {
-                terminateEvent.writeTo(dataOut);
+
+            signals = events.getSignalEvents(joinTime, time);
+        }
+
+        if (snapshot == null) {
+            // compress without holding the lock
+            snapshot = new PoolSnapshot(time, state, compressionThreshold);
+
+            synchronized (this) {
+                if (this.snapshot == null || this.snapshot.getTime() < time) {
+                    this.snapshot = snapshot;
+                }
             }
+        } else if (logger.isDebugEnabled()) {
+            logger.debug("reusing pool state of time " + time);
         }
 
-        dataOut.flush();
-        byte[] bytes = arrayOut.toByteArray();
+        snapshot.writeTo(out);
 
-        out.writeInt(bytes.length);
-        out.write(bytes);
+        out.writeInt(signals.length);
+        for (Event event : signals) {
+            event.writeTo(out);
+        }
 
         if (logger.isDebugEnabled()) {
-            logger.debug("pool state size = " + bytes.length);
+            logger.debug("pool state size = " + snapshot.size());
         }
     }
 
@@ -578,15 +607,24 @@ final class Pool implements Runnable {
     }
 
     synchronized long getSequenceNumber(String name) {
-        Integer currentValue = sequencers.get(name);
+        return getSequenceNumbers(name, 1);
+    }
+
+    /**
+     * Reserves a block of consecutive sequence numbers.
+     *
+     * @return the first number of the block.
+     */
+    synchronized long getSequenceNumbers(String name, int count) {
+        Long currentValue = sequencers.get(name);
 
         if (currentValue == null) {
-            currentValue = new Integer(0);
+            currentValue = 0L;
         }
 
-        int result = currentValue;
+        long result = currentValue;
 
-        sequencers.put(name, currentValue + 1);
+        sequencers.put(name, currentValue + count);
 
         return result;
     }
@@ -15,8 +15,12 @@
  */
 package ibis.ipl.registry.central.server;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.security.AccessControlException;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -53,6 +57,9 @@ final class ServerConnectionHandler implements Runnable {
 
     private int maxNrOfThreads = 0;
 
+    // open channels, closed when the server ends
+    private final Set<Connection> channels = new HashSet<Connection>();
+
     private ControlPolicy policy;
 
     ServerConnectionHandler(CentralRegistryService server,
@@ -254,6 +261,34 @@ final class ServerConnectionHandler implements Runnable {
 
     }
 
+    private Pool handleGetSequenceNumberBlock(Connection connection)
+            throws Exception {
+        IbisIdentifier identifier = new IbisIdentifier(connection.in());
+        String name = connection.in().readUTF();
+        int count = connection.in().readInt();
+
+        Pool pool = server.getPool(identifier.poolName());
+
+        if (pool == null) {
+            connection.closeWithError("pool not found");
+            throw new Exception("pool " + identifier.poolName() + " not found");
+        }
+
+        if (count < 1) {
+            connection.closeWithError("invalid sequence number block size: "
+                    + count);
+            throw new Exception("invalid sequence number block size: " + count);
+        }
+
+        long number = pool.getSequenceNumbers(name, count);
+
+        connection.sendOKReply();
+
+        connection.out().writeLong(number);
+        pool.gotHeartbeat(identifier);
+        return pool;
+    }
+
     private Pool handleAddTokens(Connection connection) throws Exception {
         IbisIdentifier identifier = new IbisIdentifier(connection.in());
         String name = connection.in().readUTF();
@@ -418,6 +453,17 @@ final class ServerConnectionHandler implements Runnable {
     }
 
     private synchronized void createThread() {
+        threadStarted();
+
+        // create new thread for next connection
+        ThreadPool.createNew(this, "server connection handler");
+    }
+
+    /**
+     * Waits until less than MAX_THREADS threads are handling connections or
+     * channel requests, and counts a new one.
+     */
+    private synchronized void threadStarted() {
         while (currentNrOfThreads >= MAX_THREADS) {
             try {
                 wait();
@@ -426,8 +472,6 @@ final class ServerConnectionHandler implements Runnable {
             }
         }
 
-        // create new thread for next connection
-        ThreadPool.createNew(this, "server connection handler");
         currentNrOfThreads++;
 
         if (currentNrOfThreads > maxNrOfThreads) {
@@ -480,60 +524,17 @@ final class ServerConnectionHandler implements Runnable {
         byte opcode = 0;
         Pool pool = null;
         try {
-            byte magic = connection.in().readByte();
+            opcode = readOpcode(connection);
 
-            if (magic != Protocol.MAGIC_BYTE) {
-                throw new IOException(
-                        "Invalid header byte in accepting connection");
-            }
-
-            opcode = connection.in().readByte();
-
-            if (logger.isDebugEnabled() && opcode < Protocol.NR_OF_OPCODES) {
-                logger.debug("got request, opcode = "
-                        + Protocol.OPCODE_NAMES[opcode]);
+            if (opcode == Protocol.OPCODE_CHANNEL) {
+                // a channel stays open for as long as the client uses it, so
+                // it does not count as a connection handling thread
+                threadEnded();
+                handleChannel(connection);
+                return;
             }
 
-            switch (opcode) {
-            case Protocol.OPCODE_JOIN:
-                pool = handleJoin(connection);
-                break;
-            case Protocol.OPCODE_LEAVE:
-                pool = handleLeave(connection);
-                break;
-            case Protocol.OPCODE_ELECT:
-                pool = handleElect(connection);
-                break;
-            case Protocol.OPCODE_SEQUENCE_NR:
-                pool = handleGetSequenceNumber(connection);
-                break;
-            case Protocol.OPCODE_DEAD:
-                pool = handleDead(connection);
-                break;
-            case Protocol.OPCODE_MAYBE_DEAD:
-                pool = handleMaybeDead(connection);
-                break;
-            case Protocol.OPCODE_SIGNAL:
-                pool = handleSignal(connection);
-                break;
-            case Protocol.OPCODE_GET_STATE:
-                pool = handleGetState(connection);
-                break;
-            case Protocol.OPCODE_HEARTBEAT:
-                pool = handleHeartbeat(connection);
-                break;
-            case Protocol.OPCODE_TERMINATE:
-                pool = handleTerminate(connection);
-                break;
-            case Protocol.OPCODE_ADD_TOKENS:
-                pool = handleAddTokens(connection);
-                break;
-            case Protocol.OPCODE_GET_TOKEN:
-                pool = handleGetToken(connection);
-                break;
-            default:
-                logger.error("unknown opcode: " + opcode);
-            }
+            pool = handleRequest(connection, opcode);
         } catch (Exception e) {
             // send error to client
             connection.closeWithError("Server: " + e.getMessage());
@@ -542,6 +543,64 @@ final class ServerConnectionHandler implements Runnable {
             connection.close();
         }
 
+        requestDone(connection, opcode, pool, start);
+        threadEnded();
+    }
+
+    private byte readOpcode(Connection connection) throws IOException {
+        byte magic = connection.in().readByte();
+
+        if (magic != Protocol.MAGIC_BYTE) {
+            throw new IOException(
+                    "Invalid header byte in accepting connection");
+        }
+
+        byte opcode = connection.in().readByte();
+
+        if (logger.isDebugEnabled() && opcode < Protocol.NR_OF_OPCODES) {
+            logger.debug("got request, opcode = "
+                    + Protocol.OPCODE_NAMES[opcode]);
+        }
+        return opcode;
+    }
+
+    private Pool handleRequest(Connection connection, byte opcode)
+            throws Exception {
+        switch (opcode) {
+        case Protocol.OPCODE_JOIN:
+            return handleJoin(connection);
+        case Protocol.OPCODE_LEAVE:
+            return handleLeave(connection);
+        case Protocol.OPCODE_ELECT:
+            return handleElect(connection);
+        case Protocol.OPCODE_SEQUENCE_NR:
+            return handleGetSequenceNumber(connection);
+        case Protocol.OPCODE_DEAD:
+            return handleDead(connection);
+        case Protocol.OPCODE_MAYBE_DEAD:
+            return handleMaybeDead(connection);
+        case Protocol.OPCODE_SIGNAL:
+            return handleSignal(connection);
+        case Protocol.OPCODE_GET_STATE:
+            return handleGetState(connection);
+        case Protocol.OPCODE_HEARTBEAT:
+            return handleHeartbeat(connection);
+        case Protocol.OPCODE_TERMINATE:
+            return handleTerminate(connection);
+        case Protocol.OPCODE_ADD_TOKENS:
+            return handleAddTokens(connection);
+        case Protocol.OPCODE_GET_TOKEN:
+            return handleGetToken(connection);
+        case Protocol.OPCODE_SEQUENCE_NR_BLOCK:
+            return handleGetSequenceNumberBlock(connection);
+        default:
+            logger.error("unknown opcode: " + opcode);
+            return null;
+        }
+    }
+
+    private void requestDone(Connection connection, byte opcode, Pool pool,
+            long start) {
         if (pool != null) {
             if (pool.getStatistics() != null) {
                 pool.getStatistics().add(opcode,
@@ -556,7 +615,97 @@ final class ServerConnectionHandler implements Runnable {
                 pool.saveStatistics();
             }
         }
-        threadEnded();
+    }
+
+    /**
+     * Handles a channel: a connection a client keeps open to send all its
+     * requests over. Requests are framed with a request id, and are each
+     * handled in a thread of their own, so a slow request does not hold up
+     * the others. These threads count against MAX_THREADS, like the ones
+     * handling a connection. While none is available, no more requests are
+     * read from the channel. The reply is sent back with the same request id.
+     */
+    private void handleChannel(final Connection channel) {
+        synchronized (this) {
+            channels.add(channel);
+        }
+        try {
+            channel.sendOKReply();
+
+            while (true) {
+                final int requestID = channel.in().readInt();
+                int length = channel.in().readInt();
+                if (length < 0) {
+                    throw new IOException("negative request size");
+                }
+                final byte[] request = new byte[length];
+                channel.in().readFully(request);
+
+                threadStarted();
+                ThreadPool.createNew(new Runnable() {
+                    public void run() {
+                        try {
+                            handleChannelRequest(channel, requestID, request);
+                        } finally {
+                            threadEnded();
+                        }
+                    }
+                }, "server channel request handler");
+            }
+        } catch (EOFException e) {
+            if (logger.isDebugEnabled()) {
+                logger.debug("channel closed by client");
+            }
+        } catch (IOException e) {
+            if (!server.isStopped()) {
+                logger.debug("error on reading from channel", e);
+            }
+        } finally {
+            synchronized (this) {
+                channels.remove(channel);
+            }
+            channel.close();
+        }
+    }
+
+    private void handleChannelRequest(Connection channel, int requestID,
+            byte[] request) {
+        long start = System.currentTimeMillis();
+
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        Connection connection = new Connection(request, reply);
+
+        byte opcode = 0;
+        Pool pool = null;
+        try {
+            opcode = readOpcode(connection);
+
+            if (opcode == Protocol.OPCODE_CHANNEL) {
+                throw new IOException("channel requested inside channel");
+            }
+
+            pool = handleRequest(connection, opcode);
+        } catch (Exception e) {
+            // send error to client
+            connection.closeWithError("Server: " + e.getMessage());
+            logger.error("error on handling request", e);
+        } finally {
+            connection.close();
+        }
+
+        try {
+            synchronized (channel) {
+                channel.out().writeInt(requestID);
+                channel.out().writeInt(reply.size());
+                reply.writeTo(channel.out());
+                channel.out().flush();
+            }
+        } catch (IOException e) {
+            // reader will notice as well
+            channel.close();
+        }
+
+        requestDone(connection, opcode, pool, start);
     }
 
     public void end() {
@@ -565,6 +714,14 @@ final class ServerConnectionHandler implements Runnable {
         } catch (Exception e) {
             // IGNORE
         }
+
+        Connection[] channels;
+        synchronized (this) {
+            channels = this.channels.toArray(new Connection[0]);
+        }
+        for (Connection channel : channels) {
+            channel.close();
+        }
         if (logger.isInfoEnabled()) {
             synchronized (this) {
                 logger.debug(
@@ -17,9 +17,12 @@ package ibis.ipl.support;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.HashMap;
 
 import org.slf4j.Logger;
@@ -44,6 +47,65 @@ public final class Connection {
     private static final Logger logger = LoggerFactory
             .getLogger(Connection.class);
 
+    /**
+     * A channel which sends a complete request, and returns the complete
+     * reply. Used to send requests over a connection that is shared with
+     * other requests.
+     */
+    public interface Channel {
+        byte[] call(byte[] request) throws IOException;
+    }
+
+    /**
+     * Input stream which sends the request on the first read, and then
+     * returns the reply.
+     */
+    private static final class ReplyInputStream extends InputStream {
+
+        private final Channel channel;
+
+        private final DataOutputStream request;
+
+        private final ByteArrayOutputStream requestBytes;
+
+        private InputStream reply = null;
+
+        ReplyInputStream(Channel channel, DataOutputStream request,
+                ByteArrayOutputStream requestBytes) {
+            this.channel = channel;
+            this.request = request;
+            this.requestBytes = requestBytes;
+        }
+
+        private InputStream reply() throws IOException {
+            if (reply == null) {
+                request.flush();
+                reply = new ByteArrayInputStream(channel.call(requestBytes
+                        .toByteArray()));
+            }
+            return reply;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return reply().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return reply().read(b, off, len);
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (reply == null) {
+                return 0;
+            }
+            return reply.available();
+        }
+    }
+
+    // null if this connection only exists in memory
     private final VirtualSocket socket;
 
     private final DataOutputStream out;
@@ -129,6 +191,55 @@ public final class Connection {
         }
     }
 
+    /**
+     * Creates a connection which sends its request over the given channel.
+     * Everything written is buffered, and sent as a single request when the
+     * reply is first read.
+     * 
+     * @param channel
+     *            the channel to send the request over
+     */
+    public Connection(Channel channel) {
+        socket = null;
+
+        ByteArrayOutputStream requestBytes = new ByteArrayOutputStream();
+        out = new DataOutputStream(requestBytes);
+        counter = new CountInputStream(new ReplyInputStream(channel, out,
+                requestBytes));
+        in = new DataInputStream(counter);
+    }
+
+    /**
+     * Creates a connection which reads the given request, and collects the
+     * reply in memory. Used to handle requests received over a channel.
+     * 
+     * @param request
+     *            the request
+     * @param reply
+     *            the stream the reply is written to
+     */
+    public Connection(byte[] request, ByteArrayOutputStream reply) {
+        socket = null;
+
+        counter = new CountInputStream(new ByteArrayInputStream(request));
+        in = new DataInputStream(counter);
+        out = new DataOutputStream(reply);
+    }
+
+    /**
+     * Sets the timeout of reads from this connection.
+     * 
+     * @param timeout
+     *            the timeout in milliseconds, 0 means no timeout
+     * @throws IOException
+     *             when an IO error occurs
+     */
+    public void setTimeout(int timeout) throws IOException {
+        if (socket != null) {
+            socket.setSoTimeout(timeout);
+        }
+    }
+
     public DataOutputStream out() {
         return out;
     }
@@ -220,6 +331,10 @@ public final class Connection {
             // IGNORE
         }
 
+        if (socket == null) {
+            return;
+        }
+
         try {
             socket.close();
         } catch (IOException e) {
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ibis.ipl.util.rpc;
+
+import ibis.ipl.Ibis;
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.PortType;
+import ibis.ipl.SendPort;
+import ibis.util.ThreadPool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of connected send ports, one per destination receive port. Ports that
+ * have not been used for {@link RPC#CONNECTION_IDLE_TIMEOUT} milliseconds are
+ * closed by a background thread, which only runs while the cache is not empty.
+ */
+final class PortCache implements Runnable {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(PortCache.class);
+
+	/**
+	 * A (possibly not yet) connected send port.
+	 */
+	static final class Entry {
+		private final Key key;
+
+		private SendPort sendPort = null;
+
+		private int users = 0;
+
+		private long lastUsed;
+
+		// set when the port must be closed as soon as it is not in use
+		private boolean closeOnRelease = false;
+
+		// set when the entry is no longer in the cache
+		private boolean removed = false;
+
+		private Entry(Key key) {
+			this.key = key;
+		}
+
+		SendPort sendPort() {
+			return sendPort;
+		}
+	}
+
+	private static final class Key {
+		private final IbisIdentifier ibisIdentifier;
+
+		private final String name;
+
+		Key(IbisIdentifier ibisIdentifier, String name) {
+			this.ibisIdentifier = ibisIdentifier;
+			this.name = name;
+		}
+
+		public int hashCode() {
+			return ibisIdentifier.hashCode() ^ name.hashCode();
+		}
+
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key o = (Key) other;
+			return name.equals(o.name)
+					&& ibisIdentifier.equals(o.ibisIdentifier);
+		}
+
+		public String toString() {
+			return name + "@" + ibisIdentifier;
+		}
+	}
+
+	private final Ibis ibis;
+
+	private final PortType portType;
+
+	private final HashMap<Key, Entry> entries = new HashMap<Key, Entry>();
+
+	private boolean evictorRunning = false;
+
+	private boolean closed = false;
+
+	PortCache(Ibis ibis, PortType portType) {
+		this.ibis = ibis;
+		this.portType = portType;
+	}
+
+	/**
+	 * Returns a send port connected to the given receive port, connecting a
+	 * new one if there is none in the cache. The entry must be handed back
+	 * with {@link #release(Entry)} or {@link #discard(Entry)}.
+	 */
+	Entry get(IbisIdentifier ibisIdentifier, String name) throws IOException {
+		Key key = new Key(ibisIdentifier, name);
+
+		while (true) {
+			Entry entry;
+
+			synchronized (this) {
+				if (closed) {
+					throw new IOException("port cache closed");
+				}
+				entry = entries.get(key);
+				if (entry == null) {
+					entry = new Entry(key);
+					entries.put(key, entry);
+				}
+				entry.users++;
+				entry.lastUsed = System.currentTimeMillis();
+				if (!evictorRunning) {
+					evictorRunning = true;
+					ThreadPool.createNew(this, "RPC port cache evictor");
+				}
+			}
+
+			// Connect outside of the cache lock, so that a slow connection
+			// setup only holds up callers for the same destination.
+			synchronized (entry) {
+				if (entry.sendPort != null) {
+					return entry;
+				}
+				synchronized (this) {
+					if (entry.removed) {
+						// Removed while we waited, for instance because
+						// another caller failed to connect. Nothing would
+						// close a port connected now, so start over.
+						entry.users--;
+						continue;
+					}
+				}
+				SendPort sendPort = ibis.createSendPort(portType);
+				try {
+					sendPort.connect(ibisIdentifier, name);
+				} catch (IOException e) {
+					try {
+						sendPort.close();
+					} catch (IOException e2) {
+						// ignored
+					}
+					discard(entry);
+					throw e;
+				}
+				entry.sendPort = sendPort;
+				if (logger.isDebugEnabled()) {
+					logger.debug("connected to " + key);
+				}
+				return entry;
+			}
+		}
+	}
+
+	/**
+	 * Hands back an entry obtained with {@link #get(IbisIdentifier, String)}.
+	 */
+	void release(Entry entry) {
+		synchronized (this) {
+			entry.users--;
+			entry.lastUsed = System.currentTimeMillis();
+			if (!entry.closeOnRelease || entry.users > 0) {
+				return;
+			}
+		}
+		close(entry);
+	}
+
+	/**
+	 * Removes the port connected to the given receive port from the cache,
+	 * and closes it as soon as it is no longer in use.
+	 */
+	void disconnect(IbisIdentifier ibisIdentifier, String name) {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.remove(new Key(ibisIdentifier, name));
+			if (entry == null) {
+				return;
+			}
+			entry.removed = true;
+			if (entry.users > 0) {
+				entry.closeOnRelease = true;
+				return;
+			}
+		}
+		close(entry);
+	}
+
+	/**
+	 * Hands back an entry whose port failed. The port is closed and removed
+	 * from the cache.
+	 */
+	void discard(Entry entry) {
+		synchronized (this) {
+			entry.users--;
+			if (entries.get(entry.key) == entry) {
+				entries.remove(entry.key);
+			}
+			entry.removed = true;
+		}
+		close(entry);
+	}
+
+	private void close(Entry entry) {
+		SendPort sendPort;
+		synchronized (entry) {
+			sendPort = entry.sendPort;
+			entry.sendPort = null;
+		}
+		if (sendPort != null) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("closing connection to " + entry.key);
+			}
+			try {
+				sendPort.close();
+			} catch (IOException e) {
+				// ignored
+			}
+		}
+	}
+
+	/**
+	 * Closes all cached ports.
+	 */
+	void close() {
+		ArrayList<Entry> toClose;
+		synchronized (this) {
+			closed = true;
+			toClose = new ArrayList<Entry>(entries.values());
+			for (Entry entry : toClose) {
+				entry.removed = true;
+			}
+			entries.clear();
+			notifyAll();
+		}
+		for (Entry entry : toClose) {
+			close(entry);
+		}
+	}
+
+	public void run() {
+		while (true) {
+			ArrayList<Entry> idle = new ArrayList<Entry>();
+			synchronized (this) {
+				if (closed || entries.isEmpty()) {
+					evictorRunning = false;
+					return;
+				}
+				try {
+					wait(RPC.CONNECTION_IDLE_TIMEOUT / 2);
+				} catch (InterruptedException e) {
+					// ignored
+				}
+				long now = System.currentTimeMillis();
+				for (Iterator<Entry> i = entries.values().iterator(); i
+						.hasNext();) {
+					Entry entry = i.next();
+					if (entry.users == 0
+							&& now - entry.lastUsed >= RPC.CONNECTION_IDLE_TIMEOUT) {
+						i.remove();
+						entry.removed = true;
+						idle.add(entry);
+					}
+				}
+			}
+			for (Entry entry : idle) {
+				close(entry);
+			}
+		}
+	}
+}
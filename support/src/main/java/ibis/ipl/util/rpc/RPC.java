@@ -38,7 +38,8 @@ public class RPC {
 	 */
 	public static final PortType rpcRequestPortType = new PortType(
 			PortType.COMMUNICATION_RELIABLE, PortType.SERIALIZATION_OBJECT,
-			PortType.RECEIVE_AUTO_UPCALLS, PortType.CONNECTION_MANY_TO_ONE);
+			PortType.RECEIVE_AUTO_UPCALLS, PortType.CONNECTION_MANY_TO_ONE,
+			PortType.CONNECTION_UPCALLS);
 
 	/**
 	 * Port type used for sending a reply back. Must be added to port type of
@@ -46,7 +47,7 @@ public class RPC {
 	 */
 	public static final PortType rpcReplyPortType = new PortType(
 			PortType.COMMUNICATION_RELIABLE, PortType.SERIALIZATION_OBJECT,
-			PortType.RECEIVE_EXPLICIT, PortType.CONNECTION_ONE_TO_ONE);
+			PortType.RECEIVE_AUTO_UPCALLS, PortType.CONNECTION_MANY_TO_ONE);
 
 	/**
 	 * Port type used in RPC. Must be added to port type of Ibis used for RPC
@@ -54,6 +55,12 @@ public class RPC {
 	public static final PortType[] rpcPortTypes = { rpcRequestPortType,
 			rpcReplyPortType };
 
+	/**
+	 * Connections for requests and replies are cached, and closed after they
+	 * have not been used for this many milliseconds.
+	 */
+	public static final long CONNECTION_IDLE_TIMEOUT = 10000;
+
 	/**
 	 * Exports an object, making it remotely accessible. Creates an IPL
 	 * ReceivePort to receive messages/calls for the object.
@@ -150,4 +157,16 @@ public class RPC {
 
 		return result;
 	}
+
+	/**
+	 * Closes the cached connections and the reply port used by the proxies of
+	 * the given Ibis. Calls that are still waiting for a reply will fail. Any
+	 * later call through a proxy sets up new connections.
+	 * 
+	 * @param ibis
+	 *            the ibis used by the proxies.
+	 */
+	public static void closeConnections(Ibis ibis) {
+		RPCClient.close(ibis);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2010 Vrije Universiteit
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ibis.ipl.util.rpc;
+
+import ibis.ipl.Ibis;
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.MessageUpcall;
+import ibis.ipl.ReadMessage;
+import ibis.ipl.ReceivePort;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.WeakHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Client side of RPC, shared by all proxies of an Ibis. Requests are sent over
+ * cached connections to the remote objects. All replies arrive at a single
+ * receive port, and are matched to the waiting calls by their call id.
+ */
+final class RPCClient implements MessageUpcall {
+
+	private static final Logger logger = LoggerFactory
+			.getLogger(RPCClient.class);
+
+	/**
+	 * Call id of the message with which a server asks us to close our cached
+	 * connection to one of its remote objects.
+	 */
+	static final long DISCONNECT = -1;
+
+	// Weak, so that this map does not keep an Ibis alive. A client stays
+	// alive as long as its Ibis, which refers to it through the reply port.
+	private static final WeakHashMap<Ibis, WeakReference<RPCClient>> clients = new WeakHashMap<Ibis, WeakReference<RPCClient>>();
+
+	/**
+	 * A call waiting for its reply.
+	 */
+	private static final class Call {
+		boolean done = false;
+
+		boolean success;
+
+		Object result;
+	}
+
+	private final ReceivePort replyPort;
+
+	private final PortCache requestPorts;
+
+	private final HashMap<Long, Call> calls = new HashMap<Long, Call>();
+
+	private long nextCallId = 0;
+
+	private boolean closed = false;
+
+	static synchronized RPCClient get(Ibis ibis) throws IOException {
+		WeakReference<RPCClient> ref = clients.get(ibis);
+		RPCClient client = ref == null ? null : ref.get();
+		if (client == null || client.isClosed()) {
+			client = new RPCClient(ibis);
+			clients.put(ibis, new WeakReference<RPCClient>(client));
+		}
+		return client;
+	}
+
+	static void close(Ibis ibis) {
+		WeakReference<RPCClient> ref;
+		synchronized (RPCClient.class) {
+			ref = clients.remove(ibis);
+		}
+		RPCClient client = ref == null ? null : ref.get();
+		if (client != null) {
+			client.close();
+		}
+	}
+
+	private RPCClient(Ibis ibis) throws IOException {
+		requestPorts = new PortCache(ibis, RPC.rpcRequestPortType);
+
+		// this receive port does not need a name, as we send its
+		// identifier to the server with every request
+		replyPort = ibis.createReceivePort(RPC.rpcReplyPortType, null, this);
+		replyPort.enableConnections();
+		replyPort.enableMessageUpcalls();
+	}
+
+	/**
+	 * Performs a call on the given remote object and waits for the reply.
+	 *
+	 * @return true if the method returned normally, false if it threw the
+	 *         exception stored in result[0].
+	 */
+	boolean invoke(IbisIdentifier ibisIdentifier, String name, Method method,
+			Object[] args, Object[] result) throws IOException {
+		Call call = new Call();
+		long callId;
+
+		synchronized (this) {
+			if (closed) {
+				throw new IOException("RPC client closed");
+			}
+			callId = nextCallId++;
+			calls.put(callId, call);
+		}
+
+		try {
+			sendRequest(ibisIdentifier, name, callId, method, args);
+
+			synchronized (this) {
+				while (!call.done && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// ignored
+					}
+				}
+				if (!call.done) {
+					throw new IOException("RPC client closed");
+				}
+			}
+		} finally {
+			synchronized (this) {
+				calls.remove(callId);
+			}
+		}
+
+		result[0] = call.result;
+		return call.success;
+	}
+
+	private void sendRequest(IbisIdentifier ibisIdentifier, String name,
+			long callId, Method method, Object[] args) throws IOException {
+		PortCache.Entry entry = requestPorts.get(ibisIdentifier, name);
+
+		// Send the request message. This message contains the identifier of
+		// our receive port so the server knows where to send the reply
+		try {
+			WriteMessage request = entry.sendPort().newMessage();
+			request.writeObject(replyPort.identifier());
+			request.writeLong(callId);
+			request.writeString(method.getName());
+			request.writeObject(method.getParameterTypes());
+			request.writeObject(args);
+			request.finish();
+		} catch (IOException e) {
+			requestPorts.discard(entry);
+			throw e;
+		}
+		requestPorts.release(entry);
+	}
+
+	/**
+	 * Function called by Ibis to give us a reply. Not meant to be called by
+	 * users.
+	 */
+	public void upcall(ReadMessage message) throws IOException,
+			ClassNotFoundException {
+		long callId = message.readLong();
+
+		if (callId == DISCONNECT) {
+			// the remote object is being unexported
+			String name = message.readString();
+			IbisIdentifier server = message.origin().ibisIdentifier();
+			message.finish();
+			requestPorts.disconnect(server, name);
+			return;
+		}
+
+		boolean success = message.readBoolean();
+		Object result = message.readObject();
+		message.finish();
+
+		synchronized (this) {
+			Call call = calls.get(callId);
+			if (call == null) {
+				logger.warn("received reply for unknown call " + callId);
+				return;
+			}
+			call.success = success;
+			call.result = result;
+			call.done = true;
+			notifyAll();
+		}
+	}
+
+	private synchronized boolean isClosed() {
+		return closed;
+	}
+
+	private void close() {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		requestPorts.close();
+		try {
+			// servers may still hold cached connections to this port
+			replyPort.close(-1);
+		} catch (IOException e) {
+			// ignored
+		}
+	}
+}
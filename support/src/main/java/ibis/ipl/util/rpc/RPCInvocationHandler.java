@@ -17,10 +17,6 @@ package ibis.ipl.util.rpc;
 
 import ibis.ipl.Ibis;
 import ibis.ipl.IbisIdentifier;
-import ibis.ipl.ReadMessage;
-import ibis.ipl.ReceivePort;
-import ibis.ipl.SendPort;
-import ibis.ipl.WriteMessage;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationHandler;
@@ -56,40 +52,16 @@ class RPCInvocationHandler implements InvocationHandler {
 						+ method.getName());
 			}
 
-			// Create a send port for sending the request and connect.
-			SendPort sendPort = ibis.createSendPort(RPC.rpcRequestPortType);
-			sendPort.connect(ibisIdentifier, name);
-
-			// Create a receive port for receiving the reply from the server
-			// this receive port does not need a name, as we will send the
-			// ReceivePortIdentifier to the server directly
-			ReceivePort receivePort = ibis.createReceivePort(
-					RPC.rpcReplyPortType, null);
-			receivePort.enableConnections();
-
-			// Send the request message. This message contains the identifier of
-			// our receive port so the server knows where to send the reply
-			WriteMessage request = sendPort.newMessage();
-			request.writeObject(receivePort.identifier());
-			request.writeString(method.getName());
-			request.writeObject(method.getParameterTypes());
-			request.writeObject(args);
-			request.finish();
-			
-			ReadMessage reply = receivePort.receive();
-			boolean success = reply.readBoolean();
-			Object result = reply.readObject();
-			reply.finish();
+			Object[] reply = new Object[1];
+			boolean success = RPCClient.get(ibis).invoke(ibisIdentifier, name,
+					method, args, reply);
+			Object result = reply[0];
 
 			if (logger.isDebugEnabled()) {
 				logger.debug("remote object \"" + name + "\", method \"" + method.getName()
 						+ "\" result = " + result);
 			}
 
-			// Close ports.
-			sendPort.close();
-			receivePort.close();
-
 			if (success) {
 				return result;
 			} else if (result instanceof InvocationTargetException) {
@@ -19,17 +19,20 @@ import ibis.ipl.Ibis;
 import ibis.ipl.MessageUpcall;
 import ibis.ipl.ReadMessage;
 import ibis.ipl.ReceivePort;
+import ibis.ipl.ReceivePortConnectUpcall;
 import ibis.ipl.ReceivePortIdentifier;
-import ibis.ipl.SendPort;
+import ibis.ipl.SendPortIdentifier;
 import ibis.ipl.WriteMessage;
 
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.HashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class RemoteObject<InterfaceType> implements MessageUpcall {
+public class RemoteObject<InterfaceType> implements MessageUpcall,
+		ReceivePortConnectUpcall {
 
 	private static final Logger logger = LoggerFactory
 			.getLogger(RemoteObject.class);
@@ -60,11 +63,18 @@ public class RemoteObject<InterfaceType> implements MessageUpcall {
 
 	private final ReceivePort receivePort;
 
+	private final PortCache replyPorts;
+
+	// reply port of the client behind each connection that sent a request,
+	// until the connection is closed
+	private final HashMap<SendPortIdentifier, ReceivePortIdentifier> requestors = new HashMap<SendPortIdentifier, ReceivePortIdentifier>();
+
 	RemoteObject(Class<InterfaceType> interfaceClass, InterfaceType theObject,
 			String name, Ibis ibis) throws RemoteException {
 		this.interfaceClass = interfaceClass;
 		this.theObject = theObject;
 		this.ibis = ibis;
+		replyPorts = new PortCache(ibis, RPC.rpcReplyPortType);
 
 		// check if all methods of given interface throw a RemoteException
 		for (Method method : interfaceClass.getDeclaredMethods()) {
@@ -84,7 +94,7 @@ public class RemoteObject<InterfaceType> implements MessageUpcall {
 
 		try {
 			receivePort = ibis.createReceivePort(RPC.rpcRequestPortType, name,
-					this);
+					this, this, null);
 			// enable connections
 			receivePort.enableConnections();
 			// enable upcalls
@@ -104,8 +114,50 @@ public class RemoteObject<InterfaceType> implements MessageUpcall {
 		}
 	}
 
+	/**
+	 * Makes this object no longer remotely accessible. Clients keep their
+	 * connections open for a while after a call, so they are asked to
+	 * disconnect first. Clients that do not, for instance because they
+	 * crashed, are waited for at most {@link RPC#CONNECTION_IDLE_TIMEOUT}
+	 * milliseconds.
+	 */
 	public void unexport() throws IOException {
-		receivePort.close();
+		try {
+			for (SendPortIdentifier client : receivePort.connectedTo()) {
+				ReceivePortIdentifier requestor;
+				synchronized (requestors) {
+					requestor = requestors.get(client);
+				}
+				if (requestor != null) {
+					askToDisconnect(requestor);
+				}
+			}
+			receivePort.close(RPC.CONNECTION_IDLE_TIMEOUT);
+		} finally {
+			replyPorts.close();
+		}
+	}
+
+	private void askToDisconnect(ReceivePortIdentifier requestor) {
+		try {
+			PortCache.Entry entry = replyPorts.get(
+					requestor.ibisIdentifier(), requestor.name());
+			try {
+				WriteMessage message = entry.sendPort().newMessage();
+				message.writeLong(RPCClient.DISCONNECT);
+				message.writeString(name);
+				message.finish();
+			} catch (IOException e) {
+				replyPorts.discard(entry);
+				throw e;
+			}
+			replyPorts.release(entry);
+		} catch (IOException e) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("could not ask " + requestor
+						+ " to disconnect", e);
+			}
+		}
 	}
 
 	/**
@@ -118,9 +170,16 @@ public class RemoteObject<InterfaceType> implements MessageUpcall {
 		// read request
 		ReceivePortIdentifier requestor = (ReceivePortIdentifier) message
 				.readObject();
+		long callId = message.readLong();
 		String methodName = message.readString();
 		Class<?>[] parameterTypes = (Class<?>[]) message.readObject();
 		Object[] args = (Object[]) message.readObject();
+
+		// before finish(), so that it is not lost when the connection is
+		// closed right after this message
+		synchronized (requestors) {
+			requestors.put(message.origin(), requestor);
+		}
 		message.finish();
 
 		if (logger.isDebugEnabled()) {
@@ -128,11 +187,6 @@ public class RemoteObject<InterfaceType> implements MessageUpcall {
 					+ name + ", method name =  " + methodName);
 		}
 
-		// create reply connection.
-
-		SendPort replyPort = ibis.createSendPort(RPC.rpcReplyPortType);
-		replyPort.connect(requestor);
-
 		boolean success;
 		Object result = null;
 		try {
@@ -147,14 +201,43 @@ public class RemoteObject<InterfaceType> implements MessageUpcall {
 			success = false;
 		}
 
-		// send reply message
-		WriteMessage reply = replyPort.newMessage();
-		reply.writeBoolean(success);
-		reply.writeObject(result);
-		System.err.println("bytes send in reply = " + reply.finish());
+		// send reply message, over a cached connection
+		PortCache.Entry entry = replyPorts.get(requestor.ibisIdentifier(),
+				requestor.name());
+		try {
+			WriteMessage reply = entry.sendPort().newMessage();
+			reply.writeLong(callId);
+			reply.writeBoolean(success);
+			reply.writeObject(result);
+			long bytes = reply.finish();
+			if (logger.isDebugEnabled()) {
+				logger.debug("bytes sent in reply = " + bytes);
+			}
+		} catch (IOException e) {
+			replyPorts.discard(entry);
+			throw e;
+		}
+		replyPorts.release(entry);
+	}
+
+	/**
+	 * Function called by Ibis when a client connects. Not meant to be called
+	 * by users.
+	 */
+	public boolean gotConnection(ReceivePort receiver,
+			SendPortIdentifier applicant) {
+		return true;
+	}
 
-		// cleanup
-		replyPort.close();
+	/**
+	 * Function called by Ibis when the connection of a client is closed or
+	 * lost. Not meant to be called by users.
+	 */
+	public void lostConnection(ReceivePort receiver,
+			SendPortIdentifier origin, Throwable cause) {
+		synchronized (requestors) {
+			requestors.remove(origin);
+		}
 	}
 
 	public String toString() {